@@ -6,6 +6,7 @@ public abstract class AbstractFDEMachine implements FDEMachine {
 	protected final MainMemory mm;
 	protected final Memory reg; // register file
 	protected boolean isRunning;
+	protected MachineObserver observer; // null if the machine isn't observed
 
 	public AbstractFDEMachine(MainMemory main, Memory rFile) {
 		if (main == null || rFile == null)
@@ -14,11 +15,41 @@ public abstract class AbstractFDEMachine implements FDEMachine {
 		reg = rFile;
 	}
 
+	/**
+	 * Sets the observer notified of the execution of this machine, replacing the
+	 * previous one.
+	 * 
+	 * @param observer the observer, or null to stop observing the machine.
+	 */
+	public void setObserver(MachineObserver observer) {
+		this.observer = observer;
+	}
+
+	/**
+	 * Returns the observer notified of the execution of this machine.
+	 * 
+	 * @return the observer, or null if the machine isn't observed.
+	 */
+	public MachineObserver getObserver() {
+		return observer;
+	}
+
 	/** Runs until a halting instruction stops the execution. */
 	public void run() {
 		isRunning = true;
-		while (isRunning)
-			runCycle();
+		if (observer == null) {
+			while (isRunning)
+				runCycle();
+			return;
+		}
+		MachineObserver o = observer;
+		o.started();
+		try {
+			while (isRunning)
+				runCycle();
+		} finally {
+			o.stopped();
+		}
 	}
 
 	@Override
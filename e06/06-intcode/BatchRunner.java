@@ -0,0 +1,345 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Runs a program many times, independently and in parallel on a
+ * {@link ForkJoinPool}, e.g. once for every pair of noun and verb or once for
+ * every input of a range. The program is loaded once: each run gets a
+ * {@link IntCodeVM#fork()} of the loaded machine, which shares its memory
+ * pages until it writes them. Each run is prepared by a {@link Setup}, which
+ * can patch the memory and give the machine its input, and its outputs are
+ * collected in a {@link Result}. By default a machine has no input: a run
+ * which needs to read stops waiting, instead of blocking. Results hold their
+ * final machine, so large batches should keep only what they need of each.
+ */
+public class BatchRunner {
+	private final IntCodeVM template;
+	private final ForkJoinPool pool;
+
+	/*
+	 * Abstraction Function: AF(template, pool) = runner of the program loaded in
+	 * template, on the threads of pool.
+	 *
+	 * Representation Invariant: template and pool are not null; template is never
+	 * run nor written.
+	 */
+
+	/** Preparation of a run of a batch. */
+	public interface Setup {
+
+		/**
+		 * Prepares the machine of the run of index {@code index}, before it runs.
+		 *
+		 * @param index the index of the run.
+		 * @param vm    the machine, fresh from the loaded program.
+		 */
+		void prepare(int index, IntCodeVM vm);
+
+	}
+
+	/** Outcome of a run of a batch. */
+	public static final class Result {
+		private final int index;
+		private final IntCodeVM vm;
+		private final long[] outputs;
+		private final RuntimeException exception;
+
+		private Result(int index, IntCodeVM vm, long[] outputs, RuntimeException exception) {
+			this.index = index;
+			this.vm = vm;
+			this.outputs = outputs;
+			this.exception = exception;
+		}
+
+		/**
+		 * Returns the index of the run.
+		 *
+		 * @return the index.
+		 */
+		public int index() {
+			return index;
+		}
+
+		/**
+		 * Returns the machine of the run, in its final state.
+		 *
+		 * @return the machine.
+		 */
+		public IntCodeVM vm() {
+			return vm;
+		}
+
+		/**
+		 * Returns the words written by the machine, in order.
+		 *
+		 * @return a copy of the outputs.
+		 */
+		public long[] outputs() {
+			return outputs.clone();
+		}
+
+		/**
+		 * Returns true if the machine halted, i.e. it didn't stop for lack of input
+		 * or by exception.
+		 *
+		 * @return true if the machine halted; false otherwise.
+		 */
+		public boolean isHalted() {
+			return vm.isHalted();
+		}
+
+		/**
+		 * Returns the exception which stopped the machine, if any.
+		 *
+		 * @return the exception, or null if the machine stopped normally.
+		 */
+		public RuntimeException exception() {
+			return exception;
+		}
+
+		@Override
+		public String toString() {
+			return "Run " + index + (exception != null ? " failed with " + exception
+					: vm.isHalted() ? " halted" : " is waiting") + ", outputs " + Arrays.toString(outputs);
+		}
+
+	}
+
+	/** Input port with no words. */
+	private static class NoInput implements InputPort {
+
+		@Override
+		public boolean isEmpty() {
+			return true;
+		}
+
+		@Override
+		public long read() {
+			throw new IllegalStateException("can't read from an empty port");
+		}
+
+	}
+
+	/** Output port collecting every word written. */
+	private static class Collector implements OutputPort {
+		private long[] words = new long[4];
+		private int size;
+
+		@Override
+		public boolean isFull() {
+			return false;
+		}
+
+		@Override
+		public void write(long value) {
+			if (size == words.length)
+				words = Arrays.copyOf(words, 2 * size);
+			words[size++] = value;
+		}
+
+		long[] words() {
+			return Arrays.copyOf(words, size);
+		}
+
+	}
+
+	/**
+	 * Constructs a runner of {@code program}, with words of width
+	 * {@code wordSize}, on the common {@link ForkJoinPool}.
+	 *
+	 * @param program  the program.
+	 * @param wordSize the width of the machine words.
+	 * @throws NullPointerException     if program or wordSize are null.
+	 * @throws IllegalArgumentException if wordSize is INT32 and a word of program
+	 *                                  doesn't fit an int.
+	 */
+	public BatchRunner(long[] program, IntCodeVM.WordSize wordSize) {
+		this(program, wordSize, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs a runner of {@code program}, with words of width
+	 * {@code wordSize}, on {@code pool}.
+	 *
+	 * @param program  the program.
+	 * @param wordSize the width of the machine words.
+	 * @param pool     the pool running the machines.
+	 * @throws NullPointerException     if program, wordSize or pool are null.
+	 * @throws IllegalArgumentException if wordSize is INT32 and a word of program
+	 *                                  doesn't fit an int.
+	 */
+	public BatchRunner(long[] program, IntCodeVM.WordSize wordSize, ForkJoinPool pool) {
+		if (pool == null)
+			throw new NullPointerException("the pool can't be null");
+		template = new IntCodeVM(program, wordSize);
+		template.fork(); // shares the pages once and for all, before any thread forks
+		this.pool = pool;
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return template != null && pool != null;
+	}
+
+	/**
+	 * Performs the run of index {@code index}.
+	 *
+	 * @param index the index.
+	 * @param setup the preparation of the run.
+	 * @return the result.
+	 */
+	private Result run(int index, Setup setup) {
+		IntCodeVM vm = template.fork();
+		Collector out = new Collector();
+		vm.setInput(new NoInput());
+		vm.setOutput(out);
+		RuntimeException exception = null;
+		try {
+			setup.prepare(index, vm);
+			vm.runFast();
+		} catch (RuntimeException e) {
+			exception = e;
+		}
+		return new Result(index, vm, out.words(), exception);
+	}
+
+	/**
+	 * Task performing the runs of a range of indexes, splitting it in halves
+	 * while it's large. If the batch has a stop condition, runs of index not
+	 * lower than bound are skipped.
+	 */
+	private final class Range extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to, grain;
+		private final Setup setup;
+		private final Object[] results; // null if only the first match is kept
+		private final Function<? super Result, ?> map; // what results keep of a run
+		private final Predicate<? super Result> stop; // null if the batch has none
+		private final AtomicInteger bound;
+		private final AtomicReference<Result> found;
+
+		Range(int from, int to, int grain, Setup setup, Object[] results, Function<? super Result, ?> map,
+				Predicate<? super Result> stop, AtomicInteger bound, AtomicReference<Result> found) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.setup = setup;
+			this.results = results;
+			this.map = map;
+			this.stop = stop;
+			this.bound = bound;
+			this.found = found;
+		}
+
+		@Override
+		protected void compute() {
+			if (from >= bound.get())
+				return;
+			if (to - from > grain) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Range(from, mid, grain, setup, results, map, stop, bound, found),
+						new Range(mid, to, grain, setup, results, map, stop, bound, found));
+				return;
+			}
+			for (int i = from; i < to && i < bound.get(); i++) {
+				Result r = run(i, setup);
+				if (results != null)
+					results[i] = map.apply(r);
+				if (stop != null && stop.test(r)) {
+					bound.accumulateAndGet(i, Math::min);
+					found.accumulateAndGet(r, (a, b) -> a == null || b.index < a.index ? b : a);
+					return;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Returns the size of the ranges of runs a task performs without splitting
+	 * them further.
+	 *
+	 * @param count the number of runs.
+	 * @return the size.
+	 */
+	private int grain(int count) {
+		return Math.max(1, count / (8 * pool.getParallelism()));
+	}
+
+	/**
+	 * Performs the runs of indexes 0 to {@code count} - 1, in parallel, and
+	 * returns what {@code map} keeps of each result. Keeping whole results keeps
+	 * the memory of every machine.
+	 *
+	 * @param <R>   the type of what is kept of a result.
+	 * @param count the number of runs.
+	 * @param setup the preparation of each run.
+	 * @param map   the function extracting what is kept of a result.
+	 * @return what is kept of the results, in order of index.
+	 * @throws NullPointerException     if setup or map are null.
+	 * @throws IllegalArgumentException if count is negative.
+	 */
+	public <R> List<R> runAll(int count, Setup setup, Function<? super Result, ? extends R> map) {
+		if (setup == null || map == null)
+			throw new NullPointerException("the setup and the function can't be null");
+		if (count < 0)
+			throw new IllegalArgumentException("can't perform " + count + " runs");
+		Object[] res = new Object[count];
+		pool.invoke(new Range(0, count, grain(count), setup, res, map, null, new AtomicInteger(count), null));
+		@SuppressWarnings("unchecked") // every element is the result of map
+		List<R> list = (List<R>) Arrays.asList(res);
+		return list;
+	}
+
+	/**
+	 * Performs the runs of indexes 0 to {@code count} - 1, in parallel, until one
+	 * satisfies {@code stop}. Runs of higher index than a run satisfying stop
+	 * aren't started, so that the result is the same as running them in order.
+	 *
+	 * @param count the number of runs.
+	 * @param setup the preparation of each run.
+	 * @param stop  the condition ending the batch early.
+	 * @return the result of lowest index satisfying stop, or an empty Optional if
+	 *         none does.
+	 * @throws NullPointerException     if setup or stop are null.
+	 * @throws IllegalArgumentException if count is negative.
+	 */
+	public Optional<Result> findFirst(int count, Setup setup, Predicate<? super Result> stop) {
+		if (setup == null || stop == null)
+			throw new NullPointerException("the setup and the condition can't be null");
+		if (count < 0)
+			throw new IllegalArgumentException("can't perform " + count + " runs");
+		AtomicReference<Result> found = new AtomicReference<>();
+		pool.invoke(new Range(0, count, grain(count), setup, null, null, stop, new AtomicInteger(count), found));
+		return Optional.ofNullable(found.get());
+	}
+
+	/**
+	 * Returns an input port holding {@code words}, to give a run its input.
+	 *
+	 * @param words the words, in order of reading.
+	 * @return the port.
+	 * @throws NullPointerException if words is null.
+	 */
+	public static InputPort inputOf(long... words) {
+		RingBuffer res = new RingBuffer(Math.max(1, words.length));
+		for (long w : words)
+			res.write(w);
+		return res;
+	}
+
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Benchmark of the execution engines of {@link IntCodeVM} over a corpus of
+ * representative programs: a tight arithmetic loop, a loop reading an array
+ * through the Relative Base Pointer, an input/output echo and a loop which
+ * rewrites its own code. For each program and engine it runs the program from
+ * scratch over and over, first to warm up and then to measure, and prints the
+ * programs run per second (ops/s), the IntCode instructions executed per
+ * second, and the bytes allocated and the garbage collections per op. The
+ * Recorded engine is the Switch one with a {@link TraceRecorder}, whose trace
+ * is discarded: the figures are the cost of recording, without the one of
+ * the file system. Usage:
+ * {@code java Bench [seconds per measure] [program] [engine]}, where program
+ * and engine select a single row by name.
+ */
+public class Bench {
+	private static final int LOOP_ITERATIONS = 100_000;
+	private static final int ARRAY_LENGTH = 1000;
+	private static final int ARRAY_PASSES = 20;
+	private static final int ECHO_WORDS = 20_000;
+	private static final int TRACE_CHUNK = 1 << 12;
+
+	private static final InstructionSet STANDARD = InstructionSet.standard();
+
+	private static final String[] PROGRAMS = { "arith", "relative", "echo", "selfmod" };
+	private static final String[] ENGINES = { "Reference", "Switch", "Recorded", "Tiered", "Optimized", "Registry" };
+
+	/**
+	 * Returns the program of the given name.
+	 *
+	 * @param name the name.
+	 * @return the program.
+	 */
+	private static long[] program(String name) {
+		switch (name) {
+			case "arith":
+				// i += 1; t = 3 * i; s += t; while (i < n)
+				return new long[] { 1001, 20, 1, 20, 102, 3, 20, 21, 1, 21, 22, 22, 1007, 20, LOOP_ITERATIONS, 23,
+						1005, 23, 0, 99, 0, 0, 0, 0 };
+			case "relative": {
+				// repeat passes times: RBP = array; for i < length: s += [RBP]; RBP += 1
+				long[] res = new long[100 + ARRAY_LENGTH];
+				long[] code = { 109, 100, 1101, 0, 0, 40, 201, 0, 41, 41, 109, 1, 1001, 40, 1, 40, 1007, 40,
+						ARRAY_LENGTH, 42, 1005, 42, 6, 109, -ARRAY_LENGTH, 1001, 43, -1, 43, 1005, 43, 2, 99 };
+				System.arraycopy(code, 0, res, 0, code.length);
+				res[43] = ARRAY_PASSES;
+				for (int i = 0; i < ARRAY_LENGTH; i++)
+					res[100 + i] = i;
+				return res;
+			}
+			case "echo":
+				// read x; if x == 0 halt; write x
+				return new long[] { 3, 20, 1006, 20, 10, 4, 20, 1105, 1, 0, 99 };
+			case "selfmod":
+				// the immediate at 2 is incremented by the loop, so the first
+				// instruction is rewritten at every iteration
+				return new long[] { 1101, 0, 0, 30, 1001, 2, 1, 2, 1007, 2, LOOP_ITERATIONS, 31, 1005, 31, 0, 99 };
+			default:
+				throw new IllegalArgumentException("unknown program " + name);
+		}
+	}
+
+	/** Input port producing 1, 2, ..., ECHO_WORDS and then 0. */
+	private static class CountingInput implements InputPort {
+		private int next = 1;
+
+		@Override
+		public boolean isEmpty() {
+			return false;
+		}
+
+		@Override
+		public long read() {
+			return next <= ECHO_WORDS ? next++ : 0;
+		}
+
+	}
+
+	/** Output port discarding every word. */
+	private static class NullOutput implements OutputPort {
+		long last;
+
+		@Override
+		public boolean isFull() {
+			return false;
+		}
+
+		@Override
+		public void write(long value) {
+			last = value;
+		}
+
+	}
+
+	/** Channel discarding every byte. */
+	private static class NullChannel implements WritableByteChannel {
+
+		@Override
+		public int write(ByteBuffer src) {
+			int res = src.remaining();
+			src.position(src.limit());
+			return res;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+	/**
+	 * Runs a program once, from scratch, with the given engine.
+	 *
+	 * @param program  the program.
+	 * @param engine   the engine.
+	 * @param observer the observer of the machine, or null.
+	 * @return the final machine.
+	 */
+	private static IntCodeVM runOnce(long[] program, String engine, MachineObserver observer) {
+		IntCodeVM vm = engine.equals("Tiered") ? new TieredIntCodeVM(program, IntCodeVM.WordSize.INT32)
+				: new IntCodeVM(program, IntCodeVM.WordSize.INT32);
+		vm.setInput(new CountingInput());
+		vm.setOutput(new NullOutput());
+		vm.setObserver(observer);
+		if (engine.equals("Optimized"))
+			vm.optimize();
+		if (engine.equals("Registry"))
+			vm.setInstructionSet(STANDARD);
+		if (engine.equals("Switch"))
+			vm.runFast();
+		else if (engine.equals("Recorded"))
+			try (TraceRecorder recorder = new TraceRecorder(new NullChannel(), TRACE_CHUNK)) {
+				vm.setObserver(recorder);
+				vm.runFast();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		else
+			vm.run();
+		return vm;
+	}
+
+	private static long collections() {
+		long res = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			res += Math.max(0, gc.getCollectionCount());
+		return res;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Runs a program over and over for about {@code seconds} seconds.
+	 *
+	 * @return { ops, nanoseconds, bytes allocated, collections }.
+	 */
+	private static long[] measure(long[] program, String engine, double seconds) {
+		long ops = 0, gcs = collections(), bytes = allocatedBytes(), start = System.nanoTime(), now;
+		long end = start + (long) (seconds * 1e9);
+		int hash = 0;
+		do {
+			hash += runOnce(program, engine, null).hashCode();
+			ops++;
+			now = System.nanoTime();
+		} while (now < end);
+		long[] res = { ops, now - start, allocatedBytes() - bytes, collections() - gcs };
+		if (hash == 42) // keeps the runs alive
+			System.out.print("");
+		return res;
+	}
+
+	public static void main(String[] args) {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		System.out.printf("%-9s %-9s %12s %14s %14s %8s%n", "program", "engine", "ops/s", "instructions/s",
+				"bytes/op", "gc/op");
+		for (String name : PROGRAMS) {
+			if (args.length > 1 && !args[1].equals(name))
+				continue;
+			long[] program = program(name);
+			Profiler profile = new Profiler();
+			runOnce(program, "Reference", profile);
+			for (String engine : ENGINES) {
+				if (args.length > 2 && !args[2].equals(engine))
+					continue;
+				measure(program, engine, seconds / 2); // warm-up
+				long[] m = measure(program, engine, seconds);
+				double opsPerSecond = m[0] / (m[1] / 1e9);
+				System.out.printf("%-9s %-9s %12.1f %14.0f %14.0f %8.3f%n", name, engine, opsPerSecond,
+						opsPerSecond * profile.instructions(), (double) m[2] / m[0], (double) m[3] / m[0]);
+			}
+		}
+	}
+}
@@ -0,0 +1,418 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Translates basic blocks of IntCode programs into JVM classes implementing
+ * {@link CompiledBlock}. A block starts at a given address and goes on until a
+ * branch or a halting instruction (included), or until an instruction which
+ * is left to the interpreter (excluded): input and output instructions, and
+ * instructions whose OPcode, access modes or constant addresses are invalid.
+ * The generated classes have a single method whose code mirrors the effects of
+ * the {@link Instruction}s of {@link IntCodeVM}, with parameters and access
+ * modes fixed at compilation time. They are written by hand in the version 49
+ * class file format, which doesn't need stack map frames, and defined as hidden
+ * classes. The blocks are stateless, so the last {@value #CACHE_SIZE} defined
+ * are kept by their class file, which depends only on the instructions of the
+ * block and their addresses: machines running the same program share them,
+ * instead of defining a class per machine.
+ */
+final class BlockCompiler {
+	// maximum number of instructions in a block
+	private static final int MAX_INSTRUCTIONS = 64;
+
+	private static final String CONTEXT = "TieredIntCodeVM$BlockContext";
+
+	// maximum number of compiled blocks kept for other machines
+	private static final int CACHE_SIZE = 1024;
+
+	// compiled blocks by class file, least recently used first
+	private static final Map<ByteBuffer, CompiledBlock> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CompiledBlock> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// JVM opcodes
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ICONST_1 = 0x04;
+	private static final int LCONST_0 = 0x09;
+	private static final int BIPUSH = 0x10;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int LADD = 0x61;
+	private static final int LMUL = 0x69;
+	private static final int IUSHR = 0x7c;
+	private static final int IAND = 0x7e;
+	private static final int IXOR = 0x82;
+	private static final int I2L = 0x85;
+	private static final int LCMP = 0x94;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int RETURN = 0xb1;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	// constant pool of the class being written
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	// code of the run method
+	private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+	private BlockCompiler() {
+	}
+
+	/**
+	 * Compiles the block of the program of {@code vm} which starts at
+	 * {@code start}, as it is in the memory of vm now.
+	 *
+	 * @param vm    the machine.
+	 * @param start the address of the first instruction of the block.
+	 * @return the compiled block, or null if the instruction at start is left to
+	 *         the interpreter.
+	 * @throws IllegalStateException if the generated class can't be defined.
+	 */
+	static TieredIntCodeVM.Block compile(TieredIntCodeVM vm, int start) {
+		BlockCompiler c = new BlockCompiler();
+		int end = c.translate(vm.mm, start);
+		if (end == start)
+			return null;
+		try {
+			byte[] classFile = c.classFile();
+			ByteBuffer key = ByteBuffer.wrap(classFile);
+			CompiledBlock code;
+			synchronized (CACHE) {
+				code = CACHE.get(key);
+			}
+			if (code == null) {
+				MethodHandles.Lookup block = MethodHandles.lookup().defineHiddenClass(classFile, true);
+				code = (CompiledBlock) block.findConstructor(block.lookupClass(), MethodType.methodType(void.class))
+						.invoke();
+				synchronized (CACHE) {
+					CACHE.put(key, code);
+				}
+			}
+			return new TieredIntCodeVM.Block(start, end, code);
+		} catch (Throwable e) {
+			throw new IllegalStateException("can't define the class of the block at " + start, e);
+		}
+	}
+
+	/**
+	 * Writes the code of the run method for the block starting at {@code start}.
+	 *
+	 * @param mm    the memory containing the block.
+	 * @param start the address of the first instruction.
+	 * @return the address of the first cell after the last translated
+	 *         instruction.
+	 */
+	private int translate(MainMemory mm, int start) {
+		int ip = start;
+		for (int n = 0; n < MAX_INSTRUCTIONS; n++) {
+			long rawOP = mm.getWord(ip);
+			if (rawOP < 0)
+				break;
+			int modes = (int) (rawOP / 100 % 1000);
+			int op = (int) (rawOP % 100);
+			long a = mm.getWord(ip + 1), b = mm.getWord(ip + 2), c = mm.getWord(ip + 3);
+			int m1 = modes % 10, m2 = modes / 10 % 10;
+			switch (op) {
+				case IntCodeVM.Instructions.ADD:
+				case IntCodeVM.Instructions.MUL:
+				case IntCodeVM.Instructions.SLT:
+				case IntCodeVM.Instructions.SEQ:
+					if (!readable(a, m1) || !readable(b, m2) || !readable(c, 0))
+						return end(ip);
+					setIp(ip + 4);
+					code.write(ALOAD_1);
+					ldc(c);
+					arg(a, m1);
+					arg(b, m2);
+					if (op == IntCodeVM.Instructions.ADD)
+						code.write(LADD);
+					else if (op == IntCodeVM.Instructions.MUL)
+						code.write(LMUL);
+					else if (op == IntCodeVM.Instructions.SLT) {
+						// (a < b ? 1 : 0) is the sign bit of lcmp(a, b)
+						code.write(LCMP);
+						code.write(BIPUSH);
+						code.write(31);
+						code.write(IUSHR);
+						code.write(I2L);
+					} else {
+						// (a == b ? 1 : 0) is the negated lowest bit of lcmp(a, b)
+						code.write(LCMP);
+						code.write(ICONST_1);
+						code.write(IAND);
+						code.write(ICONST_1);
+						code.write(IXOR);
+						code.write(I2L);
+					}
+					invoke("write", "(JJ)Z");
+					code.write(IFEQ);
+					u2(code, 4);
+					code.write(RETURN);
+					ip += 4;
+					break;
+				case IntCodeVM.Instructions.UPD:
+					if (!readable(a, m1))
+						return end(ip);
+					setIp(ip + 2);
+					code.write(ALOAD_1);
+					arg(a, m1);
+					invoke("addRbp", "(J)V");
+					ip += 2;
+					break;
+				case IntCodeVM.Instructions.BNE:
+				case IntCodeVM.Instructions.BEQ:
+					if (!readable(a, m1) || !readable(b, m2))
+						return end(ip);
+					setIp(ip + 3);
+					arg(a, m1);
+					code.write(LCONST_0);
+					code.write(LCMP);
+					code.write(op == IntCodeVM.Instructions.BNE ? IFEQ : IFNE);
+					int jump = code.size();
+					u2(code, 0);
+					code.write(ALOAD_1);
+					arg(b, m2);
+					invoke("jump", "(J)V");
+					byte[] sofar = code.toByteArray();
+					int offset = sofar.length - jump + 1;
+					sofar[jump] = (byte) (offset >> 8);
+					sofar[jump + 1] = (byte) offset;
+					code.reset();
+					code.write(sofar, 0, sofar.length);
+					code.write(RETURN);
+					return ip + 3;
+				case IntCodeVM.Instructions.HAL:
+					setIp(ip + 1);
+					code.write(ALOAD_1);
+					invoke("halt", "()V");
+					code.write(RETURN);
+					return ip + 1;
+				default:
+					return end(ip);
+			}
+		}
+		return end(ip);
+	}
+
+	/**
+	 * Ends the code of a block whose instructions stop right before {@code ip}.
+	 *
+	 * @param ip the address of the first instruction left out of the block.
+	 * @return ip.
+	 */
+	private int end(int ip) {
+		code.write(RETURN);
+		return ip;
+	}
+
+	/**
+	 * Checks that a parameter can be translated: its mode must be valid, and if it
+	 * is an address it must be a valid cell index.
+	 *
+	 * @param par  the parameter.
+	 * @param mode its access mode (0 for parameters used to write).
+	 * @return true if the parameter can be translated.
+	 */
+	private static boolean readable(long par, int mode) {
+		return mode == 1 || mode == 2 || (mode == 0 && par >= 0 && par <= Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Writes the code which sets the address to continue from.
+	 *
+	 * @param next the address.
+	 */
+	private void setIp(int next) {
+		code.write(ALOAD_1);
+		code.write(LDC_W);
+		u2(code, constant("I" + next));
+		code.write(PUTFIELD);
+		u2(code, member(9, CONTEXT, "ip", "I"));
+	}
+
+	/**
+	 * Writes the code which pushes the actual argument of a parameter.
+	 *
+	 * @param par  the parameter.
+	 * @param mode the access mode.
+	 */
+	private void arg(long par, int mode) {
+		if (mode == 1) {
+			ldc(par);
+			return;
+		}
+		code.write(ALOAD_1);
+		ldc(par);
+		invoke(mode == 0 ? "read" : "readRelative", "(J)J");
+	}
+
+	private void ldc(long value) {
+		code.write(LDC2_W);
+		u2(code, constant("J" + value));
+	}
+
+	private void invoke(String name, String descriptor) {
+		code.write(INVOKEVIRTUAL);
+		u2(code, member(10, CONTEXT, name, descriptor));
+	}
+
+	private static void u2(ByteArrayOutputStream out, int value) {
+		out.write(value >> 8);
+		out.write(value);
+	}
+
+	/**
+	 * Returns the constant pool index of an entry, adding it if needed.
+	 *
+	 * @param key kind of the entry followed by its content: U for utf8 strings, C
+	 *            for classes, I for ints, J for longs.
+	 * @return the index.
+	 */
+	private int constant(String key) {
+		Integer index = poolIndex.get(key);
+		if (index != null)
+			return index;
+		try {
+			String value = key.substring(1);
+			switch (key.charAt(0)) {
+				case 'U':
+					pool.writeByte(1);
+					pool.writeUTF(value);
+					break;
+				case 'C':
+					int name = constant("U" + value);
+					pool.writeByte(7);
+					pool.writeShort(name);
+					break;
+				case 'I':
+					pool.writeByte(3);
+					pool.writeInt(Integer.parseInt(value));
+					break;
+				case 'J':
+					pool.writeByte(5);
+					pool.writeLong(Long.parseLong(value));
+					break;
+				default:
+					throw new IllegalArgumentException("unknown constant kind " + key.charAt(0));
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		index = poolCount;
+		poolCount += key.charAt(0) == 'J' ? 2 : 1;
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	/**
+	 * Returns the constant pool index of a field or method reference, adding it if
+	 * needed.
+	 *
+	 * @param tag        9 for fields, 10 for methods.
+	 * @param owner      internal name of the class.
+	 * @param name       name of the member.
+	 * @param descriptor descriptor of the member.
+	 * @return the index.
+	 */
+	private int member(int tag, String owner, String name, String descriptor) {
+		String key = tag + owner + "." + name + descriptor;
+		Integer index = poolIndex.get(key);
+		if (index != null)
+			return index;
+		int ownerIndex = constant("C" + owner);
+		int nameIndex = constant("U" + name);
+		int descriptorIndex = constant("U" + descriptor);
+		try {
+			pool.writeByte(12);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descriptorIndex);
+			pool.writeByte(tag);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(poolCount);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		index = poolCount + 1;
+		poolCount += 2;
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	/**
+	 * Returns the class file of the block, with a constructor and the run method
+	 * whose code was translated.
+	 *
+	 * @return the class file.
+	 */
+	private byte[] classFile() throws IOException {
+		int thisClass = constant("CIntCodeBlock");
+		int superClass = constant("Cjava/lang/Object");
+		int iface = constant("CCompiledBlock");
+		int init = constant("U<init>");
+		int voidDescriptor = constant("U()V");
+		int superInit = member(10, "java/lang/Object", "<init>", "()V");
+		int run = constant("Urun");
+		int runDescriptor = constant("U(L" + CONTEXT + ";)V");
+		int codeAttribute = constant("UCode");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xcafebabe);
+		out.writeShort(0);
+		out.writeShort(49);
+		out.writeShort(poolCount);
+		pool.flush();
+		poolBytes.writeTo(out);
+		out.writeShort(0x0030); // final, super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(iface);
+		out.writeShort(0); // fields
+		out.writeShort(2); // methods
+
+		byte[] initCode = { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit,
+				(byte) RETURN };
+		method(out, init, voidDescriptor, codeAttribute, 1, 1, initCode);
+		method(out, run, runDescriptor, codeAttribute, 10, 2, code.toByteArray());
+
+		out.writeShort(0); // attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void method(DataOutputStream out, int name, int descriptor, int codeAttribute,
+			int maxStack, int maxLocals, byte[] code) throws IOException {
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeAttribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary checkpoints of {@link IntCodeVM}s, to save a machine to disk and
+ * resume it later, possibly in another process. A checkpoint holds the word
+ * size, the running state, the registers and the memory of the machine, but
+ * not its ports, its observer nor its {@link InstructionSet}. It is written
+ * and read as a stream, through NIO channels, with a fixed size buffer. The
+ * format, version 1, is:
+ * <ul>
+ * <li>the magic bytes {@code ICK} and the version byte;</li>
+ * <li>the width of the words in bytes (4 or 8), and a byte of flags: 1 if the
+ * machine is running, 2 if it's waiting, 4 if it's halted;</li>
+ * <li>the Instruction Pointer and the Relative Base Pointer;</li>
+ * <li>the size of the memory, i.e. the first cell after the highest one
+ * written, and the number of runs of cells stored;</li>
+ * <li>for each run, in order of address, the number of zero cells skipped since
+ * the end of the previous run, the number of cells of the run and their
+ * words.</li>
+ * </ul>
+ * Sizes and counts are unsigned LEB128 varints; registers and words are zigzag
+ * encoded first, so that small negative words are short too. Memory pages
+ * whose cells are all zero are not stored.
+ */
+public final class Checkpoint {
+	private static final byte[] MAGIC = { 'I', 'C', 'K' };
+	private static final int VERSION = 1;
+
+	private static final int RUNNING = 1;
+	private static final int WAITING = 2;
+	private static final int HALTED = 4;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Writes a checkpoint of {@code vm} to {@code ch}. The machine is not
+	 * modified: what is written is a {@link IntCodeVM#fork()} of it. Machines
+	 * aren't thread-safe, so this method must be called from the thread running
+	 * the machine, e.g. by its observer, or while the machine isn't running.
+	 *
+	 * @param vm the machine.
+	 * @param ch the channel.
+	 * @throws IOException          if ch throws it.
+	 * @throws NullPointerException if vm or ch are null.
+	 */
+	public static void write(IntCodeVM vm, WritableByteChannel ch) throws IOException {
+		VarintWriter enc = new VarintWriter(ch);
+		IntCodeVM copy = vm.fork();
+		PagedMainMemory mem = (PagedMainMemory) copy.mm;
+		long[][] pages = mem.pages();
+		int size = mem.size();
+		int n = (int) ((size + (long) PagedMainMemory.PAGE_SIZE - 1) >>> PagedMainMemory.PAGE_BITS);
+		int runs = 0;
+		for (int p = 0; p < n; p++)
+			if (!isZero(pages, p))
+				runs++;
+
+		for (byte b : MAGIC)
+			enc.writeByte(b);
+		enc.writeByte(VERSION);
+		enc.writeByte(copy.wordSize() == IntCodeVM.WordSize.INT32 ? 4 : 8);
+		enc.writeByte((copy.isRunning ? RUNNING : 0) | (copy.isWaiting() ? WAITING : 0)
+				| (copy.isHalted() ? HALTED : 0));
+		enc.writeZigzag(copy.reg.getWord(IntCodeVM.IP));
+		enc.writeZigzag(copy.reg.getWord(IntCodeVM.RBP));
+		enc.writeVarint(size);
+		enc.writeVarint(runs);
+		int end = 0; // end of the previous run
+		for (int p = 0; p < n; p++) {
+			if (isZero(pages, p))
+				continue;
+			int first = p << PagedMainMemory.PAGE_BITS;
+			int length = Math.min(PagedMainMemory.PAGE_SIZE, size - first);
+			enc.writeVarint(first - end);
+			enc.writeVarint(length);
+			long[] page = pages[p];
+			for (int i = 0; i < length; i++)
+				enc.writeZigzag(page[i]);
+			end = first + length;
+		}
+		enc.flush();
+	}
+
+	/**
+	 * Returns true if the page of index {@code p} is absent or all zero.
+	 */
+	private static boolean isZero(long[][] pages, int p) {
+		if (p >= pages.length || pages[p] == null)
+			return true;
+		for (long word : pages[p])
+			if (word != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Reads a checkpoint from {@code ch} and returns the machine it holds,
+	 * reading from {@link StandardInput} and writing to {@link StandardOutput}
+	 * like a new machine.
+	 *
+	 * @param ch the channel.
+	 * @return the machine.
+	 * @throws IOException              if ch throws it, or ends before the
+	 *                                  checkpoint.
+	 * @throws NullPointerException     if ch is null.
+	 * @throws IllegalArgumentException if ch doesn't contain a valid checkpoint,
+	 *                                  or it has a version this class can't read.
+	 */
+	public static IntCodeVM read(ReadableByteChannel ch) throws IOException {
+		VarintReader dec = new VarintReader(ch);
+		for (byte b : MAGIC)
+			if (dec.readByte() != b)
+				throw new IllegalArgumentException("not an IntCode checkpoint");
+		int version = dec.readByte();
+		if (version != VERSION)
+			throw new IllegalArgumentException("unsupported checkpoint version " + version);
+		int width = dec.readByte();
+		if (width != 4 && width != 8)
+			throw new IllegalArgumentException("invalid word width " + width + " in checkpoint");
+		int flags = dec.readByte();
+		if ((flags & ~(RUNNING | WAITING | HALTED)) != 0 || (flags & (WAITING | HALTED)) == (WAITING | HALTED))
+			throw new IllegalArgumentException("invalid flags " + flags + " in checkpoint");
+		long ip = dec.readZigzag(), rbp = dec.readZigzag();
+		int size = dec.readCount(Integer.MAX_VALUE, "memory size in checkpoint");
+		int runs = dec.readCount(Integer.MAX_VALUE, "number of runs in checkpoint");
+
+		long[][] pages = new long[(int) ((size + (long) PagedMainMemory.PAGE_SIZE - 1) >>> PagedMainMemory.PAGE_BITS)][];
+		int at = 0;
+		for (int r = 0; r < runs; r++) {
+			at += dec.readCount(size - at, "gap in checkpoint");
+			int end = at + dec.readCount(size - at, "run length in checkpoint");
+			for (; at < end; at++) {
+				long word = dec.readZigzag();
+				if (width == 4 && word != (int) word)
+					throw new IllegalArgumentException("the word " + word + " at " + at + " doesn't fit 32 bits");
+				int p = at >>> PagedMainMemory.PAGE_BITS;
+				if (pages[p] == null)
+					pages[p] = new long[PagedMainMemory.PAGE_SIZE];
+				pages[p][at & PagedMainMemory.OFFSET_MASK] = word;
+			}
+		}
+		if (width == 4 && (ip != (int) ip || rbp != (int) rbp))
+			throw new IllegalArgumentException("a register doesn't fit 32 bits in checkpoint");
+
+		IntCodeVM vm = new IntCodeVM(new PagedMainMemory(pages, size),
+				width == 4 ? IntCodeVM.WordSize.INT32 : IntCodeVM.WordSize.INT64);
+		vm.reg.setWord(IntCodeVM.IP, ip);
+		vm.reg.setWord(IntCodeVM.RBP, rbp);
+		if ((flags & WAITING) != 0)
+			vm.suspend();
+		if ((flags & HALTED) != 0)
+			vm.halt();
+		vm.isRunning = (flags & RUNNING) != 0;
+		return vm;
+	}
+
+	/**
+	 * Writes a checkpoint of {@code vm} to {@code file}, replacing its content.
+	 *
+	 * @param vm   the machine.
+	 * @param file the file.
+	 * @throws IOException          if the file can't be written.
+	 * @throws NullPointerException if vm or file are null.
+	 */
+	public static void save(IntCodeVM vm, Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(vm, ch);
+		}
+	}
+
+	/**
+	 * Reads the checkpoint in {@code file} and returns the machine it holds.
+	 *
+	 * @param file the file.
+	 * @return the machine.
+	 * @throws IOException              if the file can't be read.
+	 * @throws NullPointerException     if file is null.
+	 * @throws IllegalArgumentException if the file isn't a valid checkpoint.
+	 * @see #read(ReadableByteChannel)
+	 */
+	public static IntCodeVM load(Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(ch);
+		}
+	}
+
+}
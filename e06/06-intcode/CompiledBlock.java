@@ -0,0 +1,19 @@
+/**
+ * Basic block of an IntCode program translated into JVM bytecode by
+ * {@link BlockCompiler}. A basic block is a run of instructions which ends with
+ * a branch or a halting instruction, or right before an instruction which can't
+ * be compiled.
+ */
+interface CompiledBlock {
+
+	/**
+	 * Executes the instructions of this block on the machine behind {@code ctx}.
+	 * Before each instruction is executed, {@code ctx.ip} is set to the address of
+	 * the instruction which follows it, so that on return (also by exception) it
+	 * contains the Instruction Pointer the interpreter must continue from.
+	 *
+	 * @param ctx the machine the block runs on.
+	 */
+	void run(TieredIntCodeVM.BlockContext ctx);
+
+}
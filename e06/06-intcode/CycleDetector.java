@@ -0,0 +1,212 @@
+import java.util.Arrays;
+
+/**
+ * Runs an IntCode machine toward a budget of cycles, detecting when it enters
+ * a loop which repeats its whole state exactly, and then fast-forwarding it by
+ * as many whole periods of the loop as the budget allows. The machine runs
+ * with {@link IntCodeVM#runFast(long)} in slices of a fixed number of cycles;
+ * at the end of each slice its {@link IntCodeVM#fingerprint()} is compared, in
+ * constant time, to the one of a snapshot taken by Brent's algorithm, and a
+ * match is confirmed by comparing the states. A machine whose state at the end
+ * of two slices is the same will repeat the cycles in between forever, since
+ * it's deterministic as long as it doesn't read input: slices which read input
+ * restart the detection. The words written in a period are periodic too, and
+ * are written again to the output port for every period skipped; if the port
+ * fills up in the middle of a period, the machine executes that period again,
+ * without writing twice its first words, and stops waiting where it would have.
+ * After {@link #run(long)} the machine is in the state it would be in after
+ * executing the same number of cycles.
+ */
+public class CycleDetector {
+	private final IntCodeVM vm;
+	private final long slice;
+
+	// cycles skipped by fast-forwarding, and period of the last loop detected
+	private long skipped;
+	private long period;
+
+	/*
+	 * Abstraction Function: AF(vm, slice, skipped, period) = detector of the
+	 * loops of vm, looking for repeats every slice cycles, which skipped skipped
+	 * cycles so far, the last time over a loop of period cycles (0 if none was
+	 * detected).
+	 *
+	 * Representation Invariant: vm is not null; slice > 0; skipped >= 0; period
+	 * >= 0.
+	 */
+
+	/**
+	 * Observer of the input and output of the machine during a run, which
+	 * collects the words written since the snapshot.
+	 */
+	private static final class Collector implements MachineObserver {
+		private long[] outputs = new long[16];
+		private int count;
+		private boolean read;
+		private boolean replaying;
+
+		@Override
+		public boolean observesInstructions() {
+			return false;
+		}
+
+		@Override
+		public boolean observesMemory() {
+			return false;
+		}
+
+		@Override
+		public void input(long ip, long value) {
+			read = true;
+		}
+
+		@Override
+		public void output(long ip, long value) {
+			if (replaying)
+				return;
+			if (count == outputs.length)
+				outputs = Arrays.copyOf(outputs, 2 * count);
+			outputs[count++] = value;
+		}
+
+		/** Forgets the words written so far, and any input. */
+		void reset() {
+			count = 0;
+			read = false;
+		}
+	}
+
+	/**
+	 * Constructs a detector of the loops of {@code vm}, looking for repeats of its
+	 * state every {@code slice} cycles. Loops are detected after running for at
+	 * most about 3 times their period, rounded up to a multiple of slice, plus the
+	 * cycles before entering them: shorter slices detect them earlier, longer
+	 * ones compare fewer states.
+	 *
+	 * @param vm    the machine.
+	 * @param slice the number of cycles between two comparisons.
+	 * @throws NullPointerException     if vm is null.
+	 * @throws IllegalArgumentException if slice isn't positive.
+	 */
+	public CycleDetector(IntCodeVM vm, long slice) {
+		if (vm == null)
+			throw new NullPointerException("can't detect the loops of a null machine");
+		if (slice <= 0)
+			throw new IllegalArgumentException("invalid slice of " + slice + " cycles");
+		this.vm = vm;
+		this.slice = slice;
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return vm != null && slice > 0 && skipped >= 0 && period >= 0;
+	}
+
+	/**
+	 * Runs the machine until it halts, waits for its ports, or has gone through
+	 * {@code budget} cycles, executed or skipped. The observer of the machine is
+	 * replaced during the run, and restored at its end. Loops are looked for
+	 * within this run only, since the machine or its ports may change between
+	 * runs.
+	 *
+	 * @param budget the maximum number of cycles.
+	 * @return the number of cycles the machine went through, skipped ones
+	 *         included; the instruction which made it wait, if any, isn't
+	 *         counted.
+	 * @throws IllegalArgumentException if budget is negative.
+	 */
+	public long run(long budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("negative budget of " + budget + " cycles");
+		MachineObserver previous = vm.getObserver();
+		Collector collector = new Collector();
+		vm.setObserver(collector);
+		try {
+			long done = 0;
+			// Brent's algorithm: the snapshot moves ahead after power slices
+			IntCodeVM snapshot = vm.fork();
+			long snapshotFingerprint = vm.fingerprint();
+			long snapshotAt = 0;
+			long power = 1, lambda = 0;
+			while (done < budget) {
+				done += vm.runFast(Math.min(slice, budget - done));
+				if (vm.isWaiting() || vm.isHalted())
+					break;
+				lambda++;
+				if (!collector.read && vm.fingerprint() == snapshotFingerprint && vm.equals(snapshot)) {
+					period = done - snapshotAt;
+					done += fastForward(collector, (budget - done) / period);
+				} else if (!collector.read && lambda < power)
+					continue;
+				snapshot = vm.fork();
+				snapshotFingerprint = vm.fingerprint();
+				snapshotAt = done;
+				power = collector.read ? 1 : 2 * power;
+				lambda = 0;
+				collector.reset();
+			}
+			return done;
+		} finally {
+			vm.flushOutput();
+			vm.outputsToSkip = 0;
+			vm.setObserver(previous);
+			assert repOk();
+		}
+	}
+
+	/**
+	 * Skips up to {@code periods} periods of the loop the machine is in, whose
+	 * words written are those of collector, writing them again.
+	 *
+	 * @param collector the words written in a period.
+	 * @param periods   the number of periods to skip.
+	 * @return the number of cycles skipped.
+	 */
+	private long fastForward(Collector collector, long periods) {
+		long done = 0;
+		collector.replaying = true;
+		try {
+			for (; done < periods && collector.count > 0; done++)
+				for (int i = 0; i < collector.count; i++) {
+					if (!vm.canWrite()) {
+						// the machine will write the words of this period again
+						vm.outputsToSkip = i;
+						skipped += done * period;
+						return done * period;
+					}
+					vm.writeOutput(-1, collector.outputs[i]);
+				}
+		} finally {
+			collector.replaying = false;
+		}
+		// loops which don't write are skipped at once
+		skipped += periods * period;
+		return periods * period;
+	}
+
+	/**
+	 * Returns the number of cycles skipped so far by fast-forwarding loops.
+	 *
+	 * @return the cycles skipped.
+	 */
+	public long skipped() {
+		return skipped;
+	}
+
+	/**
+	 * Returns the period of the last loop detected, in cycles. It's a multiple of
+	 * the period of the loop, and of the slice.
+	 *
+	 * @return the period, or 0 if no loop was detected.
+	 */
+	public long period() {
+		return period;
+	}
+
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * Test of {@link CycleDetector}: a machine run by a detector must end like
+ * the same machine run with {@link IntCodeVM#runFast(long)} for the same
+ * budget, with the same state, cycles, output and exception. Reads programs
+ * from standard input, one per line in the same format of the arguments of
+ * {@link Test}, and checks them together with some programs which loop
+ * forever, with and without output, reading {@code args[0]} (0 if absent)
+ * whenever they read. Every program is run with several budgets and slices,
+ * writing to a {@link RingBuffer} large enough for most runs and to one of
+ * {@value #SMALL} words, which fills up in the middle of the loops: the
+ * buffers are then emptied and the machines run again, for {@value #ROUNDS}
+ * rounds. Prints every program for which a run differs.
+ */
+public class CycleTest {
+	private static final String[] LOOPS = {
+			// jumps to itself
+			"1105,1,0",
+			// writes 7 forever
+			"104,7,1105,1,0",
+			// writes -1 and 1 in turn
+			"1002,9,-1,9,4,9,1105,1,0,1",
+			// counts down from 50, then writes 5 forever
+			"1001,12,-1,12,1005,12,0,104,5,1105,1,7,50",
+			// reads, writes the word read plus 1 and loops
+			"3,11,1001,11,1,11,4,11,1105,1,0,0" };
+
+	private static final long[] BUDGETS = { 0, 1, 1000, 100_000, 3_000_000 };
+	private static final long[] SLICES = { 1, 7, 1000 };
+	private static final int LARGE = 1 << 20;
+	private static final int SMALL = 3;
+	private static final int ROUNDS = 4;
+
+	/**
+	 * Runs {@code vm} for at most {@code budget} cycles, with a detector looking
+	 * for loops every {@code slice} cycles or, if slice is 0, with
+	 * {@link IntCodeVM#runFast(long)}, and then empties {@code output}.
+	 *
+	 * @param vm     the machine.
+	 * @param slice  the slice of the detector, or 0.
+	 * @param budget the maximum number of cycles.
+	 * @param output the output port of the machine.
+	 * @return the outcome.
+	 */
+	private static TestSupport.Outcome run(IntCodeVM vm, long slice, long budget, RingBuffer output) {
+		TestSupport.Outcome res = new TestSupport.Outcome();
+		res.vm = vm;
+		try {
+			res.cycles = slice == 0 ? vm.runFast(budget) : new CycleDetector(vm, slice).run(budget);
+		} catch (RuntimeException e) {
+			res.exception = e;
+		}
+		long[] words = new long[output.size()];
+		for (int i = 0; i < words.length; i++)
+			words[i] = output.read();
+		res.output = Arrays.toString(words);
+		return res;
+	}
+
+	/**
+	 * Checks the program described by {@code args}.
+	 *
+	 * @param args  the program.
+	 * @param input the word read.
+	 * @return a description of the first run which differs, or null if there is
+	 *         none.
+	 */
+	private static String check(String[] args, long input) {
+		for (int capacity : new int[] { LARGE, SMALL })
+			for (long budget : BUDGETS)
+				for (long slice : SLICES) {
+					IntCodeVM reference = TestSupport.machine(args), detected = TestSupport.machine(args);
+					RingBuffer referenceOutput = new RingBuffer(capacity), detectedOutput = new RingBuffer(capacity);
+					reference.setInput(new TestSupport.Constant(input));
+					reference.setOutput(referenceOutput);
+					detected.setInput(new TestSupport.Constant(input));
+					detected.setOutput(detectedOutput);
+					for (int round = 0; round < ROUNDS; round++) {
+						TestSupport.Outcome expected = run(reference, 0, budget, referenceOutput);
+						TestSupport.Outcome actual = run(detected, slice, budget, detectedOutput);
+						if (expected.cycles != actual.cycles || !expected.same(actual))
+							return "round " + round + " of " + budget + " cycles in slices of " + slice + ", "
+									+ capacity + " words of output\n" + actual + "\nReference " + expected;
+						if (expected.exception != null || reference.isHalted())
+							break;
+					}
+				}
+		return null;
+	}
+
+	public static void main(String[] args) {
+		long input = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		Scanner sc = new Scanner(System.in);
+		int programs = 0, failures = 0;
+		for (int next = 0; next < LOOPS.length || sc.hasNextLine();) {
+			String line = next < LOOPS.length ? LOOPS[next++] : sc.nextLine().trim();
+			if (line.isEmpty())
+				continue;
+			programs++;
+			String failure = check(line.split("\\s+"), input);
+			if (failure != null) {
+				failures++;
+				System.out.println("Mismatch on " + line + ": " + failure);
+			}
+		}
+		sc.close();
+		System.out.println(programs - failures + "/" + programs + " programs pass");
+	}
+}
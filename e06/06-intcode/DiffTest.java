@@ -0,0 +1,78 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+/**
+ * Differential test between the {@link Instruction}s of {@link IntCodeVM}, the
+ * reference, and the other execution engines: {@link SwitchDispatchEngine},
+ * {@link TieredIntCodeVM} (compiling every block reached twice), the
+ * superinstructions of {@link IntCodeVM#optimize()} and the
+ * {@link RegistryDispatchEngine} of {@link InstructionSet#standard()}. Reads
+ * programs from standard input, one per line in the same format of the
+ * arguments of {@link Test}, and runs each of them with every engine, feeding
+ * them {@code args[0]} (if present) as input. Prints every program whose final
+ * machine, output or exception differ from the reference.
+ */
+public class DiffTest {
+	private static final String[] ENGINES = { "Reference", "Switch", "Tiered", "Optimized", "Registry" };
+
+	private static TestSupport.Outcome run(String[] args, String input, String engine) {
+		long[] program = TestSupport.program(args);
+		IntCodeVM.WordSize wordSize = TestSupport.wordSize(args);
+		TestSupport.Outcome res = new TestSupport.Outcome();
+		if (engine.equals("Tiered"))
+			res.vm = new TieredIntCodeVM(program, wordSize, 2);
+		else
+			res.vm = new IntCodeVM(program, wordSize);
+		if (engine.equals("Optimized"))
+			res.vm.optimize();
+		if (engine.equals("Registry"))
+			res.vm.setInstructionSet(InstructionSet.standard());
+		InputStream in = System.in;
+		PrintStream out = System.out;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		System.setIn(new ByteArrayInputStream(input.getBytes()));
+		System.setOut(new PrintStream(buffer));
+		try {
+			if (engine.equals("Switch"))
+				res.vm.runFast();
+			else
+				res.vm.run();
+		} catch (RuntimeException e) {
+			res.exception = e;
+		} finally {
+			System.setIn(in);
+			System.setOut(out);
+		}
+		res.output = buffer.toString();
+		return res;
+	}
+
+	public static void main(String[] args) {
+		String input = args.length > 0 ? args[0] : "";
+		Scanner sc = new Scanner(System.in);
+		int programs = 0, failures = 0;
+		while (sc.hasNextLine()) {
+			String line = sc.nextLine().trim();
+			if (line.isEmpty())
+				continue;
+			programs++;
+			TestSupport.Outcome reference = run(line.split("\\s+"), input, ENGINES[0]);
+			boolean same = true;
+			for (int i = 1; i < ENGINES.length; i++) {
+				TestSupport.Outcome other = run(line.split("\\s+"), input, ENGINES[i]);
+				if (!reference.same(other)) {
+					same = false;
+					System.out.println("Mismatch on " + line + "\nReference " + reference + "\n" + ENGINES[i]
+							+ " " + other);
+				}
+			}
+			if (!same)
+				failures++;
+		}
+		sc.close();
+		System.out.println(programs - failures + "/" + programs + " programs behave the same");
+	}
+}
@@ -11,7 +11,7 @@ public interface FDEMachine {
 	 * 
 	 * @return raw data.
 	 */
-	List<Integer> fetch();
+	List<Long> fetch();
 
 	/**
 	 * Uses the data previously fetched to construct an {@link Instruction},
@@ -19,7 +19,7 @@ public interface FDEMachine {
 	 * 
 	 * @param rawText text to extract the Instruction from.
 	 */
-	Instruction decode(List<Integer> rawText);
+	Instruction decode(List<Long> rawText);
 
 	/**
 	 * Executes i.
@@ -0,0 +1,24 @@
+/**
+ * Abstraction of the source of the words read by the input instructions of a
+ * machine. A port can be temporarily empty: a machine which needs to read from
+ * an empty port suspends, and can be resumed when the port has words again.
+ */
+public interface InputPort {
+
+	/**
+	 * Returns true if no word can be read from this port now.
+	 * 
+	 * @return true if this port is empty; false otherwise.
+	 */
+	boolean isEmpty();
+
+	/**
+	 * Reads the next word from this port.
+	 * 
+	 * @return the word.
+	 * @throws IllegalStateException if this port is empty, or no word can be
+	 *                               parsed from its source.
+	 */
+	long read();
+
+}
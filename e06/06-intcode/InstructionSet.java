@@ -0,0 +1,400 @@
+/**
+ * Registry of the instructions an {@link IntCodeVM} can execute, mapping each
+ * OPcode to the number of cells its instructions occupy and to a
+ * {@link Handler} which executes them on primitive words. Custom OPcodes, e.g.
+ * extended arithmetic or bulk memory operations, can be added to the standard
+ * ones, and any OPcode can be replaced or removed, also between the runs of a
+ * machine: a machine resolves its instruction set into dense arrays indexed by
+ * OPcode at the start of each run, so the registry isn't looked up while
+ * running.
+ * <p>
+ * Handlers find the Instruction Pointer already past their instruction, like
+ * the {@link Instruction}s of IntCodeVM, and work through a {@link Context}.
+ * InstructionSets are not thread safe: they must not be changed while machines
+ * using them run.
+ */
+public final class InstructionSet {
+	/** Number of OPcodes, which are the two lowest decimal digits of a word. */
+	static final int OPCODES = 100;
+
+	/** Integer division: the third parameter is set to the first over the second. */
+	public static final int DIV = 10;
+	/** Remainder: the third parameter is set to the first modulo the second. */
+	public static final int MOD = 11;
+	/**
+	 * Bulk copy: the second argument cells starting at the first argument are
+	 * copied to the cells starting at the third parameter, as if through a
+	 * temporary buffer.
+	 */
+	public static final int CPY = 12;
+
+	private final Handler[] handlers;
+	private final int[] sizes;
+
+	/*
+	 * Abstraction Function: AF(handlers, sizes) = instruction set where OPcode i
+	 * is executed by handlers[i], and its instructions occupy sizes[i] cells, if
+	 * handlers[i] is not null; OPcode i is invalid otherwise.
+	 *
+	 * Representation Invariant: handlers and sizes are not null and have length
+	 * OPCODES; sizes[i] > 0 if handlers[i] is not null, 0 otherwise.
+	 */
+
+	/** Executor of the instructions of an OPcode. */
+	@FunctionalInterface
+	public interface Handler {
+
+		/**
+		 * Executes the instruction at {@code ip}.
+		 *
+		 * @param ctx   the machine executing the instruction.
+		 * @param ip    the address of the instruction.
+		 * @param modes the access modes of the parameters, i.e. the word at ip
+		 *              without its OPcode: the mode of the n-th parameter is its n-th
+		 *              lowest decimal digit.
+		 */
+		void execute(Context ctx, int ip, int modes);
+
+	}
+
+	/**
+	 * View of a running machine given to {@link Handler}s. Words are truncated to
+	 * the word size of the machine when written, and the observer of the machine
+	 * is notified as it would be by the standard instructions.
+	 */
+	public interface Context {
+
+		/**
+		 * Returns the content of the cell at {@code index}, read as part of an
+		 * instruction, e.g. a parameter.
+		 *
+		 * @param index the cell index.
+		 * @return the content.
+		 * @throws IndexOutOfBoundsException if index is negative.
+		 */
+		long fetch(int index);
+
+		/**
+		 * Returns the content of the cell at {@code index}, read as data.
+		 *
+		 * @param index the cell index.
+		 * @return the content.
+		 * @throws IndexOutOfBoundsException if index is negative.
+		 */
+		long load(int index);
+
+		/**
+		 * Writes {@code content}, truncated to the word size, in the cell at
+		 * {@code index}.
+		 *
+		 * @param index   the cell index.
+		 * @param content the content.
+		 * @throws IndexOutOfBoundsException if index is negative.
+		 */
+		void store(int index, long content);
+
+		/**
+		 * Returns the actual argument of a parameter, given its access mode: 0 for
+		 * position, 1 for immediate and 2 for relative to the Relative Base Pointer.
+		 *
+		 * @param par  the parameter.
+		 * @param mode the access mode.
+		 * @return the argument.
+		 * @throws IllegalArgumentException  if the mode is not valid.
+		 * @throws IndexOutOfBoundsException if the argument is read from an invalid
+		 *                                   address.
+		 */
+		long arg(long par, int mode);
+
+		/**
+		 * Returns the Relative Base Pointer.
+		 *
+		 * @return the Relative Base Pointer.
+		 */
+		long rbp();
+
+		/**
+		 * Sets the Relative Base Pointer to {@code value}, truncated to the word size.
+		 *
+		 * @param value the new Relative Base Pointer.
+		 */
+		void setRbp(long value);
+
+		/**
+		 * Sets the Instruction Pointer to {@code target}.
+		 *
+		 * @param target the address of the next instruction.
+		 * @throws IndexOutOfBoundsException if target is not a valid address.
+		 */
+		void jump(long target);
+
+		/**
+		 * Notifies the observer that the conditional branch at {@code ip} jumped or
+		 * fell through.
+		 *
+		 * @param ip     the address of the branch.
+		 * @param jumped true if the branch jumps.
+		 */
+		void branched(int ip, boolean jumped);
+
+		/**
+		 * Returns true if a word can be read from the input port now.
+		 *
+		 * @return true if the input port isn't empty; false otherwise.
+		 */
+		boolean canRead();
+
+		/**
+		 * Reads a word from the input port.
+		 *
+		 * @return the word.
+		 * @throws IllegalStateException if the port is empty, or the word doesn't fit
+		 *                               the word size.
+		 */
+		long readInput();
+
+		/**
+		 * Returns true if a word can be written to the output port now.
+		 *
+		 * @return true if the output port isn't full; false otherwise.
+		 */
+		boolean canWrite();
+
+		/**
+		 * Writes a word to the output port.
+		 *
+		 * @param value the word.
+		 * @throws IllegalStateException if the port is full.
+		 */
+		void writeOutput(long value);
+
+		/**
+		 * Stops the machine before the current instruction, waiting for its ports:
+		 * the next run executes it again.
+		 */
+		void suspend();
+
+		/** Stops the machine on a halting instruction. */
+		void halt();
+
+	}
+
+	/** Constructs an empty InstructionSet, where every OPcode is invalid. */
+	public InstructionSet() {
+		handlers = new Handler[OPCODES];
+		sizes = new int[OPCODES];
+		assert repOk();
+	}
+
+	/**
+	 * Constructs an InstructionSet with the same instructions of {@code other}.
+	 *
+	 * @param other the instruction set to copy.
+	 * @throws NullPointerException if other is null.
+	 */
+	public InstructionSet(InstructionSet other) {
+		handlers = other.handlers.clone();
+		sizes = other.sizes.clone();
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		if (handlers == null || sizes == null || handlers.length != OPCODES || sizes.length != OPCODES)
+			return false;
+		for (int i = 0; i < OPCODES; i++)
+			if ((handlers[i] != null) != (sizes[i] > 0))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns a new InstructionSet with the standard IntCode instructions of
+	 * {@link IntCodeVM.Instructions}, with the same effects.
+	 *
+	 * @return the instruction set.
+	 */
+	public static InstructionSet standard() {
+		InstructionSet res = new InstructionSet();
+		res.register(IntCodeVM.Instructions.ADD, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			ctx.store(IntCodeVM.address(c), ctx.arg(a, modes % 10) + ctx.arg(b, modes / 10 % 10));
+		});
+		res.register(IntCodeVM.Instructions.MUL, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			ctx.store(IntCodeVM.address(c), ctx.arg(a, modes % 10) * ctx.arg(b, modes / 10 % 10));
+		});
+		res.register(IntCodeVM.Instructions.INP, 2, (ctx, ip, modes) -> {
+			if (!ctx.canRead()) {
+				ctx.suspend();
+				return;
+			}
+			ctx.store(IntCodeVM.address(ctx.fetch(ip + 1)), ctx.readInput());
+		});
+		res.register(IntCodeVM.Instructions.OUT, 2, (ctx, ip, modes) -> {
+			if (!ctx.canWrite()) {
+				ctx.suspend();
+				return;
+			}
+			ctx.writeOutput(ctx.arg(ctx.fetch(ip + 1), modes % 10));
+		});
+		res.register(IntCodeVM.Instructions.BNE, 3, (ctx, ip, modes) -> {
+			boolean jumped = ctx.arg(ctx.fetch(ip + 1), modes % 10) != 0;
+			ctx.branched(ip, jumped);
+			if (jumped)
+				ctx.jump(ctx.arg(ctx.fetch(ip + 2), modes / 10 % 10));
+		});
+		res.register(IntCodeVM.Instructions.BEQ, 3, (ctx, ip, modes) -> {
+			boolean jumped = ctx.arg(ctx.fetch(ip + 1), modes % 10) == 0;
+			ctx.branched(ip, jumped);
+			if (jumped)
+				ctx.jump(ctx.arg(ctx.fetch(ip + 2), modes / 10 % 10));
+		});
+		res.register(IntCodeVM.Instructions.SLT, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			ctx.store(IntCodeVM.address(c), ctx.arg(a, modes % 10) < ctx.arg(b, modes / 10 % 10) ? 1 : 0);
+		});
+		res.register(IntCodeVM.Instructions.SEQ, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			ctx.store(IntCodeVM.address(c), ctx.arg(a, modes % 10) == ctx.arg(b, modes / 10 % 10) ? 1 : 0);
+		});
+		res.register(IntCodeVM.Instructions.UPD, 2,
+				(ctx, ip, modes) -> ctx.setRbp(ctx.rbp() + ctx.arg(ctx.fetch(ip + 1), modes % 10)));
+		res.register(IntCodeVM.Instructions.HAL, 1, (ctx, ip, modes) -> ctx.halt());
+		return res;
+	}
+
+	/**
+	 * Returns a new InstructionSet with the standard IntCode instructions and the
+	 * extensions {@link #DIV}, {@link #MOD} and {@link #CPY}. Dividing by zero
+	 * throws an {@link ArithmeticException}.
+	 *
+	 * @return the instruction set.
+	 */
+	public static InstructionSet extended() {
+		InstructionSet res = standard();
+		res.register(DIV, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			ctx.store(IntCodeVM.address(c), ctx.arg(a, modes % 10) / ctx.arg(b, modes / 10 % 10));
+		});
+		res.register(MOD, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			ctx.store(IntCodeVM.address(c), ctx.arg(a, modes % 10) % ctx.arg(b, modes / 10 % 10));
+		});
+		res.register(CPY, 4, (ctx, ip, modes) -> {
+			long a = ctx.fetch(ip + 1), b = ctx.fetch(ip + 2), c = ctx.fetch(ip + 3);
+			int from = IntCodeVM.address(ctx.arg(a, modes % 10));
+			long length = ctx.arg(b, modes / 10 % 10);
+			int to = IntCodeVM.address(c);
+			if (length < 0 || length > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("can't copy " + length + " cells");
+			if (length > 0) { // both ranges must be addressable before anything is written
+				IntCodeVM.address(from + length - 1);
+				IntCodeVM.address(to + length - 1);
+			}
+			// copies backwards if the destination overlaps the end of the source
+			if (to > from)
+				for (int i = (int) length - 1; i >= 0; i--)
+					ctx.store(to + i, ctx.load(from + i));
+			else
+				for (int i = 0; i < length; i++)
+					ctx.store(to + i, ctx.load(from + i));
+		});
+		return res;
+	}
+
+	/**
+	 * Checks that {@code opcode} is a valid OPcode.
+	 *
+	 * @param opcode the OPcode.
+	 * @throws IllegalArgumentException if opcode is not in [0, 100).
+	 */
+	private static void checkOpcode(int opcode) {
+		if (opcode < 0 || opcode >= OPCODES)
+			throw new IllegalArgumentException("invalid OP code " + opcode);
+	}
+
+	/**
+	 * Maps {@code opcode} to {@code handler}, whose instructions occupy
+	 * {@code size} cells, replacing its previous handler if any.
+	 *
+	 * @param opcode  the OPcode.
+	 * @param size    the number of cells of the instructions, OPcode included.
+	 * @param handler the handler.
+	 * @throws NullPointerException     if handler is null.
+	 * @throws IllegalArgumentException if opcode is not in [0, 100), or size is
+	 *                                  not positive.
+	 */
+	public void register(int opcode, int size, Handler handler) {
+		checkOpcode(opcode);
+		if (handler == null)
+			throw new NullPointerException("the handler can't be null");
+		if (size <= 0)
+			throw new IllegalArgumentException("instructions can't occupy " + size + " cells");
+		handlers[opcode] = handler;
+		sizes[opcode] = size;
+		assert repOk();
+	}
+
+	/**
+	 * Makes {@code opcode} invalid, removing its handler if any.
+	 *
+	 * @param opcode the OPcode.
+	 * @throws IllegalArgumentException if opcode is not in [0, 100).
+	 */
+	public void unregister(int opcode) {
+		checkOpcode(opcode);
+		handlers[opcode] = null;
+		sizes[opcode] = 0;
+		assert repOk();
+	}
+
+	/**
+	 * Returns true if {@code opcode} has a handler.
+	 *
+	 * @param opcode the OPcode.
+	 * @return true if opcode is valid; false otherwise.
+	 * @throws IllegalArgumentException if opcode is not in [0, 100).
+	 */
+	public boolean isRegistered(int opcode) {
+		checkOpcode(opcode);
+		return handlers[opcode] != null;
+	}
+
+	/**
+	 * Returns the number of cells the instructions of {@code opcode} occupy.
+	 *
+	 * @param opcode the OPcode.
+	 * @return the size, or 0 if opcode has no handler.
+	 * @throws IllegalArgumentException if opcode is not in [0, 100).
+	 */
+	public int size(int opcode) {
+		checkOpcode(opcode);
+		return sizes[opcode];
+	}
+
+	/**
+	 * Returns the handlers of this set, indexed by OPcode, as they are now.
+	 *
+	 * @return a copy of the handlers; invalid OPcodes have null handlers.
+	 */
+	Handler[] handlers() {
+		return handlers.clone();
+	}
+
+	/**
+	 * Returns the sizes of the instructions of this set, indexed by OPcode, as
+	 * they are now.
+	 *
+	 * @return a copy of the sizes; invalid OPcodes have size 0.
+	 */
+	int[] sizes() {
+		return sizes.clone();
+	}
+
+}
@@ -1,29 +1,154 @@
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
 public class IntCodeVM extends AbstractFDEMachine {
-	private static final int IP = 0;
-	private static final int RBP = 1;
+	static final int IP = 0;
+	static final int RBP = 1;
+
+	// maximum number of memory units an instruction can occupy
+	private static final int MAX_INSTRUCTION_SIZE = 4;
+
+	// maximum number of memory units a cached instruction can occupy
+	private static final int MAX_DECODED_SIZE = 2 * MAX_INSTRUCTION_SIZE;
+
+	/** Width of the words an {@link IntCodeVM} computes on. */
+	public enum WordSize {
+		/** 32-bit words: results wrap around like Java {@code int}s. */
+		INT32,
+		/** 64-bit words: results wrap around like Java {@code long}s. */
+		INT64
+	}
+
+	// width of the words of this machine
+	private final WordSize wordSize;
+
+	// already decoded instructions, indexed by the address of their OPcode in
+	// pages allocated lazily, like the cells of a PagedMainMemory
+	private Instruction[][] decoded;
+
+	// analysis of the program, if superinstructions are enabled; null otherwise
+	private ProgramAnalysis analysis;
+
+	// instructions executed, if not the built-in ones; null otherwise
+	private InstructionSet instructions;
+
+	// observer, if it observes instructions or memory accesses; null otherwise
+	MachineObserver instructionObserver;
+	MachineObserver memoryObserver;
+
+	// ports of the input and output instructions
+	private InputPort in;
+	private OutputPort out;
+
+	// outputs to drop, already written to the output port by a CycleDetector
+	long outputsToSkip;
+
+	// true if the machine stopped on an empty input or a full output
+	private boolean waiting;
+
+	// true if the machine stopped on a halting instruction
+	private boolean halted;
 
 	/*
-	 * Abstraction Function: AF(IP, RBP, reg, mm, isRunning) = Machine with a set of
-	 * registers reg, indexed with Instruction Pointer at IP and Relative Base
-	 * Pointer at RBP, a memory mm and a running state of isRunning. See AF of the
-	 * memories.
+	 * Abstraction Function: AF(IP, RBP, reg, mm, isRunning, waiting, halted,
+	 * wordSize, in, out) = Machine with a set of registers reg, indexed with
+	 * Instruction Pointer at IP and Relative Base Pointer at RBP, a memory mm, a
+	 * running state of isRunning, suspended waiting for its ports if waiting,
+	 * halted if halted, with words of width wordSize, reading from in and writing
+	 * to out but dropping the next outputsToSkip words, executing the
+	 * instructions of the set instructions if not null, the built-in ones
+	 * otherwise. See AF of the memories. decoded and analysis are caches and are
+	 * not part of the abstraction.
 	 *
-	 * Representation Invariant: mm and reg are not null.
+	 * Representation Invariant: mm, reg, wordSize, decoded, in and out are not
+	 * null; waiting and halted are not both true; outputsToSkip >= 0; if wordSize
+	 * is INT32 every cell of mm fits an int; each element of decoded is null or
+	 * has length PagedMainMemory.PAGE_SIZE; for each i, the instruction cached at
+	 * i, decoded[i >>> PAGE_BITS][i & OFFSET_MASK] if that page exists, is null
+	 * or is the instruction decoded from the current content of mm in the
+	 * interval [i, i + its size()).
 	 */
 
 	/**
-	 * Constructs an IntCode VM ready to execute the program {@code program}.
+	 * Constructs an IntCode VM with 32-bit words ready to execute the program
+	 * {@code program}.
 	 * 
 	 * @param program the program.
 	 */
 	public IntCodeVM(List<Integer> program) {
-		super(new BasicMainMemory(program), new BasicMemory());
+		super(new PagedMainMemory(program), new RegisterFile(2));
+		wordSize = WordSize.INT32;
+		decoded = new Instruction[pages(program.size())][];
+		in = new StandardInput();
+		out = new StandardOutput();
+		assert repOk();
+	}
+
+	/**
+	 * Constructs an IntCode VM with words of width {@code wordSize} ready to
+	 * execute the program {@code program}.
+	 * 
+	 * @param program  the program.
+	 * @param wordSize the width of the machine words.
+	 * @throws NullPointerException     if program or wordSize are null.
+	 * @throws IllegalArgumentException if wordSize is INT32 and a word of program
+	 *                                  doesn't fit an int.
+	 */
+	public IntCodeVM(long[] program, WordSize wordSize) {
+		super(new PagedMainMemory(program), new RegisterFile(2));
+		if (wordSize == null)
+			throw new NullPointerException("the word size can't be null");
+		if (wordSize == WordSize.INT32)
+			for (long word : program)
+				if (word != (int) word)
+					throw new IllegalArgumentException("the word " + word + " doesn't fit 32 bits");
+		this.wordSize = wordSize;
+		decoded = new Instruction[pages(program.length)][];
+		in = new StandardInput();
+		out = new StandardOutput();
+		assert repOk();
+	}
+
+	/**
+	 * Constructs an IntCode VM with words of width {@code wordSize} ready to
+	 * execute the program loaded in {@code memory}, which may still be loading
+	 * lazily. The words of the program are not checked against wordSize: a
+	 * memory loaded for an INT32 machine must only contain ints.
+	 * 
+	 * @param memory   the memory holding the program.
+	 * @param wordSize the width of the machine words.
+	 * @throws NullPointerException if memory or wordSize are null.
+	 */
+	IntCodeVM(PagedMainMemory memory, WordSize wordSize) {
+		super(memory, new RegisterFile(2));
+		if (wordSize == null)
+			throw new NullPointerException("the word size can't be null");
+		this.wordSize = wordSize;
+		decoded = new Instruction[pages(memory.size())][];
+		in = new StandardInput();
+		out = new StandardOutput();
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a copy of {@code other}, in the same state and connected to the
+	 * same ports. The memory of the copy is a {@link PagedMainMemory#snapshot()}
+	 * of the memory of other, so copying takes constant time.
+	 * 
+	 * @param other the machine to copy.
+	 * @throws NullPointerException if other is null.
+	 */
+	protected IntCodeVM(IntCodeVM other) {
+		super(((PagedMainMemory) other.mm).snapshot(), new RegisterFile((RegisterFile) other.reg));
+		isRunning = other.isRunning;
+		waiting = other.waiting;
+		halted = other.halted;
+		wordSize = other.wordSize;
+		decoded = new Instruction[other.decoded.length][];
+		analysis = other.analysis;
+		instructions = other.instructions;
+		in = other.in;
+		out = other.out;
 		assert repOk();
 	}
 
@@ -34,19 +159,235 @@ public class IntCodeVM extends AbstractFDEMachine {
 	 * @return true if the representation is ok; false otherwise.
 	 */
 	public boolean repOk() {
-		return mm != null && reg != null;
+		return mm != null && reg != null && wordSize != null && decoded != null && in != null && out != null
+				&& !(waiting && halted) && outputsToSkip >= 0;
+	}
+
+	/**
+	 * Returns a copy of this machine, which can run independently from it. The
+	 * copy is connected to the same ports: use {@link #setInput(InputPort)} and
+	 * {@link #setOutput(OutputPort)} to give it its own. Forking takes constant
+	 * time, since memory pages are copied only when either machine writes them.
+	 * 
+	 * @return the copy.
+	 */
+	public IntCodeVM fork() {
+		return new IntCodeVM(this);
+	}
+
+	/**
+	 * Returns the content of the main memory cell at {@code address}.
+	 * 
+	 * @param address the address.
+	 * @return the content.
+	 * @throws IndexOutOfBoundsException if address is negative.
+	 */
+	public long read(int address) {
+		return mm.getWord(address);
+	}
+
+	/**
+	 * Writes {@code value}, truncated to the word size of this machine, in the
+	 * main memory cell at {@code address}, e.g. to patch a program before running
+	 * it.
+	 * 
+	 * @param address the address.
+	 * @param value   the new content.
+	 * @throws IndexOutOfBoundsException if address is negative.
+	 */
+	public void write(int address, long value) {
+		store(address, value);
+	}
+
+	/**
+	 * Analyzes the program in memory with a {@link ProgramAnalysis}, and from
+	 * then on executes the pairs of instructions it finds fusible as single
+	 * superinstructions, when they are still in memory as they were analyzed. The
+	 * effects on this machine are the same, but fewer instructions are
+	 * dispatched. Observed machines don't use superinstructions.
+	 * 
+	 * @return the analysis.
+	 */
+	public ProgramAnalysis optimize() {
+		PagedMainMemory mem = (PagedMainMemory) mm;
+		long[] image = new long[mem.size()];
+		for (int i = 0; i < image.length; i++)
+			image[i] = mem.getWord(i);
+		analysis = new ProgramAnalysis(image);
+		discardDecoded();
+		return analysis;
+	}
+
+	/**
+	 * Rolls this machine back to the state of {@code snapshot}, a machine
+	 * obtained from {@link #fork()}, in constant time. The ports of this machine
+	 * don't change, and snapshot can be restored again later.
+	 * 
+	 * @param snapshot the machine whose state is restored.
+	 * @throws NullPointerException     if snapshot is null.
+	 * @throws IllegalArgumentException if snapshot has a different word size.
+	 */
+	public void restore(IntCodeVM snapshot) {
+		if (snapshot.wordSize != wordSize)
+			throw new IllegalArgumentException("can't restore a machine of different word size");
+		((PagedMainMemory) mm).restore((PagedMainMemory) snapshot.mm);
+		((RegisterFile) reg).restore((RegisterFile) snapshot.reg);
+		isRunning = snapshot.isRunning;
+		waiting = snapshot.waiting;
+		halted = snapshot.halted;
+		discardDecoded();
+		assert repOk();
+	}
+
+	/**
+	 * Returns a 64-bit hash of the state of this machine: memory, registers and
+	 * running state. It takes constant time, so sets of visited states can be
+	 * kept cheaply. Machines which are equal have the same fingerprint.
+	 * 
+	 * @return the fingerprint.
+	 */
+	public long fingerprint() {
+		long res = ((PagedMainMemory) mm).fingerprint();
+		res = 31 * res + reg.hashCode();
+		return 31 * res + (isRunning ? 1 : 0) + (waiting ? 2 : 0) + (halted ? 4 : 0);
+	}
+
+	/**
+	 * {@inheritDoc} Cached superinstructions are discarded, so that the observer
+	 * is notified of every instruction.
+	 */
+	@Override
+	public void setObserver(MachineObserver observer) {
+		super.setObserver(observer);
+		instructionObserver = observer != null && observer.observesInstructions() ? observer : null;
+		memoryObserver = observer != null && observer.observesMemory() ? observer : null;
+		discardDecoded();
+	}
+
+	/**
+	 * Connects the input instructions of this machine to {@code port}. Machines
+	 * read from {@link StandardInput} by default.
+	 * 
+	 * @param port the input port.
+	 * @throws NullPointerException if port is null.
+	 */
+	public void setInput(InputPort port) {
+		if (port == null)
+			throw new NullPointerException("the input port can't be null");
+		in = port;
+	}
+
+	/**
+	 * Connects the output instructions of this machine to {@code port}. Machines
+	 * write to {@link StandardOutput} by default.
+	 * 
+	 * @param port the output port.
+	 * @throws NullPointerException if port is null.
+	 */
+	public void setOutput(OutputPort port) {
+		if (port == null)
+			throw new NullPointerException("the output port can't be null");
+		out = port;
+	}
+
+	/**
+	 * Makes this machine execute the instructions of {@code instructions} instead
+	 * of the built-in ones, from its next run on. Such a machine always runs
+	 * through a {@link RegistryDispatchEngine}, also when observed. Changes to the
+	 * instruction set take effect at the next run.
+	 * 
+	 * @param instructions the instruction set, or null to go back to the built-in
+	 *                     instructions.
+	 */
+	public void setInstructionSet(InstructionSet instructions) {
+		this.instructions = instructions;
+	}
+
+	/**
+	 * Returns the instruction set this machine executes.
+	 * 
+	 * @return the instruction set, or null if the machine executes the built-in
+	 *         instructions.
+	 */
+	public InstructionSet getInstructionSet() {
+		return instructions;
+	}
+
+	/**
+	 * Returns true if the last run of this machine stopped because it needed to
+	 * read from an empty input port or write to a full output port. Running the
+	 * machine again resumes it from that instruction.
+	 * 
+	 * @return true if this machine is waiting for its ports; false otherwise.
+	 */
+	public boolean isWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * Returns true if the last run of this machine stopped on a halting
+	 * instruction.
+	 * 
+	 * @return true if this machine is halted; false otherwise.
+	 */
+	public boolean isHalted() {
+		return halted;
+	}
+
+	/**
+	 * Runs until a halting instruction stops the execution, or until an input or
+	 * output instruction finds its port empty or full. The output port is flushed
+	 * before returning.
+	 */
+	@Override
+	public void run() {
+		waiting = halted = false;
+		try {
+			if (instructions == null)
+				super.run();
+			else
+				runInstructionSet();
+		} finally {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Runs through a {@link RegistryDispatchEngine}, notifying the observer of the
+	 * start and the end of the run.
+	 */
+	private void runInstructionSet() {
+		isRunning = true;
+		MachineObserver o = observer;
+		if (o != null)
+			o.started();
+		try {
+			new RegistryDispatchEngine(this, instructions).run();
+		} finally {
+			if (o != null)
+				o.stopped();
+		}
+	}
+
+	/**
+	 * Returns the width of the words of this machine.
+	 * 
+	 * @return the word size.
+	 */
+	public WordSize wordSize() {
+		return wordSize;
 	}
 
 	@Override
-	public List<Integer> fetch() {
-		int IPval = reg.get(IP);
-		return mm.blobGet(IPval, IPval + 4);
+	public List<Long> fetch() {
+		int IPval = (int) reg.getWord(IP);
+		return mm.blobGet(IPval, IPval + MAX_INSTRUCTION_SIZE);
 	}
 
 	@Override
-	public Instruction decode(List<Integer> rawText) {
+	public Instruction decode(List<Long> rawText) {
 		Instruction res = instructionFrom(rawText);
-		reg.set(IP, reg.get(IP) + res.size());
+		reg.setWord(IP, reg.getWord(IP) + res.size());
 		return res;
 	}
 
@@ -55,18 +396,310 @@ public class IntCodeVM extends AbstractFDEMachine {
 		i.execute();
 	}
 
+	/**
+	 * Runs until a halting instruction stops the execution, or until an input or
+	 * output instruction finds its port empty or full, like {@link #run()}, but
+	 * through a {@link SwitchDispatchEngine} instead of the fetch-decode-execute
+	 * cycle. The effects on this machine are the same. Machines whose observer
+	 * observes instructions or memory accesses always run through the
+	 * fetch-decode-execute cycle, and machines with an {@link InstructionSet}
+	 * through their own engine.
+	 */
+	public void runFast() {
+		runFast(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs like {@link #runFast()}, but pauses after {@code maxCycles}
+	 * instructions if the machine didn't stop before. A paused machine is neither
+	 * waiting nor halted, and running it again resumes it from where it paused.
+	 * 
+	 * @param maxCycles the maximum number of instructions to execute.
+	 * @return the number of instructions executed; the one which made the machine
+	 *         wait for its ports, if any, isn't counted.
+	 * @throws IllegalArgumentException if maxCycles is negative.
+	 */
+	public long runFast(long maxCycles) {
+		if (maxCycles < 0)
+			throw new IllegalArgumentException("negative number of cycles " + maxCycles);
+		waiting = halted = false;
+		isRunning = true;
+		MachineObserver o = observer;
+		if (o != null)
+			o.started();
+		try {
+			if (instructions != null)
+				return new RegistryDispatchEngine(this, instructions).run(maxCycles);
+			if (instructionObserver == null && memoryObserver == null)
+				return new SwitchDispatchEngine(this).run(maxCycles);
+			// observed machines interpret every instruction, one per cycle
+			long executed = 0;
+			while (isRunning && executed < maxCycles) {
+				runCycle();
+				if (!waiting)
+					executed++;
+			}
+			if (isRunning)
+				pause();
+			return executed;
+		} finally {
+			if (o != null)
+				o.stopped();
+			out.flush();
+		}
+	}
+
+	/**
+	 * Executes an entire instruction cycle. If the instruction at IP has already
+	 * been decoded, and its memory cells were not written since, fetch and decode
+	 * are skipped and the cached {@link Instruction} is executed again. If
+	 * superinstructions are enabled by {@link #optimize()}, the instruction at IP
+	 * may be fused with the following one.
+	 */
+	@Override
+	public void runCycle() {
+		int IPval = (int) reg.getWord(IP);
+		Instruction i = cached(IPval);
+		if (i == null) {
+			i = analysis != null && observer == null ? fuse(IPval) : null;
+			if (i == null)
+				i = decode(fetch());
+			else
+				reg.setWord(IP, IPval + i.size());
+			cache(IPval, i);
+		} else
+			reg.setWord(IP, IPval + i.size());
+		if (instructionObserver == null) {
+			execute(i);
+			return;
+		}
+		// the instruction may overwrite its own OPcode
+		int opcode = (int) (mm.getWord(IPval) % 100);
+		execute(i);
+		if (!waiting)
+			instructionObserver.instruction(IPval, opcode);
+	}
+
+	/**
+	 * Returns the number of pages of the decode cache covering {@code size}
+	 * cells.
+	 * 
+	 * @param size the number of cells.
+	 * @return the number of pages.
+	 */
+	private static int pages(long size) {
+		return (int) ((size + PagedMainMemory.PAGE_SIZE - 1) >>> PagedMainMemory.PAGE_BITS);
+	}
+
+	/**
+	 * Returns the instruction cached at {@code index}.
+	 * 
+	 * @param index the cell index.
+	 * @return the instruction, or null if none is cached.
+	 */
+	private Instruction cached(int index) {
+		int p = index >>> PagedMainMemory.PAGE_BITS;
+		if (p >= decoded.length || decoded[p] == null)
+			return null;
+		return decoded[p][index & PagedMainMemory.OFFSET_MASK];
+	}
+
+	/**
+	 * Caches the instruction {@code i} decoded at {@code index}, allocating its
+	 * page of the cache if needed.
+	 * 
+	 * @param index the cell index.
+	 * @param i     the instruction.
+	 */
+	private void cache(int index, Instruction i) {
+		int p = index >>> PagedMainMemory.PAGE_BITS;
+		if (p >= decoded.length)
+			decoded = Arrays.copyOf(decoded, Math.max(p + 1, 2 * decoded.length));
+		if (decoded[p] == null)
+			decoded[p] = new Instruction[PagedMainMemory.PAGE_SIZE];
+		decoded[p][index & PagedMainMemory.OFFSET_MASK] = i;
+	}
+
+	/**
+	 * Truncates {@code value} to the word size of this machine.
+	 * 
+	 * @param value the value.
+	 * @return the value wrapped around as a word of this machine.
+	 */
+	long word(long value) {
+		return wordSize == WordSize.INT32 ? (int) value : value;
+	}
+
+	/**
+	 * Converts a word used to address the main memory to a cell index.
+	 * 
+	 * @param word the word.
+	 * @return the cell index.
+	 * @throws IndexOutOfBoundsException if word is not a valid cell index.
+	 */
+	static int address(long word) {
+		if (word < 0 || word > Integer.MAX_VALUE)
+			throw new IndexOutOfBoundsException("invalid memory address " + word);
+		return (int) word;
+	}
+
+	/**
+	 * Writes {@code content}, truncated to the word size of this machine, in the
+	 * main memory cell at {@code index}, discarding the cached instructions which
+	 * were decoded from that cell. Every write of the instructions goes through
+	 * this method, so subclasses which keep other code caches can override it to
+	 * invalidate them.
+	 * 
+	 * @param index   the cell index.
+	 * @param content the new content.
+	 */
+	protected void store(int index, long content) {
+		if (memoryObserver != null)
+			memoryObserver.write(index, word(content));
+		mm.setWord(index, word(content));
+		uncache(index);
+	}
+
+	/**
+	 * Discards the cached instructions which were decoded from the main memory
+	 * cell at {@code index}.
+	 * 
+	 * @param index the cell index.
+	 */
+	private void uncache(int index) {
+		int p = index >>> PagedMainMemory.PAGE_BITS, offset = index & PagedMainMemory.OFFSET_MASK;
+		if (p < decoded.length && decoded[p] != null)
+			uncache(decoded[p], Math.max(0, offset - MAX_DECODED_SIZE + 1), offset, offset);
+		// instructions at the end of the previous page may cover index too
+		if (offset < MAX_DECODED_SIZE - 1 && p > 0 && p <= decoded.length && decoded[p - 1] != null)
+			uncache(decoded[p - 1], PagedMainMemory.PAGE_SIZE + offset - MAX_DECODED_SIZE + 1,
+					PagedMainMemory.OFFSET_MASK, PagedMainMemory.PAGE_SIZE + offset);
+	}
+
+	/**
+	 * Discards the instructions cached in {@code page} at the offsets from
+	 * {@code from} to {@code to}, included, which cover the cell at
+	 * {@code offset}, relative to the page.
+	 * 
+	 * @param page   the page of the cache.
+	 * @param from   the first offset.
+	 * @param to     the last offset.
+	 * @param offset the offset of the cell.
+	 */
+	private static void uncache(Instruction[] page, int from, int to, int offset) {
+		for (int i = from; i <= to; i++)
+			if (page[i] != null && i + page[i].size() > offset)
+				page[i] = null;
+	}
+
+	/**
+	 * Returns the content of the main memory cell at {@code index}, read as data
+	 * by an instruction.
+	 * 
+	 * @param index the cell index.
+	 * @return the content.
+	 * @throws IndexOutOfBoundsException if index is negative.
+	 */
+	protected long load(int index) {
+		if (memoryObserver != null)
+			memoryObserver.read(index);
+		return mm.getWord(index);
+	}
+
+	/**
+	 * Discards every cached instruction, e.g. after the memory was written directly.
+	 * Subclasses which keep other code caches can override it to discard them.
+	 */
+	protected void discardDecoded() {
+		Arrays.fill(decoded, null);
+	}
+
+	/**
+	 * Returns true if a word can be read from the input port now.
+	 * 
+	 * @return true if the input port isn't empty; false otherwise.
+	 */
+	boolean canRead() {
+		return !in.isEmpty();
+	}
+
+	/**
+	 * Reads a word from the input port, for the input instruction at {@code ip}.
+	 * 
+	 * @param ip the address of the instruction.
+	 * @return the word read.
+	 * @throws IllegalStateException if the port is empty, or the word read doesn't
+	 *                               fit the word size of this machine.
+	 */
+	long readInput(long ip) {
+		long res = in.read();
+		if (res != word(res))
+			throw new IllegalStateException("the word " + res + " read doesn't fit the word size of the machine");
+		if (observer != null)
+			observer.input(ip, res);
+		return res;
+	}
+
+	/**
+	 * Returns true if a word can be written to the output port now.
+	 * 
+	 * @return true if the output port isn't full; false otherwise.
+	 */
+	boolean canWrite() {
+		return outputsToSkip > 0 || !out.isFull();
+	}
+
+	/**
+	 * Writes a word to the output port, for the output instruction at
+	 * {@code ip}.
+	 * 
+	 * @param ip    the address of the instruction.
+	 * @param value the word.
+	 * @throws IllegalStateException if the port is full.
+	 */
+	void writeOutput(long ip, long value) {
+		if (outputsToSkip > 0)
+			outputsToSkip--;
+		else
+			out.write(value);
+		if (observer != null)
+			observer.output(ip, value);
+	}
+
+	/** Forces the words buffered by the output port to its destination. */
+	void flushOutput() {
+		out.flush();
+	}
+
+	/** Stops this machine, which waits for its ports. */
+	void suspend() {
+		isRunning = false;
+		waiting = true;
+	}
+
+	/** Stops this machine at the end of its budget of cycles. */
+	void pause() {
+		isRunning = false;
+	}
+
+	/** Stops this machine on a halting instruction. */
+	void halt() {
+		isRunning = false;
+		halted = true;
+	}
+
 	// constants
-	private static class Instructions {
-		private static final int ADD = 1;
-		private static final int MUL = 2;
-		private static final int INP = 3;
-		private static final int OUT = 4;
-		private static final int BNE = 5;
-		private static final int BEQ = 6;
-		private static final int SLT = 7;
-		private static final int SEQ = 8;
-		private static final int UPD = 9;
-		private static final int HAL = 99;
+	static class Instructions {
+		static final int ADD = 1;
+		static final int MUL = 2;
+		static final int INP = 3;
+		static final int OUT = 4;
+		static final int BNE = 5;
+		static final int BEQ = 6;
+		static final int SLT = 7;
+		static final int SEQ = 8;
+		static final int UPD = 9;
+		static final int HAL = 99;
 
 		private Instructions() {
 			throw new AssertionError("this class must not be instantiated");
@@ -82,27 +715,28 @@ public class IntCodeVM extends AbstractFDEMachine {
 	 * @return the instruction ready to execute.
 	 * @throws IllegalArgumentException if the opcode is not valid.
 	 */
-	private Instruction instructionFrom(List<Integer> rawText) {
-		int rawOP = rawText.remove(0);
-		switch (rawOP % 100) {
+	private Instruction instructionFrom(List<Long> rawText) {
+		long rawOP = rawText.remove(0);
+		int rawParModes = (int) (rawOP / 100 % 1000);
+		switch ((int) (rawOP % 100)) {
 			case Instructions.ADD:
-				return new Add(rawOP / 100, rawText);
+				return new Add(rawParModes, rawText);
 			case Instructions.MUL:
-				return new Mul(rawOP / 100, rawText);
+				return new Mul(rawParModes, rawText);
 			case Instructions.INP:
-				return new Input(rawOP / 100, rawText);
+				return new Input(rawParModes, rawText);
 			case Instructions.OUT:
-				return new Output(rawOP / 100, rawText);
+				return new Output(rawParModes, rawText);
 			case Instructions.BNE:
-				return new BranchOnNotZero(rawOP / 100, rawText);
+				return new BranchOnNotZero(rawParModes, rawText);
 			case Instructions.BEQ:
-				return new BranchOnZero(rawOP / 100, rawText);
+				return new BranchOnZero(rawParModes, rawText);
 			case Instructions.SLT:
-				return new SetOnLessThen(rawOP / 100, rawText);
+				return new SetOnLessThen(rawParModes, rawText);
 			case Instructions.SEQ:
-				return new SetOnEquals(rawOP / 100, rawText);
+				return new SetOnEquals(rawParModes, rawText);
 			case Instructions.UPD:
-				return new UpdateRBP(rawOP / 100, rawText);
+				return new UpdateRBP(rawParModes, rawText);
 			case Instructions.HAL:
 				return new Halt();
 			default:
@@ -110,6 +744,24 @@ public class IntCodeVM extends AbstractFDEMachine {
 		}
 	}
 
+	/**
+	 * Returns the superinstruction starting at {@code ip}, if the analysis found
+	 * one there and its cells weren't changed since.
+	 * 
+	 * @param ip the address.
+	 * @return the superinstruction, or null if there's none.
+	 */
+	private Instruction fuse(int ip) {
+		int kind = analysis.superinstruction(ip);
+		if (kind == ProgramAnalysis.NONE || !analysis.matches(mm, ip, ip + analysis.superinstructionSize(ip)))
+			return null;
+		if (kind == ProgramAnalysis.ARITHMETIC_BRANCH)
+			return new ArithmeticBranch(mm.blobGet(ip, ip + 4), mm.blobGet(ip + 4, ip + 7));
+		List<Long> update = mm.blobGet(ip, ip + 2);
+		List<Long> next = mm.blobGet(ip + 2, ip + 2 + MAX_INSTRUCTION_SIZE);
+		return new UpdateRBPThen(update.get(1), instructionFrom(next));
+	}
+
 	/**
 	 * Abstract class which gathers IntCode's parameter based {@link Instruction}s.
 	 * A ParameterInstruction has a list of parameters, each with its access mode.
@@ -118,10 +770,10 @@ public class IntCodeVM extends AbstractFDEMachine {
 	 */
 	public abstract class ParameterInstruction implements Instruction {
 		// parameters
-		protected List<Integer> pars;
+		protected final long[] pars;
 
 		// rules for data access
-		protected List<Integer> pModes;
+		protected final int[] pModes;
 
 		// number of memory units the raw data occupied
 		protected final int sz;
@@ -129,7 +781,7 @@ public class IntCodeVM extends AbstractFDEMachine {
 		/*
 		 * Abstraction Function: AF(pars, pModes, sz) = parameter based instruction of
 		 * raw size sz, with parameters pars and respective access modes (par at
-		 * pars.get(0) has its access mode at pModes.get(0)).
+		 * pars[0] has its access mode at pModes[0]).
 		 *
 		 * Representation Invariant: sz>0; pars and pModes are not null or empty and are
 		 * in the same size.
@@ -148,19 +800,21 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param writeOnLast true if the last parameters will be used for writing (thus
 		 *                    direct addressing), false otherwise.
 		 */
-		protected ParameterInstruction(int nPars, int rawParModes, List<Integer> subsText,
+		protected ParameterInstruction(int nPars, int rawParModes, List<Long> subsText,
 				boolean writeOnLast) {
-			pModes = new ArrayList<>();
+			pModes = new int[nPars];
 			if (writeOnLast) {
 				for (int i = 0; i < nPars - 1; rawParModes /= 10, i++) {
-					pModes.add(rawParModes % 10);
+					pModes[i] = rawParModes % 10;
 				}
-				pModes.add(1);
+				pModes[nPars - 1] = 1;
 			} else
 				for (int i = 0; i < nPars; rawParModes /= 10, i++) {
-					pModes.add(rawParModes % 10);
+					pModes[i] = rawParModes % 10;
 				}
-			pars = subsText.subList(0, nPars);
+			pars = new long[nPars];
+			for (int i = 0; i < nPars; i++)
+				pars[i] = subsText.get(i);
 			sz = nPars + 1;
 			assert repOk();
 		}
@@ -172,38 +826,29 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @return true if the representation is ok; false otherwise.
 		 */
 		public boolean repOk() {
-			return pars != null && pModes != null && sz > 0 && !pars.isEmpty()
-					&& pars.size() == pModes.size();
+			return pars != null && pModes != null && sz > 0 && pars.length > 0
+					&& pars.length == pModes.length;
 		}
 
 		/**
-		 * Fetches the arguments to work with from the instruction parameters and their
-		 * access modes.
+		 * Fetches the n-th argument to work with from the instruction parameters and
+		 * their access modes.
 		 * 
-		 * @return the actual arguments.
+		 * @param n the index of the parameter.
+		 * @return the actual argument.
 		 */
-		protected List<Integer> getActualArguments() {
-			Iterator<Integer> it = pModes.iterator();
-			List<Integer> res = new LinkedList<Integer>();
-			int parMode;
-			for (int par : pars) {
-				parMode = it.next();
-				switch (parMode) {
-					case 0:
-						res.add(mm.get(par));
-						break;
-					case 1:
-						res.add(par);
-						break;
-					case 2:
-						res.add(mm.get(reg.get(RBP) + par));
-						break;
-					default:
-						throw new IllegalArgumentException(
-								"Invalid access mode for par " + par + ": " + parMode);
-				}
+		protected long arg(int n) {
+			switch (pModes[n]) {
+				case 0:
+					return load(address(pars[n]));
+				case 1:
+					return pars[n];
+				case 2:
+					return load(address(reg.getWord(RBP) + pars[n]));
+				default:
+					throw new IllegalArgumentException(
+							"Invalid access mode for par " + pars[n] + ": " + pModes[n]);
 			}
-			return res;
 		}
 
 		@Override
@@ -216,37 +861,17 @@ public class IntCodeVM extends AbstractFDEMachine {
 			if (obj.getClass() != this.getClass())
 				return false;
 			ParameterInstruction other = (ParameterInstruction) obj;
-			return pars.equals(other.pars) && pModes.equals(other.pModes);
+			return Arrays.equals(pars, other.pars) && Arrays.equals(pModes, other.pModes);
 		}
 
 		@Override
 		public String toString() {
-			return getClass().getSimpleName() + "; parameters: " + listToString(pars)
-					+ "; parameter modes: " + listToString(pModes);
+			return getClass().getSimpleName() + "; parameters: " + Arrays.toString(pars)
+					+ "; parameter modes: " + Arrays.toString(pModes);
 		}
 
 	}
 
-	/**
-	 * toString of a list of {@code Integer}s.
-	 * 
-	 * @param l the list.
-	 * @return the string.
-	 */
-	private static String listToString(List<Integer> l) {
-		String res = "[";
-		if (l.size() > 0) {
-			Iterator<Integer> it = l.iterator();
-			int el = it.next();
-			while (it.hasNext()) {
-				res += el + ", ";
-				el = it.next();
-			}
-			res += el;
-		}
-		return res + "]";
-	}
-
 	/**
 	 * Intcode {@link Instruction} which adds two numbers and puts their sum in
 	 * memory.
@@ -262,21 +887,20 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameters.
 		 */
-		public Add(int rawParModes, List<Integer> subsText) {
+		public Add(int rawParModes, List<Long> subsText) {
 			super(3, rawParModes, subsText, true);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			int res = args.remove(0) + args.remove(0);
-			mm.set(args.remove(0), res);
+			long res = arg(0) + arg(1);
+			store(address(arg(2)), res);
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.ADD + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.ADD + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
@@ -296,28 +920,27 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameters.
 		 */
-		public Mul(int rawParModes, List<Integer> parameters) {
+		public Mul(int rawParModes, List<Long> parameters) {
 			super(3, rawParModes, parameters, true);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			int res = args.remove(0) * args.remove(0);
-			mm.set(args.remove(0), res);
+			long res = arg(0) * arg(1);
+			store(address(arg(2)), res);
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.MUL + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.MUL + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
 
 	/**
-	 * Intcode {@link Instruction} which takes standard input from the user and puts
-	 * it in a memory cell.
+	 * Intcode {@link Instruction} which takes a word from the input port and puts
+	 * it in a memory cell. If the port is empty, the machine suspends before it.
 	 */
 	public class Input extends ParameterInstruction {
 
@@ -330,34 +953,31 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameter.
 		 */
-		public Input(int rawParModes, List<Integer> parameters) {
+		public Input(int rawParModes, List<Long> parameters) {
 			super(1, rawParModes, parameters, true);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			Scanner sc = new Scanner(System.in);
-			if (sc.hasNextInt())
-				mm.set(args.remove(0), sc.nextInt());
-			else {
-				sc.close();
-				throw new IllegalStateException("Can't parse integer from standard input.");
+			if (!canRead()) {
+				reg.setWord(IP, reg.getWord(IP) - sz);
+				suspend();
+				return;
 			}
-			sc.close();
+			store(address(arg(0)), readInput(reg.getWord(IP) - sz));
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.INP + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.INP + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
 
 	/**
-	 * Intcode {@link Instruction} which takes input from a cell and puts it on
-	 * standard output.
+	 * Intcode {@link Instruction} which takes input from a cell and puts it on the
+	 * output port. If the port is full, the machine suspends before it.
 	 */
 	public class Output extends ParameterInstruction {
 
@@ -370,20 +990,24 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameter.
 		 */
-		public Output(int rawParModes, List<Integer> parameters) {
+		public Output(int rawParModes, List<Long> parameters) {
 			super(1, rawParModes, parameters, false);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			System.out.println(args.remove(0));
+			if (!canWrite()) {
+				reg.setWord(IP, reg.getWord(IP) - sz);
+				suspend();
+				return;
+			}
+			writeOutput(reg.getWord(IP) - sz, arg(0));
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.OUT + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.OUT + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
@@ -403,21 +1027,23 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameters.
 		 */
-		public BranchOnNotZero(int rawParModes, List<Integer> parameters) {
+		public BranchOnNotZero(int rawParModes, List<Long> parameters) {
 			super(2, rawParModes, parameters, false);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			if (args.remove(0) != 0)
-				reg.set(IP, args.remove(0));
+			boolean taken = arg(0) != 0;
+			if (observer != null)
+				observer.branch(reg.getWord(IP) - sz, taken);
+			if (taken)
+				reg.setWord(IP, address(arg(1)));
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.BNE + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.BNE + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
@@ -437,21 +1063,23 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameters.
 		 */
-		public BranchOnZero(int rawParModes, List<Integer> parameters) {
+		public BranchOnZero(int rawParModes, List<Long> parameters) {
 			super(2, rawParModes, parameters, false);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			if (args.remove(0) == 0)
-				reg.set(IP, args.remove(0));
+			boolean taken = arg(0) == 0;
+			if (observer != null)
+				observer.branch(reg.getWord(IP) - sz, taken);
+			if (taken)
+				reg.setWord(IP, address(arg(1)));
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.BEQ + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.BEQ + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
@@ -471,21 +1099,20 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameters.
 		 */
-		public SetOnLessThen(int rawParModes, List<Integer> parameters) {
+		public SetOnLessThen(int rawParModes, List<Long> parameters) {
 			super(3, rawParModes, parameters, true);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			int res = args.remove(0) < args.remove(0) ? 1 : 0;
-			mm.set(args.remove(0), res);
+			long res = arg(0) < arg(1) ? 1 : 0;
+			store(address(arg(2)), res);
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.SLT + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.SLT + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
@@ -505,21 +1132,20 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameters.
 		 */
-		public SetOnEquals(int rawParModes, List<Integer> parameters) {
+		public SetOnEquals(int rawParModes, List<Long> parameters) {
 			super(3, rawParModes, parameters, true);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			int res = args.remove(0) == args.remove(0) ? 1 : 0;
-			mm.set(args.remove(0), res);
+			long res = arg(0) == arg(1) ? 1 : 0;
+			store(address(arg(2)), res);
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.SEQ + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.SEQ + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
 		}
 
 	}
@@ -539,20 +1165,124 @@ public class IntCodeVM extends AbstractFDEMachine {
 		 * @param subsText    portion of memory text, subsequent of the OPcode,
 		 *                    containing (also) the Instruction's parameter.
 		 */
-		public UpdateRBP(int rawParModes, List<Integer> parameters) {
+		public UpdateRBP(int rawParModes, List<Long> parameters) {
 			super(1, rawParModes, parameters, false);
 			assert super.repOk();
 		}
 
 		@Override
 		public void execute() {
-			List<Integer> args = getActualArguments();
-			reg.set(RBP, reg.get(RBP) + args.remove(0));
+			reg.setWord(RBP, word(reg.getWord(RBP) + arg(0)));
 		}
 
 		@Override
 		public int hashCode() {
-			return 31 * Instructions.UPD + pars.hashCode() + pModes.hashCode();
+			return 31 * Instructions.UPD + Arrays.hashCode(pars) + Arrays.hashCode(pModes);
+		}
+
+	}
+
+	/**
+	 * Superinstruction fusing an ADD, MUL, SLT or SEQ with the BNE or BEQ which
+	 * follows it and tests the cell it writes. The operands of the first
+	 * instruction are in position or immediate mode and address existing cells,
+	 * so it can't fail.
+	 */
+	private class ArithmeticBranch implements Instruction {
+		private final int op;
+		private final long a, b;
+		private final int modeA, modeB;
+		private final int dst;
+		private final boolean onZero;
+		private final long target;
+		private final int modeTarget;
+
+		/**
+		 * Constructs the superinstruction of the given instructions.
+		 * 
+		 * @param first  the cells of the arithmetic or comparison instruction.
+		 * @param branch the cells of the branch.
+		 */
+		ArithmeticBranch(List<Long> first, List<Long> branch) {
+			long rawOP = first.get(0);
+			op = (int) (rawOP % 100);
+			modeA = (int) (rawOP / 100 % 10);
+			modeB = (int) (rawOP / 1000 % 10);
+			a = first.get(1);
+			b = first.get(2);
+			dst = (int) (long) first.get(3);
+			rawOP = branch.get(0);
+			onZero = rawOP % 100 == Instructions.BEQ;
+			modeTarget = (int) (rawOP / 1000 % 10);
+			target = branch.get(2);
+		}
+
+		@Override
+		public int size() {
+			return 7;
+		}
+
+		@Override
+		public void execute() {
+			long x = modeA == 0 ? load((int) a) : a;
+			long y = modeB == 0 ? load((int) b) : b;
+			long res;
+			switch (op) {
+				case Instructions.ADD:
+					res = x + y;
+					break;
+				case Instructions.MUL:
+					res = x * y;
+					break;
+				case Instructions.SLT:
+					res = x < y ? 1 : 0;
+					break;
+				default:
+					res = x == y ? 1 : 0;
+			}
+			res = word(res);
+			store(dst, res);
+			if ((res == 0) == onZero) {
+				long t = target;
+				if (modeTarget == 0)
+					t = load(address(t));
+				else if (modeTarget == 2)
+					t = load(address(reg.getWord(RBP) + t));
+				reg.setWord(IP, address(t));
+			}
+		}
+
+	}
+
+	/**
+	 * Superinstruction fusing an UPD of immediate argument with the instruction
+	 * which follows it, which reads an operand relative to the new Relative Base
+	 * Pointer.
+	 */
+	private class UpdateRBPThen implements Instruction {
+		private final long delta;
+		private final Instruction next;
+
+		/**
+		 * Constructs the superinstruction of the given instructions.
+		 * 
+		 * @param delta the immediate argument of the UPD.
+		 * @param next  the following instruction.
+		 */
+		UpdateRBPThen(long delta, Instruction next) {
+			this.delta = delta;
+			this.next = next;
+		}
+
+		@Override
+		public int size() {
+			return 2 + next.size();
+		}
+
+		@Override
+		public void execute() {
+			reg.setWord(RBP, word(reg.getWord(RBP) + delta));
+			next.execute();
 		}
 
 	}
@@ -569,7 +1299,7 @@ public class IntCodeVM extends AbstractFDEMachine {
 
 		@Override
 		public void execute() {
-			isRunning = false;
+			halt();
 		}
 
 		@Override
@@ -591,8 +1321,8 @@ public class IntCodeVM extends AbstractFDEMachine {
 
 	@Override
 	public String toString() {
-		String res = "IntcodeVM :\n\t" + mm.toString() + "\n\tRegisters : [IP = " + reg.get(IP) + ", RBP = "
-				+ reg.get(RBP) + "]";
+		String res = "IntcodeVM :\n\t" + mm.toString() + "\n\tRegisters : [IP = " + reg.getWord(IP) + ", RBP = "
+				+ reg.getWord(RBP) + "]";
 		return res;
 	}
 
@@ -603,12 +1333,13 @@ public class IntCodeVM extends AbstractFDEMachine {
 		if (!(obj instanceof IntCodeVM))
 			return false;
 		IntCodeVM other = (IntCodeVM) obj;
-		return this.isRunning == other.isRunning && this.mm.equals(other.mm) && this.reg.equals(other.reg);
+		return this.isRunning == other.isRunning && this.waiting == other.waiting && this.halted == other.halted
+				&& this.wordSize == other.wordSize && this.mm.equals(other.mm) && this.reg.equals(other.reg);
 	}
 
 	@Override
 	public int hashCode() {
-		return (isRunning ? 31 : 1) * reg.hashCode() + mm.hashCode();
+		return Long.hashCode(fingerprint());
 	}
 
 }
@@ -0,0 +1,100 @@
+/**
+ * Observer of the execution of an {@link AbstractFDEMachine}, notified of each
+ * event of interest while the machine runs. Machines have no observer unless
+ * one is set with {@link AbstractFDEMachine#setObserver(MachineObserver)}, and
+ * then they only check for its absence on the hot path. Every method does
+ * nothing by default, so that observers implement only the events they need.
+ * Observers which opt out of the instruction and memory events can be notified
+ * by faster execution engines, which don't track them.
+ */
+public interface MachineObserver {
+
+	/** Notifies that the machine starts running. */
+	default void started() {
+	}
+
+	/** Notifies that the machine stops running, normally or by exception. */
+	default void stopped() {
+	}
+
+	/**
+	 * Returns true if this observer must be notified of every instruction.
+	 * Machines skip those notifications for observers which return false when
+	 * they are set.
+	 * 
+	 * @return true if {@link #instruction(long, int)} must be called; false
+	 *         otherwise.
+	 */
+	default boolean observesInstructions() {
+		return true;
+	}
+
+	/**
+	 * Notifies that the instruction at {@code ip} was executed, after the other
+	 * events it caused. Input and output instructions which make the machine
+	 * wait for its ports are notified only when they are executed again, and
+	 * complete; instructions which throw are not notified.
+	 * 
+	 * @param ip     the address of the instruction.
+	 * @param opcode the OPcode of the instruction.
+	 */
+	default void instruction(long ip, int opcode) {
+	}
+
+	/**
+	 * Notifies that the conditional branch at {@code ip} was evaluated.
+	 * 
+	 * @param ip    the address of the branch.
+	 * @param taken true if the branch jumped; false if it fell through.
+	 */
+	default void branch(long ip, boolean taken) {
+	}
+
+	/**
+	 * Returns true if this observer must be notified of the reads and writes of
+	 * main memory. Machines skip those notifications, the most frequent, for
+	 * observers which return false when they are set.
+	 * 
+	 * @return true if {@link #read(int)} and {@link #write(int, long)} must be
+	 *         called; false otherwise.
+	 */
+	default boolean observesMemory() {
+		return true;
+	}
+
+	/**
+	 * Notifies that an instruction read a data cell of main memory.
+	 * 
+	 * @param address the address of the cell.
+	 */
+	default void read(int address) {
+	}
+
+	/**
+	 * Notifies that an instruction wrote a cell of main memory.
+	 * 
+	 * @param address the address of the cell.
+	 * @param content the content written.
+	 */
+	default void write(int address, long content) {
+	}
+
+	/**
+	 * Notifies that the input instruction at {@code ip} read a word.
+	 * 
+	 * @param ip    the address of the instruction.
+	 * @param value the word.
+	 */
+	default void input(long ip, long value) {
+	}
+
+	/**
+	 * Notifies that the output instruction at {@code ip} wrote a word.
+	 * 
+	 * @param ip    the address of the instruction.
+	 * @param value the word.
+	 */
+	default void output(long ip, long value) {
+	}
+
+}
@@ -16,10 +16,10 @@ public interface MainMemory extends Memory {
 	 * @param endIndex   index of the first cell not to be included in the list.
 	 * @return the list of the cells' contents.
 	 */
-	default List<Integer> blobGet(int startIndex, int endIndex) {
-		List<Integer> res = new LinkedList<Integer>();
+	default List<Long> blobGet(int startIndex, int endIndex) {
+		List<Long> res = new LinkedList<Long>();
 		for (int i = startIndex; i < endIndex; i++) {
-			res.add(get(i));
+			res.add(getWord(i));
 		}
 		return res;
 	}
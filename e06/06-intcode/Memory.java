@@ -1,7 +1,8 @@
 /**
  * Abstraction of the concept of memory. A memory has cells which can be set or
  * fetched (get). This abstraction has possibly infinite cells. Every new cell
- * contains a 0.
+ * contains a 0. Cells can also be accessed as primitive {@code long} words;
+ * memories whose cells are narrower than 64 bits refuse words which don't fit.
  */
 public interface Memory {
 
@@ -21,4 +22,25 @@ public interface Memory {
 	 */
 	Integer get(int index);
 
+	/**
+	 * Sets the cell at index {@code index} to the word {@code content}.
+	 * 
+	 * @param index   the cell index.
+	 * @param content the new content.
+	 * @throws ArithmeticException if content doesn't fit in a cell of this memory.
+	 */
+	default void setWord(int index, long content) {
+		set(index, Math.toIntExact(content));
+	}
+
+	/**
+	 * Returns the content at the cell at {@code index} as a primitive word.
+	 * 
+	 * @param index the index.
+	 * @return the content of the cell.
+	 */
+	default long getWord(int index) {
+		return get(index);
+	}
+
 }
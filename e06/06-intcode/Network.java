@@ -0,0 +1,354 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Network of {@link IntCodeVM}s wired output-to-input by {@link Link}s, run by
+ * a small pool of carrier threads. Each machine runs on a carrier until it
+ * halts, or until it waits for a link which is empty or full: then it parks,
+ * freeing the carrier, and it's resumed as soon as a peer writes to (or reads
+ * from) that link. Thousands of machines can thus share a few threads. A
+ * machine is never run by two carriers at once, but it keeps its carrier as
+ * long as it doesn't wait for a link.
+ */
+public class Network {
+	private final int carriers;
+
+	// the machines of the network, and their nodes
+	private final List<Node> nodes;
+	private final Map<IntCodeVM, Node> byVM;
+
+	// state of the current run; executor is null when the network isn't running
+	private volatile ExecutorService executor;
+	private final AtomicInteger active;
+	private CountDownLatch idle;
+	private volatile RuntimeException failure;
+
+	/*
+	 * Abstraction Function: AF(carriers, nodes) = network of the machines of
+	 * nodes, connected by the links of the nodes, run by carriers threads. byVM,
+	 * executor, active, idle and failure are the state of a run.
+	 *
+	 * Representation Invariant: carriers > 0; nodes, byVM and active are not null;
+	 * byVM maps the machine of every node of nodes, and only those, to its node.
+	 */
+
+	// states of a node
+	private static final int PARKED = 0;
+	private static final int SCHEDULED = 1;
+	private static final int RUNNING = 2;
+	private static final int NOTIFIED = 3;
+	private static final int DONE = 4;
+
+	/**
+	 * A machine of the network, as a task of the carrier threads. A node is
+	 * PARKED while it's not running and waits for a link, SCHEDULED while it waits
+	 * for a carrier, RUNNING (or NOTIFIED, if one of its links changed in the
+	 * meantime) while it runs, DONE once its machine halted or failed. When a
+	 * machine fails, the nodes which haven't halted go back to PARKED without
+	 * running, so a later run of the network resumes them.
+	 */
+	private final class Node implements Runnable {
+		final IntCodeVM vm;
+		final AtomicInteger state = new AtomicInteger(PARKED);
+
+		Node(IntCodeVM vm) {
+			this.vm = vm;
+		}
+
+		/** Schedules this node if it's parked, or notifies it if it's running. */
+		void wake() {
+			if (executor == null)
+				return;
+			while (true) {
+				int s = state.get();
+				if (s == PARKED && state.compareAndSet(PARKED, SCHEDULED)) {
+					active.incrementAndGet();
+					executor.execute(this);
+					return;
+				}
+				if (s != RUNNING || state.compareAndSet(RUNNING, NOTIFIED))
+					return;
+			}
+		}
+
+		@Override
+		public void run() {
+			state.set(RUNNING);
+			boolean failed = false;
+			if (failure == null)
+				try {
+					vm.run();
+				} catch (RuntimeException e) {
+					failed = true;
+					if (failure == null)
+						failure = e;
+				}
+			if (failed || vm.isHalted())
+				state.set(DONE);
+			else if (failure != null)
+				// another machine failed: this one is run again by the next run
+				state.set(PARKED);
+			else if (!state.compareAndSet(RUNNING, PARKED)) {
+				// a link changed while running: the machine might not have seen it
+				state.set(SCHEDULED);
+				executor.execute(this);
+				return;
+			}
+			if (active.decrementAndGet() == 0)
+				idle.countDown();
+		}
+
+	}
+
+	/**
+	 * Bounded FIFO link between machines of a {@link Network}. The machines
+	 * reading from a link are resumed when a word is written to it, and the ones
+	 * writing to it are resumed when a word is read from it. Words can also be
+	 * written to and read from a link outside the network, to feed its machines
+	 * and to collect their results.
+	 */
+	public final class Link implements InputPort, OutputPort {
+		private final RingBuffer buffer;
+		private final List<Node> readers = new ArrayList<>();
+		private final List<Node> writers = new ArrayList<>();
+
+		private Link(int capacity) {
+			buffer = new RingBuffer(capacity);
+		}
+
+		/**
+		 * Returns the number of words in this link.
+		 *
+		 * @return the number of words.
+		 */
+		public int size() {
+			return buffer.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return buffer.isEmpty();
+		}
+
+		@Override
+		public boolean isFull() {
+			return buffer.isFull();
+		}
+
+		@Override
+		public long read() {
+			long res = buffer.read();
+			for (Node n : writers)
+				n.wake();
+			return res;
+		}
+
+		@Override
+		public void write(long value) {
+			buffer.write(value);
+			for (Node n : readers)
+				n.wake();
+		}
+
+		@Override
+		public String toString() {
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * Constructs an empty network run by {@code carriers} threads.
+	 *
+	 * @param carriers the number of carrier threads.
+	 * @throws IllegalArgumentException if carriers is not positive.
+	 */
+	public Network(int carriers) {
+		if (carriers <= 0)
+			throw new IllegalArgumentException("a network needs at least a carrier thread");
+		this.carriers = carriers;
+		nodes = new ArrayList<>();
+		byVM = new IdentityHashMap<>();
+		active = new AtomicInteger();
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		if (carriers <= 0 || nodes == null || byVM == null || active == null || byVM.size() != nodes.size())
+			return false;
+		for (Node n : nodes)
+			if (byVM.get(n.vm) != n)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the node of {@code vm}, adding it to the network if it's not there.
+	 *
+	 * @param vm the machine.
+	 * @return the node.
+	 * @throws NullPointerException  if vm is null.
+	 * @throws IllegalStateException if the network is running.
+	 */
+	private Node node(IntCodeVM vm) {
+		if (vm == null)
+			throw new NullPointerException("a network can't contain a null machine");
+		if (executor != null)
+			throw new IllegalStateException("can't change a running network");
+		Node res = byVM.get(vm);
+		if (res == null) {
+			res = new Node(vm);
+			nodes.add(res);
+			byVM.put(vm, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Adds {@code vm} to this network, if it's not there already. Machines are
+	 * also added when they are connected.
+	 *
+	 * @param vm the machine.
+	 * @throws NullPointerException  if vm is null.
+	 * @throws IllegalStateException if the network is running.
+	 */
+	public void add(IntCodeVM vm) {
+		node(vm);
+		assert repOk();
+	}
+
+	/**
+	 * Connects the output of {@code from} to the input of {@code to} with a new
+	 * link holding at most {@code capacity} words, adding the machines to this
+	 * network if needed. The previous ports of the machines are replaced.
+	 *
+	 * @param from     the writing machine.
+	 * @param to       the reading machine.
+	 * @param capacity the capacity of the link.
+	 * @return the link.
+	 * @throws NullPointerException     if from or to are null.
+	 * @throws IllegalArgumentException if capacity is not positive.
+	 * @throws IllegalStateException    if the network is running.
+	 */
+	public Link connect(IntCodeVM from, IntCodeVM to, int capacity) {
+		Link res = new Link(capacity);
+		Node w = node(from), r = node(to);
+		w.vm.setOutput(res);
+		res.writers.add(w);
+		r.vm.setInput(res);
+		res.readers.add(r);
+		assert repOk();
+		return res;
+	}
+
+	/**
+	 * Connects the input of {@code to} to a new link holding at most
+	 * {@code capacity} words, which is fed from outside the network.
+	 *
+	 * @param to       the reading machine.
+	 * @param capacity the capacity of the link.
+	 * @return the link.
+	 * @throws NullPointerException     if to is null.
+	 * @throws IllegalArgumentException if capacity is not positive.
+	 * @throws IllegalStateException    if the network is running.
+	 */
+	public Link input(IntCodeVM to, int capacity) {
+		Link res = new Link(capacity);
+		Node r = node(to);
+		r.vm.setInput(res);
+		res.readers.add(r);
+		assert repOk();
+		return res;
+	}
+
+	/**
+	 * Connects the output of {@code from} to a new link holding at most
+	 * {@code capacity} words, which is read from outside the network.
+	 *
+	 * @param from     the writing machine.
+	 * @param capacity the capacity of the link.
+	 * @return the link.
+	 * @throws NullPointerException     if from is null.
+	 * @throws IllegalArgumentException if capacity is not positive.
+	 * @throws IllegalStateException    if the network is running.
+	 */
+	public Link output(IntCodeVM from, int capacity) {
+		Link res = new Link(capacity);
+		Node w = node(from);
+		w.vm.setOutput(res);
+		res.writers.add(w);
+		assert repOk();
+		return res;
+	}
+
+	/**
+	 * Runs the machines of this network which haven't halted yet, until every
+	 * machine either halted or waits for a link no other machine will change.
+	 * The network can be run again after feeding or draining its links from
+	 * outside.
+	 *
+	 * @return true if every machine halted; false if some are still waiting.
+	 * @throws InterruptedException  if the calling thread is interrupted while
+	 *                               waiting for the machines.
+	 * @throws IllegalStateException if the network is already running.
+	 * @throws RuntimeException      the first exception thrown by a machine, which
+	 *                               stops the whole network.
+	 */
+	public boolean run() throws InterruptedException {
+		List<Node> ready = new ArrayList<>();
+		synchronized (this) {
+			if (executor != null)
+				throw new IllegalStateException("the network is already running");
+			for (Node n : nodes)
+				if (n.state.get() != DONE) {
+					n.state.set(SCHEDULED);
+					ready.add(n);
+				}
+			if (ready.isEmpty())
+				return true;
+			failure = null;
+			idle = new CountDownLatch(1);
+			active.set(ready.size());
+			executor = Executors.newFixedThreadPool(carriers, r -> {
+				Thread t = new Thread(r, "network carrier");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		try {
+			for (Node n : ready)
+				executor.execute(n);
+			idle.await();
+		} finally {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (failure != null)
+			throw failure;
+		for (Node n : nodes)
+			if (n.state.get() != DONE)
+				return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Network of " + nodes.size() + " machines on " + carriers + " carriers :");
+		for (Node n : nodes)
+			sb.append("\n").append(n.vm.isHalted() ? "halted " : "waiting ").append(n.vm);
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+import java.util.Arrays;
+
+/**
+ * Throughput of {@link Network} on rings of machines. Every machine of a ring
+ * repeatedly reads a word, increments it and writes it to the next machine,
+ * until the machines together forwarded {@code args[1]} words, and a word
+ * starts in every link, so that all machines can work at once. Prints, for
+ * rings of 1, 10 and 1000 machines (or the sizes listed after the first two
+ * arguments) run by {@code args[0]} carrier threads, the words forwarded per
+ * second and the IntCode instructions executed per second.
+ */
+public class NetworkBench {
+	// in [100]; [100] += 1; out [100]; [101] -= 1; if [101] != 0 jump 0; halt
+	private static final long[] FORWARD = { 3, 100, 1001, 100, 1, 100, 4, 100, 1001, 101, -1, 101, 1005, 101, 0, 99 };
+	private static final int INSTRUCTIONS_PER_WORD = 5;
+
+	private static double run(int carriers, int machines, int words) throws InterruptedException {
+		Network net = new Network(carriers);
+		IntCodeVM[] vms = new IntCodeVM[machines];
+		for (int i = 0; i < machines; i++) {
+			long[] program = Arrays.copyOf(FORWARD, 102);
+			program[101] = words;
+			vms[i] = new IntCodeVM(program, IntCodeVM.WordSize.INT32);
+		}
+		for (int i = 0; i < machines; i++)
+			net.connect(vms[i], vms[(i + 1) % machines], 4).write(0);
+		long start = System.nanoTime();
+		if (!net.run())
+			throw new IllegalStateException("the ring didn't halt");
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int carriers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int words = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		int[] sizes = { 1, 10, 1000 };
+		if (args.length > 2) {
+			sizes = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++)
+				sizes[i - 2] = Integer.parseInt(args[i]);
+		}
+		for (int machines : sizes) {
+			int perMachine = Math.max(1, words / machines);
+			run(carriers, machines, perMachine); // warm-up
+			double secs = run(carriers, machines, perMachine);
+			long total = (long) machines * perMachine;
+			System.out.printf("%5d machines, %d carriers: %10.0f words/s, %12.0f instructions/s (%.3f s)%n", machines,
+					carriers, total / secs, total * INSTRUCTIONS_PER_WORD / secs, secs);
+		}
+	}
+}
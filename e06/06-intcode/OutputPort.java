@@ -0,0 +1,28 @@
+/**
+ * Abstraction of the destination of the words written by the output
+ * instructions of a machine. A port can be temporarily full: a machine which
+ * needs to write to a full port suspends, and can be resumed when the port has
+ * room again. A port may buffer the words it is written, until it is flushed.
+ */
+public interface OutputPort {
+
+	/**
+	 * Returns true if no word can be written to this port now.
+	 * 
+	 * @return true if this port is full; false otherwise.
+	 */
+	boolean isFull();
+
+	/**
+	 * Writes a word to this port.
+	 * 
+	 * @param value the word.
+	 * @throws IllegalStateException if this port is full.
+	 */
+	void write(long value);
+
+	/** Forces the words buffered by this port, if any, to its destination. */
+	default void flush() {
+	}
+
+}
@@ -0,0 +1,26 @@
+/**
+ * Source of the initial content of a {@link PagedMainMemory} whose pages are
+ * loaded lazily: a page is read from its source only the first time one of its
+ * cells is accessed.
+ */
+interface PageSource {
+
+	/**
+	 * Returns the number of cells of the content.
+	 * 
+	 * @return the number of cells.
+	 */
+	int size();
+
+	/**
+	 * Copies the cells of the page of index {@code page} into {@code dest}, which
+	 * is {@link PagedMainMemory#PAGE_SIZE} long and full of zeros. Cells beyond
+	 * {@link #size()} must stay zero.
+	 * 
+	 * @param page the page index.
+	 * @param dest the page to fill.
+	 * @throws IllegalArgumentException if the content of the page is malformed.
+	 */
+	void load(int page, long[] dest);
+
+}
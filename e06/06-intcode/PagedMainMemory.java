@@ -0,0 +1,466 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implementation of {@link MainMemory} which keeps its cells in fixed size
+ * pages of primitive {@code long}s. A page is allocated only when a non-zero
+ * value is written in one of its cells, so reading untouched cells and writing
+ * at very high addresses don't need to fill the memory up to that address.
+ * Cells are 64 bits wide: words which don't fit an {@code Integer} can only be
+ * read with {@link #getWord(int)}.
+ * <p>
+ * A snapshot of a PagedMainMemory takes constant time: the snapshot and the
+ * original share their pages, and a page is copied only the first time either
+ * of them writes to it. A 64-bit hash of the content is kept up to date at
+ * every write, so that comparing and hashing memories rarely needs to look at
+ * their cells.
+ * <p>
+ * A memory can also be loaded lazily from a {@link PageSource}: a page is read
+ * from the source the first time one of its cells is accessed. Snapshots,
+ * comparisons and hashes load every page first.
+ */
+public class PagedMainMemory implements MainMemory {
+	static final int PAGE_BITS = 10;
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	static final int OFFSET_MASK = PAGE_SIZE - 1;
+
+	// page directory: cell i is in pages[i >>> PAGE_BITS][i & OFFSET_MASK]
+	private long[][] pages;
+
+	// owned[p] is true if pages[p] isn't shared with another memory
+	private boolean[] owned;
+
+	// true if pages (and every page in it) may be shared with another memory
+	private boolean shared;
+
+	// index of the first cell after the highest one ever written
+	private int size;
+
+	// sum of cellHash(i, v) over the cells i of content v of the loaded pages
+	private long hash;
+
+	// source of the pages not loaded yet, and which ones; null if all are loaded
+	private PageSource source;
+	private boolean[] pending;
+
+	/*
+	 * Abstraction Function: AF(pages, size) = memory whose cell i contains
+	 * pages[i >>> PAGE_BITS][i & OFFSET_MASK] if that page exists, 0 otherwise.
+	 * size is only used to print the memory the same way as BasicMemory, if
+	 * source is null; otherwise, cell i of a page p with pending[p] contains the
+	 * word source loads there. owned, shared and hash are not part of the
+	 * abstraction.
+	 *
+	 * Representation Invariant: pages and owned are not null and have the same
+	 * length; each element of pages is null or has length PAGE_SIZE; size >= 0
+	 * and every cell beyond size is 0; if shared is false, the page directory and
+	 * each page p with owned[p] are referenced by this memory only; hash is the
+	 * sum of cellHash(i, v) over the cells i of content v; source and pending are
+	 * both null or both not null, and then shared is false and every page p with
+	 * pending[p] is null.
+	 */
+
+	/** Constructs an empty PagedMainMemory. */
+	public PagedMainMemory() {
+		pages = new long[0][];
+		owned = new boolean[0];
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a memory with the same content of {@code other}, sharing its
+	 * pages.
+	 *
+	 * @param other the memory to copy.
+	 */
+	private PagedMainMemory(PagedMainMemory other) {
+		pages = other.pages;
+		owned = other.owned;
+		size = other.size;
+		hash = other.hash;
+		shared = true;
+		if (!other.shared) // other is only read once shared, so threads can snapshot it
+			other.shared = true;
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a memory from the given blob of data. This abstracts the concept
+	 * of inserting a phisical memory, or loading a program in memory.
+	 *
+	 * @param blob the new memory content.
+	 * @throws NullPointerException if blob or one of its elements is null.
+	 */
+	PagedMainMemory(List<Integer> blob) {
+		this();
+		int i = 0;
+		for (Integer cell : blob)
+			set(i++, cell);
+		size = blob.size();
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a memory from the given blob of words. This abstracts the concept
+	 * of inserting a phisical memory, or loading a program in memory.
+	 *
+	 * @param blob the new memory content.
+	 * @throws NullPointerException if blob is null.
+	 */
+	PagedMainMemory(long[] blob) {
+		this();
+		for (int i = 0; i < blob.length; i++)
+			setWord(i, blob[i]);
+		size = blob.length;
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a memory whose page directory is {@code pages}, e.g. read from a
+	 * checkpoint. The memory takes ownership of the directory and its pages.
+	 *
+	 * @param pages the page directory; absent pages are null.
+	 * @param size  the index of the first cell after the highest one written.
+	 * @throws NullPointerException     if pages is null.
+	 * @throws IllegalArgumentException if a page has not length PAGE_SIZE, or a
+	 *                                  cell beyond size isn't 0.
+	 */
+	PagedMainMemory(long[][] pages, int size) {
+		this.pages = pages;
+		owned = new boolean[pages.length];
+		this.size = size;
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null)
+				continue;
+			if (pages[p].length != PAGE_SIZE)
+				throw new IllegalArgumentException("pages must have " + PAGE_SIZE + " cells");
+			owned[p] = true;
+			for (int i = 0; i < PAGE_SIZE; i++) {
+				int index = (p << PAGE_BITS) + i;
+				if (index >= size && pages[p][i] != 0)
+					throw new IllegalArgumentException("the cell " + index + " is beyond the size " + size);
+				hash += cellHash(index, pages[p][i]);
+			}
+		}
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a memory whose content is loaded lazily from {@code source}, a
+	 * page at a time.
+	 *
+	 * @param source the source of the content.
+	 * @throws NullPointerException if source is null.
+	 */
+	PagedMainMemory(PageSource source) {
+		this();
+		size = source.size();
+		int n = (int) ((size + (long) PAGE_SIZE - 1) >>> PAGE_BITS);
+		pages = new long[n][];
+		owned = new boolean[n];
+		if (n > 0) {
+			this.source = source;
+			pending = new boolean[n];
+			Arrays.fill(pending, true);
+		}
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		if (pages == null || owned == null || pages.length != owned.length || size < 0)
+			return false;
+		if ((source == null) != (pending == null))
+			return false;
+		if (source != null) {
+			if (shared)
+				return false;
+			for (int p = 0; p < pending.length; p++)
+				if (pending[p] && p < pages.length && pages[p] != null)
+					return false;
+		}
+		long h = 0;
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null)
+				continue;
+			if (pages[p].length != PAGE_SIZE)
+				return false;
+			for (int i = Math.max(0, size - (p << PAGE_BITS)); i < PAGE_SIZE; i++)
+				if (pages[p][i] != 0)
+					return false;
+			for (int i = 0; i < PAGE_SIZE; i++)
+				h += cellHash((p << PAGE_BITS) + i, pages[p][i]);
+		}
+		return h == hash;
+	}
+
+	/**
+	 * Returns the contribution of the cell of index {@code index} and content
+	 * {@code content} to the hash of a memory. Cells containing 0 don't
+	 * contribute.
+	 *
+	 * @param index   the cell index.
+	 * @param content the cell content.
+	 * @return the contribution.
+	 */
+	private static long cellHash(int index, long content) {
+		if (content == 0)
+			return 0;
+		// finalizer of MurmurHash3
+		long h = index * 0x9E3779B97F4A7C15L + content;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws ArithmeticException if the cell contains a word which doesn't fit an
+	 *                             {@code Integer}.
+	 */
+	@Override
+	public Integer get(int index) {
+		return Math.toIntExact(getWord(index));
+	}
+
+	@Override
+	public void set(int index, Integer content) {
+		if (content == null)
+			throw new NullPointerException("can't write null in memory");
+		setWord(index, content);
+	}
+
+	@Override
+	public long getWord(int index) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("negative memory address " + index);
+		int p = index >>> PAGE_BITS;
+		if (p >= pages.length || pages[p] == null)
+			return source != null && fetch(p) ? pages[p][index & OFFSET_MASK] : 0;
+		return pages[p][index & OFFSET_MASK];
+	}
+
+	@Override
+	public void setWord(int index, long content) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("negative memory address " + index);
+		int p = index >>> PAGE_BITS, offset = index & OFFSET_MASK;
+		if (source != null && (p >= pages.length || pages[p] == null))
+			fetch(p);
+		long old = p >= pages.length || pages[p] == null ? 0 : pages[p][offset];
+		if (old != content) {
+			if (p >= pages.length || pages[p] == null)
+				allocate(p)[offset] = content;
+			else
+				writable(p)[offset] = content;
+			hash += cellHash(index, content) - cellHash(index, old);
+		}
+		if (index >= size)
+			size = index + 1;
+	}
+
+	/**
+	 * Returns a snapshot of this memory: a memory with the same content, which
+	 * evolves independently from this one. It takes constant time, since pages
+	 * are copied only when they are written.
+	 *
+	 * @return the snapshot.
+	 */
+	public PagedMainMemory snapshot() {
+		loadAll();
+		return new PagedMainMemory(this);
+	}
+
+	/**
+	 * Sets the content of this memory to the content of {@code snapshot}, in
+	 * constant time. The two memories then evolve independently.
+	 *
+	 * @param snapshot the memory to restore.
+	 * @throws NullPointerException if snapshot is null.
+	 */
+	public void restore(PagedMainMemory snapshot) {
+		if (snapshot == this)
+			return;
+		snapshot.loadAll();
+		source = null;
+		pending = null;
+		pages = snapshot.pages;
+		owned = snapshot.owned;
+		size = snapshot.size;
+		hash = snapshot.hash;
+		shared = snapshot.shared = true;
+		assert repOk();
+	}
+
+	/**
+	 * Returns a 64-bit hash of the content of this memory, kept up to date at
+	 * every write. Memories which are equal have the same fingerprint.
+	 *
+	 * @return the fingerprint.
+	 */
+	public long fingerprint() {
+		loadAll();
+		return hash;
+	}
+
+	/**
+	 * Returns the index of the first cell after the highest one ever written, or
+	 * loaded with the program.
+	 *
+	 * @return the size.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the page directory of this memory, so that execution engines can
+	 * read cells without going through {@link #getWord(int)}. The directory and
+	 * its pages are replaced when they grow or are copied on write, so the
+	 * directory must be fetched again after every write.
+	 *
+	 * @return the page directory; absent pages, and pages not loaded yet from
+	 *         the source, are null.
+	 */
+	long[][] pages() {
+		return pages;
+	}
+
+	/**
+	 * Loads the page of index {@code p} from the source, if it's still pending.
+	 *
+	 * @param p the page index.
+	 * @return true if the page was loaded; false if it wasn't pending.
+	 * @throws IllegalArgumentException if the source can't load the page.
+	 */
+	private boolean fetch(int p) {
+		if (p >= pending.length || !pending[p])
+			return false;
+		long[] page = new long[PAGE_SIZE];
+		source.load(p, page);
+		pages[p] = page;
+		owned[p] = true;
+		pending[p] = false;
+		for (int i = 0; i < PAGE_SIZE; i++)
+			hash += cellHash((p << PAGE_BITS) + i, page[i]);
+		return true;
+	}
+
+	/**
+	 * Loads every page still pending from the source.
+	 *
+	 * @throws IllegalArgumentException if the source can't load a page.
+	 */
+	private void loadAll() {
+		if (source == null)
+			return;
+		for (int p = 0; p < pending.length; p++)
+			fetch(p);
+		source = null;
+		pending = null;
+		assert repOk();
+	}
+
+	/**
+	 * Makes the page directory of this memory its own. Its pages stay shared
+	 * until they are written.
+	 */
+	private void unshare() {
+		pages = pages.clone();
+		owned = new boolean[pages.length];
+		shared = false;
+	}
+
+	/**
+	 * Returns the existing page of index {@code p}, copying it first if it's
+	 * shared with another memory.
+	 *
+	 * @param p the page index.
+	 * @return the page.
+	 */
+	private long[] writable(int p) {
+		if (shared)
+			unshare();
+		if (!owned[p]) {
+			pages[p] = pages[p].clone();
+			owned[p] = true;
+		}
+		return pages[p];
+	}
+
+	/**
+	 * Allocates the page of index {@code p}, growing the page directory if needed.
+	 *
+	 * @param p the page index.
+	 * @return the new page.
+	 */
+	private long[] allocate(int p) {
+		if (shared)
+			unshare();
+		if (p >= pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(p + 1, 2 * pages.length));
+			owned = Arrays.copyOf(owned, pages.length);
+		}
+		pages[p] = new long[PAGE_SIZE];
+		owned[p] = true;
+		return pages[p];
+	}
+
+	/**
+	 * Returns the index of the last non-zero cell of this memory, or -1 if every
+	 * cell is zero.
+	 *
+	 * @return the index.
+	 */
+	private int lastNonZero() {
+		for (int i = size - 1; i >= 0; i--)
+			if (getWord(i) != 0)
+				return i;
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder("Memory : [");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				res.append(",");
+			res.append(getWord(i));
+		}
+		return res.append("]").toString();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof PagedMainMemory))
+			return false;
+		PagedMainMemory other = (PagedMainMemory) obj;
+		loadAll();
+		other.loadAll();
+		if (hash != other.hash)
+			return false;
+		if (pages == other.pages)
+			return true;
+		int last = lastNonZero();
+		if (last != other.lastNonZero())
+			return false;
+		for (int i = 0; i <= last; i++)
+			if (getWord(i) != other.getWord(i))
+				return false;
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(fingerprint());
+	}
+
+}
@@ -0,0 +1,325 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link MachineObserver} which profiles the execution of an IntCode machine:
+ * how many instructions of each OPcode it executes, how many times the
+ * instruction at each address is executed, how often each conditional branch
+ * is taken, how many times each memory cell is read and written, and how many
+ * instructions per second it executes while running. The counts accumulate
+ * over every run of the observed machines, and can be exported as CSV or as
+ * folded stacks for flame graph tools. They are kept in pages allocated
+ * lazily, so that far addresses don't cost memory for the ones before.
+ */
+public class Profiler implements MachineObserver {
+	private final long[] opcodes = new long[100];
+	private final Counts hits = new Counts();
+	private final Counts lastOpcodes = new Counts();
+	private final Counts taken = new Counts();
+	private final Counts notTaken = new Counts();
+	private final Counts reads = new Counts();
+	private final Counts writes = new Counts();
+	private long instructions;
+
+	// time spent running, and start of the current run (0 if not running)
+	private long nanos;
+	private long start;
+
+	/*
+	 * Abstraction Function: AF(opcodes, hits, taken, notTaken, reads, writes,
+	 * instructions, nanos) = profile where opcodes[o] instructions of OPcode o
+	 * were executed, address i was executed hits.get(i) times, the branch at i
+	 * jumped taken.get(i) times and fell through notTaken.get(i) times, cell i
+	 * was read reads.get(i) and written writes.get(i) times, instructions
+	 * instructions were executed in total, in nanos nanoseconds of running;
+	 * lastOpcodes.get(i) is the OPcode of the last instruction executed at i.
+	 *
+	 * Representation Invariant: no array or Counts is null; opcodes has length
+	 * 100; lastOpcodes has a page wherever hits has one; no count is negative;
+	 * instructions is the sum of opcodes.
+	 */
+
+	/**
+	 * Sparse array of counts indexed by address, in pages allocated the first
+	 * time one of their counts changes, like the cells of a
+	 * {@link PagedMainMemory}: a few far addresses take a few pages.
+	 */
+	private static final class Counts {
+		// the count of address i is pages[i >>> PAGE_BITS][i & OFFSET_MASK], if
+		// that page exists; 0 otherwise
+		private long[][] pages = new long[0][];
+
+		/**
+		 * Returns the page of {@code index}, allocating it if needed.
+		 *
+		 * @param index the index.
+		 * @return the page.
+		 */
+		private long[] page(long index) {
+			int p = (int) (index >>> PagedMainMemory.PAGE_BITS);
+			if (p >= pages.length)
+				pages = Arrays.copyOf(pages, Math.max(p + 1, 2 * pages.length));
+			if (pages[p] == null)
+				pages[p] = new long[PagedMainMemory.PAGE_SIZE];
+			return pages[p];
+		}
+
+		/** Increments the count of {@code index}. */
+		void increment(long index) {
+			page(index)[(int) index & PagedMainMemory.OFFSET_MASK]++;
+		}
+
+		/** Sets the count of {@code index} to {@code value}. */
+		void set(long index, long value) {
+			page(index)[(int) index & PagedMainMemory.OFFSET_MASK] = value;
+		}
+
+		/**
+		 * Returns the count of {@code index}.
+		 *
+		 * @param index the index.
+		 * @return the count.
+		 * @throws IndexOutOfBoundsException if index is negative.
+		 */
+		long get(int index) {
+			if (index < 0)
+				throw new IndexOutOfBoundsException("negative address " + index);
+			int p = index >>> PagedMainMemory.PAGE_BITS;
+			if (p >= pages.length || pages[p] == null)
+				return 0;
+			return pages[p][index & PagedMainMemory.OFFSET_MASK];
+		}
+
+		/**
+		 * Returns the first index after {@code index} with a non-zero count.
+		 *
+		 * @param index the index, or -1 to find the first one.
+		 * @return the next index, or -1 if there is none.
+		 */
+		int next(int index) {
+			for (int i = index + 1; (i >>> PagedMainMemory.PAGE_BITS) < pages.length;) {
+				long[] page = pages[i >>> PagedMainMemory.PAGE_BITS];
+				if (page == null) {
+					i = ((i >>> PagedMainMemory.PAGE_BITS) + 1) << PagedMainMemory.PAGE_BITS;
+					continue;
+				}
+				if (page[i & PagedMainMemory.OFFSET_MASK] != 0)
+					return i;
+				i++;
+			}
+			return -1;
+		}
+
+	}
+
+	@Override
+	public void started() {
+		start = System.nanoTime();
+	}
+
+	@Override
+	public void stopped() {
+		nanos += System.nanoTime() - start;
+		start = 0;
+	}
+
+	@Override
+	public void instruction(long ip, int opcode) {
+		opcodes[opcode]++;
+		hits.increment(ip);
+		lastOpcodes.set(ip, opcode);
+		instructions++;
+	}
+
+	@Override
+	public void branch(long ip, boolean jumped) {
+		if (jumped)
+			taken.increment(ip);
+		else
+			notTaken.increment(ip);
+	}
+
+	@Override
+	public void read(int address) {
+		reads.increment(address);
+	}
+
+	@Override
+	public void write(int address, long content) {
+		writes.increment(address);
+	}
+
+	/**
+	 * Returns the number of instructions executed.
+	 *
+	 * @return the number of instructions.
+	 */
+	public long instructions() {
+		return instructions;
+	}
+
+	/**
+	 * Returns the number of instructions of OPcode {@code opcode} executed.
+	 *
+	 * @param opcode the OPcode.
+	 * @return the number of instructions.
+	 * @throws IndexOutOfBoundsException if opcode is not in [0, 100).
+	 */
+	public long opcodeCount(int opcode) {
+		return opcodes[opcode];
+	}
+
+	/**
+	 * Returns the number of times the instruction at {@code ip} was executed.
+	 *
+	 * @param ip the address.
+	 * @return the number of hits.
+	 * @throws IndexOutOfBoundsException if ip is negative.
+	 */
+	public long hits(int ip) {
+		return hits.get(ip);
+	}
+
+	/**
+	 * Returns the number of times the branch at {@code ip} jumped.
+	 *
+	 * @param ip the address of the branch.
+	 * @return the number of jumps.
+	 * @throws IndexOutOfBoundsException if ip is negative.
+	 */
+	public long taken(int ip) {
+		return taken.get(ip);
+	}
+
+	/**
+	 * Returns the number of times the branch at {@code ip} fell through.
+	 *
+	 * @param ip the address of the branch.
+	 * @return the number of fall throughs.
+	 * @throws IndexOutOfBoundsException if ip is negative.
+	 */
+	public long notTaken(int ip) {
+		return notTaken.get(ip);
+	}
+
+	/**
+	 * Returns the number of times the cell at {@code address} was read as data.
+	 *
+	 * @param address the address.
+	 * @return the number of reads.
+	 * @throws IndexOutOfBoundsException if address is negative.
+	 */
+	public long reads(int address) {
+		return reads.get(address);
+	}
+
+	/**
+	 * Returns the number of times the cell at {@code address} was written.
+	 *
+	 * @param address the address.
+	 * @return the number of writes.
+	 * @throws IndexOutOfBoundsException if address is negative.
+	 */
+	public long writes(int address) {
+		return writes.get(address);
+	}
+
+	/**
+	 * Returns the time spent running, in seconds.
+	 *
+	 * @return the time.
+	 */
+	public double seconds() {
+		return (start == 0 ? nanos : nanos + System.nanoTime() - start) / 1e9;
+	}
+
+	/**
+	 * Returns the instructions executed per second of running.
+	 *
+	 * @return the instructions per second, or 0 if no time was measured.
+	 */
+	public double instructionsPerSecond() {
+		double s = seconds();
+		return s == 0 ? 0 : instructions / s;
+	}
+
+	/**
+	 * Returns the mnemonic of an OPcode, as in {@link IntCodeVM.Instructions}.
+	 *
+	 * @param opcode the OPcode.
+	 * @return the mnemonic.
+	 */
+	private static String mnemonic(int opcode) {
+		switch (opcode) {
+			case IntCodeVM.Instructions.ADD:
+				return "ADD";
+			case IntCodeVM.Instructions.MUL:
+				return "MUL";
+			case IntCodeVM.Instructions.INP:
+				return "INP";
+			case IntCodeVM.Instructions.OUT:
+				return "OUT";
+			case IntCodeVM.Instructions.BNE:
+				return "BNE";
+			case IntCodeVM.Instructions.BEQ:
+				return "BEQ";
+			case IntCodeVM.Instructions.SLT:
+				return "SLT";
+			case IntCodeVM.Instructions.SEQ:
+				return "SEQ";
+			case IntCodeVM.Instructions.UPD:
+				return "UPD";
+			case IntCodeVM.Instructions.HAL:
+				return "HAL";
+			default:
+				return "OP" + opcode;
+		}
+	}
+
+	/**
+	 * Appends one CSV row per non-zero count to {@code out}, under the header
+	 * {@code metric,key,value}: the metrics are {@code opcode} (keyed by
+	 * mnemonic), {@code ip}, {@code taken}, {@code not_taken}, {@code read} and
+	 * {@code write} (keyed by address), followed by the totals
+	 * {@code instructions}, {@code seconds} and {@code ips}.
+	 *
+	 * @param out where to write the report.
+	 * @throws IOException if out throws it.
+	 */
+	public void writeCsv(Appendable out) throws IOException {
+		out.append("metric,key,value\n");
+		for (int op = 0; op < opcodes.length; op++)
+			if (opcodes[op] != 0)
+				out.append("opcode,").append(mnemonic(op)).append(',').append(Long.toString(opcodes[op])).append('\n');
+		writeCsv(out, "ip", hits);
+		writeCsv(out, "taken", taken);
+		writeCsv(out, "not_taken", notTaken);
+		writeCsv(out, "read", reads);
+		writeCsv(out, "write", writes);
+		out.append("instructions,,").append(Long.toString(instructions)).append('\n');
+		out.append("seconds,,").append(Double.toString(seconds())).append('\n');
+		out.append("ips,,").append(Double.toString(instructionsPerSecond())).append('\n');
+	}
+
+	private static void writeCsv(Appendable out, String metric, Counts counts) throws IOException {
+		for (int i = counts.next(-1); i >= 0; i = counts.next(i))
+			out.append(metric).append(',').append(Integer.toString(i)).append(',')
+					.append(Long.toString(counts.get(i))).append('\n');
+	}
+
+	/**
+	 * Appends the instruction hits to {@code out} as folded stacks, one line
+	 * {@code intcode;MNEMONIC;@address count} per executed address, the input
+	 * format of flamegraph.pl and compatible tools. The mnemonic is the one of
+	 * the last instruction executed at that address.
+	 *
+	 * @param out where to write the report.
+	 * @throws IOException if out throws it.
+	 */
+	public void writeFlamegraph(Appendable out) throws IOException {
+		for (int ip = hits.next(-1); ip >= 0; ip = hits.next(ip))
+			out.append("intcode;").append(mnemonic((int) lastOpcodes.get(ip))).append(";@")
+					.append(Integer.toString(ip)).append(' ').append(Long.toString(hits.get(ip))).append('\n');
+	}
+
+}
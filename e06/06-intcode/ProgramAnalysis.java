@@ -0,0 +1,320 @@
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+
+/**
+ * Static analysis of an IntCode program. Starting from IP 0, it follows every
+ * fall through and every branch whose target is an immediate, to find the
+ * instructions reachable from the start, the cells they occupy (code) and the
+ * ones they don't (data). Since write parameters are always addresses, it also
+ * finds every cell the reachable instructions can write. Branches whose target
+ * is read from memory can't be followed: then reachable code may be missing,
+ * and {@link #hasIndirectJumps()} is true.
+ * <p>
+ * On top of that, it finds the pairs of adjacent instructions which an
+ * {@link IntCodeVM} can execute as a single superinstruction: an arithmetic
+ * or comparison instruction followed by a branch on its result, and an
+ * immediate update of the Relative Base Pointer followed by an instruction
+ * which reads relative to it. Pairs whose cells can be written by the program
+ * are never fused. ProgramAnalyses are immutable.
+ */
+public class ProgramAnalysis {
+	/** No superinstruction starts at an address. */
+	static final int NONE = 0;
+	/** ADD, MUL, SLT or SEQ followed by BNE or BEQ on the cell just written. */
+	static final int ARITHMETIC_BRANCH = 1;
+	/** Immediate UPD followed by an instruction with a relative operand. */
+	static final int RBP_LOAD = 2;
+
+	private final long[] image;
+	private final BitSet starts;
+	private final BitSet code;
+	private final BitSet written;
+	private final boolean indirectJumps;
+
+	/*
+	 * Abstraction Function: AF(image, starts, code, written, indirectJumps) =
+	 * analysis of the program image, whose instructions reachable from 0 start at
+	 * the addresses in starts and occupy the cells in code, which can write the
+	 * cells in written, and which has a branch of unknown target if
+	 * indirectJumps.
+	 *
+	 * Representation Invariant: image, starts, code and written are not null;
+	 * starts is a subset of code.
+	 */
+
+	/**
+	 * Analyzes the program {@code image}. Cells beyond the end of image are
+	 * considered 0, as in a machine's memory.
+	 *
+	 * @param image the program.
+	 * @throws NullPointerException if image is null.
+	 */
+	public ProgramAnalysis(long[] image) {
+		this.image = image.clone();
+		starts = new BitSet();
+		code = new BitSet();
+		written = new BitSet();
+		boolean indirect = false;
+		Deque<Integer> work = new ArrayDeque<>();
+		work.push(0);
+		while (!work.isEmpty()) {
+			int ip = work.pop();
+			int sz = size(word(ip));
+			if (starts.get(ip) || sz == 0)
+				continue;
+			starts.set(ip);
+			code.set(ip, ip + sz);
+			int op = opcode(word(ip));
+			if (op == IntCodeVM.Instructions.INP || sz == 4)
+				if (word(ip + sz - 1) >= 0 && word(ip + sz - 1) <= Integer.MAX_VALUE)
+					written.set((int) word(ip + sz - 1));
+			if (op == IntCodeVM.Instructions.HAL)
+				continue;
+			boolean fallThrough = true;
+			if (op == IntCodeVM.Instructions.BNE || op == IntCodeVM.Instructions.BEQ) {
+				if (mode(word(ip), 0) == 1 && (word(ip + 1) != 0) == (op == IntCodeVM.Instructions.BNE))
+					fallThrough = false;
+				if (mode(word(ip), 1) != 1)
+					indirect = true;
+				else if (word(ip + 2) >= 0 && word(ip + 2) <= Integer.MAX_VALUE)
+					work.push((int) word(ip + 2));
+			}
+			if (fallThrough)
+				work.push(ip + sz);
+		}
+		indirectJumps = indirect;
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		if (image == null || starts == null || code == null || written == null)
+			return false;
+		BitSet outside = (BitSet) starts.clone();
+		outside.andNot(code);
+		return outside.isEmpty();
+	}
+
+	/**
+	 * Returns the word at {@code address} of the program.
+	 *
+	 * @param address the address.
+	 * @return the word, or 0 beyond the end of the program.
+	 */
+	private long word(int address) {
+		return address >= 0 && address < image.length ? image[address] : 0;
+	}
+
+	private static int opcode(long rawOP) {
+		return (int) (rawOP % 100);
+	}
+
+	private static int mode(long rawOP, int n) {
+		long modes = rawOP / 100 % 1000;
+		for (int i = 0; i < n; i++)
+			modes /= 10;
+		return (int) (modes % 10);
+	}
+
+	/**
+	 * Returns the number of cells of the instruction starting with {@code rawOP}.
+	 *
+	 * @param rawOP the first word of the instruction.
+	 * @return the size, or 0 if the OPcode is not valid.
+	 */
+	private static int size(long rawOP) {
+		switch (opcode(rawOP)) {
+			case IntCodeVM.Instructions.ADD:
+			case IntCodeVM.Instructions.MUL:
+			case IntCodeVM.Instructions.SLT:
+			case IntCodeVM.Instructions.SEQ:
+				return 4;
+			case IntCodeVM.Instructions.BNE:
+			case IntCodeVM.Instructions.BEQ:
+				return 3;
+			case IntCodeVM.Instructions.INP:
+			case IntCodeVM.Instructions.OUT:
+			case IntCodeVM.Instructions.UPD:
+				return 2;
+			case IntCodeVM.Instructions.HAL:
+				return 1;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Returns true if an instruction reachable from IP 0 starts at
+	 * {@code address}.
+	 *
+	 * @param address the address.
+	 * @return true if address is reachable; false otherwise.
+	 */
+	public boolean isReachable(int address) {
+		return address >= 0 && starts.get(address);
+	}
+
+	/**
+	 * Returns true if the cell at {@code address} is part of an instruction
+	 * reachable from IP 0.
+	 *
+	 * @param address the address.
+	 * @return true if the cell is code; false otherwise.
+	 */
+	public boolean isCode(int address) {
+		return address >= 0 && code.get(address);
+	}
+
+	/**
+	 * Returns true if the cell at {@code address} is part of the program, but not
+	 * of an instruction reachable from IP 0.
+	 *
+	 * @param address the address.
+	 * @return true if the cell is data; false otherwise.
+	 */
+	public boolean isData(int address) {
+		return address >= 0 && address < image.length && !code.get(address);
+	}
+
+	/**
+	 * Returns true if an instruction reachable from IP 0 can write the cell at
+	 * {@code address}.
+	 *
+	 * @param address the address.
+	 * @return true if the cell can be written; false otherwise.
+	 */
+	public boolean isWritten(int address) {
+		return address >= 0 && written.get(address);
+	}
+
+	/**
+	 * Returns true if the program has a reachable branch whose target is read
+	 * from memory, so that some reachable code may not have been found.
+	 *
+	 * @return true if there are indirect jumps; false otherwise.
+	 */
+	public boolean hasIndirectJumps() {
+		return indirectJumps;
+	}
+
+	/**
+	 * Returns the number of cells of the program.
+	 *
+	 * @return the size.
+	 */
+	public int size() {
+		return image.length;
+	}
+
+	/**
+	 * Returns true if the reads of the first {@code n} parameters of the
+	 * instruction at {@code ip} are valid and, in position mode, address
+	 * existing cells.
+	 */
+	private boolean validReads(int ip, int n) {
+		for (int i = 0; i < n; i++) {
+			int m = mode(word(ip), i);
+			if (m > 2 || m == 0 && (word(ip + 1 + i) < 0 || word(ip + 1 + i) > Integer.MAX_VALUE))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the kind of the superinstruction starting at {@code ip}:
+	 * {@link #ARITHMETIC_BRANCH}, {@link #RBP_LOAD} or {@link #NONE}.
+	 *
+	 * @param ip the address.
+	 * @return the kind.
+	 */
+	int superinstruction(int ip) {
+		if (!isReachable(ip))
+			return NONE;
+		long first = word(ip);
+		int next = ip + size(first);
+		long second = word(next);
+		int end = next + size(second);
+		int nextWrite = written.nextSetBit(ip);
+		if (size(second) == 0 || nextWrite >= 0 && nextWrite < end)
+			return NONE;
+		int op1 = opcode(first), op2 = opcode(second);
+		switch (op1) {
+			case IntCodeVM.Instructions.ADD:
+			case IntCodeVM.Instructions.MUL:
+			case IntCodeVM.Instructions.SLT:
+			case IntCodeVM.Instructions.SEQ:
+				long dst = word(ip + 3);
+				if ((op2 == IntCodeVM.Instructions.BNE || op2 == IntCodeVM.Instructions.BEQ) && mode(first, 0) < 2
+						&& mode(first, 1) < 2 && validReads(ip, 2) && dst >= 0 && dst <= Integer.MAX_VALUE
+						&& mode(second, 0) == 0 && word(next + 1) == dst && validReads(next, 2))
+					return ARITHMETIC_BRANCH;
+				return NONE;
+			case IntCodeVM.Instructions.UPD:
+				if (mode(first, 0) != 1)
+					return NONE;
+				int reads;
+				switch (op2) {
+					case IntCodeVM.Instructions.OUT:
+						reads = 1;
+						break;
+					case IntCodeVM.Instructions.BNE:
+					case IntCodeVM.Instructions.BEQ:
+					case IntCodeVM.Instructions.ADD:
+					case IntCodeVM.Instructions.MUL:
+					case IntCodeVM.Instructions.SLT:
+					case IntCodeVM.Instructions.SEQ:
+						reads = 2;
+						break;
+					default:
+						return NONE;
+				}
+				for (int i = 0; i < reads; i++)
+					if (mode(second, i) == 2)
+						return validReads(next, reads) ? RBP_LOAD : NONE;
+				return NONE;
+			default:
+				return NONE;
+		}
+	}
+
+	/**
+	 * Returns the number of cells of the superinstruction starting at {@code ip}.
+	 *
+	 * @param ip the address of a superinstruction.
+	 * @return the size.
+	 */
+	int superinstructionSize(int ip) {
+		int next = ip + size(word(ip));
+		return next - ip + size(word(next));
+	}
+
+	/**
+	 * Returns true if the cells from {@code from} (included) to {@code to}
+	 * (excluded) of {@code memory} contain the same words as the program.
+	 *
+	 * @param memory the memory.
+	 * @param from   the first address.
+	 * @param to     the address after the last one.
+	 * @return true if the cells match; false otherwise.
+	 */
+	boolean matches(MainMemory memory, int from, int to) {
+		for (int i = from; i < to; i++)
+			if (memory.getWord(i) != word(i))
+				return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "ProgramAnalysis : " + image.length + " cells, " + code.cardinality() + " of code in "
+				+ starts.cardinality() + " instructions, " + written.cardinality() + " written"
+				+ (indirectJumps ? ", indirect jumps" : "");
+	}
+
+}
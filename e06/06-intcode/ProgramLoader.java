@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loader of IntCode programs from files, for images too large to go through a
+ * {@code List<Integer>}. The file is memory-mapped and its pages are parsed
+ * lazily, straight into the pages of a {@link PagedMainMemory}, the first time
+ * the machine accesses them. Two formats are supported:
+ * <ul>
+ * <li>text: words separated by commas, as in the arguments of {@link Test}.
+ * Whitespace around words is ignored. Loading scans the file once to find
+ * where each page starts, without parsing.</li>
+ * <li>binary: the magic bytes {@code ICB}, the width of the words in bytes (4
+ * or 8), and the words, little-endian. {@link #writeBinary(long[], Path)}
+ * writes it.</li>
+ * </ul>
+ * Malformed words, and words which don't fit 32 bits in an INT32 machine, are
+ * only detected when their page is loaded, with an
+ * {@link IllegalArgumentException}.
+ */
+public final class ProgramLoader {
+	private static final byte[] MAGIC = { 'I', 'C', 'B' };
+	private static final int HEADER_SIZE = MAGIC.length + 1;
+
+	private ProgramLoader() {
+	}
+
+	/**
+	 * Constructs an IntCode VM with words of width {@code wordSize} ready to
+	 * execute the program in {@code file}, in text or binary format.
+	 *
+	 * @param file     the file.
+	 * @param wordSize the width of the machine words.
+	 * @return the machine.
+	 * @throws IOException              if the file can't be read.
+	 * @throws NullPointerException     if file or wordSize are null.
+	 * @throws IllegalArgumentException if the file is larger than 2 GB, or has
+	 *                                  more words than an int can count.
+	 */
+	public static IntCodeVM load(Path file, IntCodeVM.WordSize wordSize) throws IOException {
+		if (wordSize == null)
+			throw new NullPointerException("the word size can't be null");
+		return new IntCodeVM(new PagedMainMemory(source(file, wordSize == IntCodeVM.WordSize.INT32)), wordSize);
+	}
+
+	/**
+	 * Returns the source of the pages of the program in {@code file}.
+	 *
+	 * @param file  the file.
+	 * @param int32 true if every word must fit 32 bits.
+	 * @return the source.
+	 * @throws IOException              if the file can't be read.
+	 * @throws IllegalArgumentException if the file is too large.
+	 */
+	private static PageSource source(Path file, boolean int32) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("can't map a program of " + ch.size() + " bytes");
+			// the mapping stays valid after the channel is closed
+			buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.limit() >= HEADER_SIZE && buffer.get(0) == MAGIC[0] && buffer.get(1) == MAGIC[1]
+				&& buffer.get(2) == MAGIC[2])
+			return new BinarySource(buffer, int32);
+		return new TextSource(buffer, int32);
+	}
+
+	/**
+	 * Checks that {@code word} fits 32 bits, if required.
+	 *
+	 * @param word    the word.
+	 * @param int32   true if the word must fit 32 bits.
+	 * @param address the address of the word.
+	 * @return the word.
+	 * @throws IllegalArgumentException if the word doesn't fit.
+	 */
+	private static long check(long word, boolean int32, long address) {
+		if (int32 && word != (int) word)
+			throw new IllegalArgumentException("the word " + word + " at " + address + " doesn't fit 32 bits");
+		return word;
+	}
+
+	/** Source of a program in binary format. */
+	private static final class BinarySource implements PageSource {
+		private final ByteBuffer buffer;
+		private final boolean int32;
+		private final int width;
+		private final int size;
+
+		BinarySource(ByteBuffer buffer, boolean int32) {
+			this.buffer = buffer;
+			this.int32 = int32;
+			width = buffer.get(MAGIC.length);
+			if (width != 4 && width != 8)
+				throw new IllegalArgumentException("invalid word width " + width);
+			if ((buffer.limit() - HEADER_SIZE) % width != 0)
+				throw new IllegalArgumentException("truncated binary program");
+			size = (buffer.limit() - HEADER_SIZE) / width;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void load(int page, long[] dest) {
+			int first = page << PagedMainMemory.PAGE_BITS;
+			int n = Math.min(PagedMainMemory.PAGE_SIZE, size - first);
+			int at = HEADER_SIZE + first * width;
+			for (int i = 0; i < n; i++, at += width)
+				dest[i] = width == 4 ? buffer.getInt(at) : check(buffer.getLong(at), int32, first + i);
+		}
+
+	}
+
+	/** Source of a program in text format. */
+	private static final class TextSource implements PageSource {
+		private final ByteBuffer buffer;
+		private final boolean int32;
+		private final int size;
+
+		// offset in buffer of the first word of each page
+		private final int[] pageStarts;
+
+		TextSource(ByteBuffer buffer, boolean int32) {
+			this.buffer = buffer;
+			this.int32 = int32;
+			int limit = buffer.limit();
+			boolean blank = true;
+			for (int i = 0; i < limit && blank; i++)
+				blank = Character.isWhitespace(buffer.get(i));
+			int words = 0;
+			int[] starts = new int[16];
+			if (!blank) {
+				words = 1;
+				for (int i = 0; i < limit; i++)
+					if (buffer.get(i) == ',') {
+						if ((words & PagedMainMemory.OFFSET_MASK) == 0) {
+							int page = words >>> PagedMainMemory.PAGE_BITS;
+							if (page >= starts.length)
+								starts = Arrays.copyOf(starts, 2 * starts.length);
+							starts[page] = i + 1;
+						}
+						if (++words < 0)
+							throw new IllegalArgumentException("too many words in the program");
+					}
+			}
+			size = words;
+			pageStarts = starts;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void load(int page, long[] dest) {
+			int first = page << PagedMainMemory.PAGE_BITS;
+			int n = Math.min(PagedMainMemory.PAGE_SIZE, size - first);
+			int at = pageStarts[page], limit = buffer.limit();
+			for (int i = 0; i < n; i++) {
+				while (at < limit && Character.isWhitespace(buffer.get(at)))
+					at++;
+				boolean negative = at < limit && buffer.get(at) == '-';
+				if (negative || at < limit && buffer.get(at) == '+')
+					at++;
+				int digits = 0;
+				long word = 0;
+				while (at < limit && buffer.get(at) >= '0' && buffer.get(at) <= '9') {
+					int d = buffer.get(at++) - '0';
+					// accumulates negatively, to reach Long.MIN_VALUE
+					if (word < (Long.MIN_VALUE + d) / 10)
+						throw new IllegalArgumentException("the word at " + (first + i) + " doesn't fit 64 bits");
+					word = word * 10 - d;
+					digits++;
+				}
+				while (at < limit && Character.isWhitespace(buffer.get(at)))
+					at++;
+				if (digits == 0 || at < limit && buffer.get(at) != ',' || at >= limit && i < n - 1)
+					throw new IllegalArgumentException("malformed word at " + (first + i));
+				if (!negative && word == Long.MIN_VALUE)
+					throw new IllegalArgumentException("the word at " + (first + i) + " doesn't fit 64 bits");
+				dest[i] = check(negative ? word : -word, int32, first + i);
+				at++; // the comma
+			}
+		}
+
+	}
+
+	/**
+	 * Writes {@code program} to {@code file} in binary format, with 4-byte words
+	 * if they all fit 32 bits, 8-byte words otherwise.
+	 *
+	 * @param program the program.
+	 * @param file    the file.
+	 * @throws IOException          if the file can't be written.
+	 * @throws NullPointerException if program or file are null.
+	 */
+	public static void writeBinary(long[] program, Path file) throws IOException {
+		int width = 4;
+		for (long word : program)
+			if (word != (int) word)
+				width = 8;
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(MAGIC).put((byte) width);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (long word : program) {
+				if (buffer.remaining() < width) {
+					buffer.flip();
+					while (buffer.hasRemaining())
+						ch.write(buffer);
+					buffer.clear();
+				}
+				if (width == 4)
+					buffer.putInt((int) word);
+				else
+					buffer.putLong(word);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+				ch.write(buffer);
+		}
+	}
+
+}
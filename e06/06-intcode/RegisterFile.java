@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+/**
+ * Implementation of {@link Memory} meant to be used as a register file: it has
+ * a fixed number of 64-bit cells kept in a primitive array, so that registers
+ * can be read and written without boxing.
+ */
+public class RegisterFile implements Memory {
+	private final long[] regs;
+
+	/*
+	 * Abstraction Function: AF(regs) = memory whose cell i contains regs[i] for
+	 * i < regs.length.
+	 *
+	 * Representation Invariant: regs is not null.
+	 */
+
+	/**
+	 * Constructs a RegisterFile of {@code n} registers, all set to zero.
+	 *
+	 * @param n the number of registers.
+	 * @throws IllegalArgumentException if n is negative.
+	 */
+	public RegisterFile(int n) {
+		if (n < 0)
+			throw new IllegalArgumentException("can't create a register file of " + n + " registers");
+		regs = new long[n];
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a RegisterFile with the same registers of {@code other}.
+	 *
+	 * @param other the register file to copy.
+	 * @throws NullPointerException if other is null.
+	 */
+	public RegisterFile(RegisterFile other) {
+		regs = other.regs.clone();
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return regs != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IndexOutOfBoundsException if index isn't the index of a register.
+	 * @throws ArithmeticException       if the register contains a word which
+	 *                                   doesn't fit an {@code Integer}.
+	 */
+	@Override
+	public Integer get(int index) {
+		return Math.toIntExact(regs[index]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IndexOutOfBoundsException if index isn't the index of a register.
+	 * @throws NullPointerException      if content is null.
+	 */
+	@Override
+	public void set(int index, Integer content) {
+		if (content == null)
+			throw new NullPointerException("can't write null in a register");
+		regs[index] = content;
+	}
+
+	@Override
+	public long getWord(int index) {
+		return regs[index];
+	}
+
+	@Override
+	public void setWord(int index, long content) {
+		regs[index] = content;
+	}
+
+	/**
+	 * Sets every register to the value it has in {@code other}.
+	 *
+	 * @param other the register file to copy.
+	 * @throws NullPointerException     if other is null.
+	 * @throws IllegalArgumentException if other has a different number of
+	 *                                  registers.
+	 */
+	public void restore(RegisterFile other) {
+		if (other.regs.length != regs.length)
+			throw new IllegalArgumentException("can't restore " + other.regs.length + " registers into " + regs.length);
+		System.arraycopy(other.regs, 0, regs, 0, regs.length);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(regs);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof RegisterFile))
+			return false;
+		return Arrays.equals(regs, ((RegisterFile) obj).regs);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(regs);
+	}
+
+}
@@ -0,0 +1,224 @@
+/**
+ * Execution engine for {@link IntCodeVM}s with an {@link InstructionSet}. Like
+ * {@link SwitchDispatchEngine} it keeps the Instruction Pointer and the
+ * Relative Base Pointer in fields and reads the memory directly from its pages,
+ * but it dispatches each instruction to the {@link InstructionSet.Handler} of
+ * its OPcode, through dense arrays resolved from the instruction set when the
+ * engine is created.
+ */
+final class RegistryDispatchEngine implements InstructionSet.Context {
+	private final IntCodeVM vm;
+	private final PagedMainMemory mem;
+	private final InstructionSet.Handler[] handlers;
+	private final int[] sizes;
+
+	// page directory of mem, fetched again after every write
+	private long[][] pages;
+
+	// registers of the machine while it runs, and address of the instruction
+	private int ip;
+	private long rbp;
+	private int current;
+
+	/*
+	 * Abstraction Function: AF(vm, mem, handlers, sizes, ip, rbp) = engine which
+	 * runs the machine vm, whose main memory is mem, executing OPcode i with
+	 * handlers[i] and moving past sizes[i] cells; while it runs, the registers of
+	 * vm are ip and rbp, and current is the address of the instruction executing.
+	 *
+	 * Representation Invariant: vm, mem, handlers and sizes are not null; mem is
+	 * the main memory of vm; handlers and sizes have length
+	 * InstructionSet.OPCODES; pages is mem.pages() since the last write or load
+	 * in mem.
+	 */
+
+	/**
+	 * Constructs an engine which runs the given machine with the instructions of
+	 * {@code instructions}, as they are now.
+	 *
+	 * @param vm           the machine.
+	 * @param instructions the instruction set.
+	 * @throws NullPointerException     if vm or instructions are null.
+	 * @throws IllegalArgumentException if the main memory of vm isn't a
+	 *                                  {@link PagedMainMemory}.
+	 */
+	RegistryDispatchEngine(IntCodeVM vm, InstructionSet instructions) {
+		if (vm == null)
+			throw new NullPointerException("can't run a null machine");
+		if (!(vm.mm instanceof PagedMainMemory))
+			throw new IllegalArgumentException("the machine's memory must be a PagedMainMemory");
+		this.vm = vm;
+		mem = (PagedMainMemory) vm.mm;
+		handlers = instructions.handlers();
+		sizes = instructions.sizes();
+		pages = mem.pages();
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	boolean repOk() {
+		return vm != null && mem != null && vm.mm == mem && handlers != null && sizes != null
+				&& handlers.length == InstructionSet.OPCODES && sizes.length == InstructionSet.OPCODES
+				&& pages == mem.pages();
+	}
+
+	@Override
+	public long fetch(int index) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("negative memory address " + index);
+		int p = index >>> PagedMainMemory.PAGE_BITS;
+		if (p >= pages.length || pages[p] == null) {
+			// absent pages may be still to load
+			long res = mem.getWord(index);
+			pages = mem.pages();
+			return res;
+		}
+		return pages[p][index & PagedMainMemory.OFFSET_MASK];
+	}
+
+	@Override
+	public long load(int index) {
+		if (vm.memoryObserver != null)
+			vm.memoryObserver.read(index);
+		return fetch(index);
+	}
+
+	@Override
+	public void store(int index, long content) {
+		content = vm.word(content);
+		if (vm.memoryObserver != null)
+			vm.memoryObserver.write(index, content);
+		mem.setWord(index, content);
+		pages = mem.pages();
+	}
+
+	@Override
+	public long arg(long par, int mode) {
+		switch (mode) {
+			case 0:
+				return load(IntCodeVM.address(par));
+			case 1:
+				return par;
+			case 2:
+				return load(IntCodeVM.address(rbp + par));
+			default:
+				throw new IllegalArgumentException("Invalid access mode for par " + par + ": " + mode);
+		}
+	}
+
+	@Override
+	public long rbp() {
+		return rbp;
+	}
+
+	@Override
+	public void setRbp(long value) {
+		rbp = vm.word(value);
+	}
+
+	@Override
+	public void jump(long target) {
+		ip = IntCodeVM.address(target);
+	}
+
+	@Override
+	public void branched(int ip, boolean jumped) {
+		if (vm.observer != null)
+			vm.observer.branch(ip, jumped);
+	}
+
+	@Override
+	public boolean canRead() {
+		return vm.canRead();
+	}
+
+	@Override
+	public long readInput() {
+		return vm.readInput(current);
+	}
+
+	@Override
+	public boolean canWrite() {
+		return vm.canWrite();
+	}
+
+	@Override
+	public void writeOutput(long value) {
+		vm.writeOutput(current, value);
+	}
+
+	@Override
+	public void suspend() {
+		ip = current;
+		vm.suspend();
+	}
+
+	@Override
+	public void halt() {
+		vm.halt();
+	}
+
+	/**
+	 * Runs the machine until a handler stops it. The registers of the machine are
+	 * updated when the loop ends, even if it ends with an exception.
+	 *
+	 * @throws IllegalArgumentException if an invalid OPcode or access mode is
+	 *                                  met.
+	 */
+	void run() {
+		run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs the machine like {@link #run()}, but pauses it after
+	 * {@code maxCycles} instructions if no handler stopped it before.
+	 *
+	 * @param maxCycles the maximum number of instructions to execute.
+	 * @return the number of instructions executed; the one which suspended the
+	 *         machine, if any, isn't counted.
+	 * @throws IllegalArgumentException if an invalid OPcode or access mode is
+	 *                                  met.
+	 */
+	long run(long maxCycles) {
+		ip = (int) vm.reg.getWord(IntCodeVM.IP);
+		rbp = vm.reg.getWord(IntCodeVM.RBP);
+		long executed = 0;
+		try {
+			for (; vm.isRunning; executed++) {
+				if (executed == maxCycles) {
+					vm.pause();
+					return executed;
+				}
+				current = ip;
+				long rawOP = fetch(ip);
+				int op, modes;
+				// OPcodes fit an int, and int division is cheaper
+				if (rawOP == (int) rawOP) {
+					op = (int) rawOP % 100;
+					modes = (int) rawOP / 100;
+				} else {
+					op = (int) (rawOP % 100);
+					modes = (int) (rawOP / 100 % 1_000_000_000);
+				}
+				InstructionSet.Handler h = op >= 0 ? handlers[op] : null;
+				if (h == null)
+					throw new IllegalArgumentException("Invalid instruction of OP code " + rawOP % 100);
+				ip += sizes[op];
+				h.execute(this, current, modes);
+				if (vm.instructionObserver != null && !vm.isWaiting())
+					vm.instructionObserver.instruction(current, op);
+			}
+			return vm.isWaiting() ? executed - 1 : executed;
+		} finally {
+			vm.reg.setWord(IntCodeVM.IP, ip);
+			vm.reg.setWord(IntCodeVM.RBP, rbp);
+			vm.discardDecoded();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+/**
+ * Bounded FIFO buffer of words, which can be used both as the
+ * {@link OutputPort} of a machine and the {@link InputPort} of another one, to
+ * connect them without going through standard input and output. RingBuffers
+ * are mutable and can be shared between threads.
+ */
+public class RingBuffer implements InputPort, OutputPort {
+	private final long[] data;
+
+	// index of the oldest word and number of words
+	private int head;
+	private int size;
+
+	/*
+	 * Abstraction Function: AF(data, head, size) = queue of the words
+	 * data[(head + i) % data.length] for 0 <= i < size, oldest first.
+	 *
+	 * Representation Invariant: data is not null or empty; 0 <= head <
+	 * data.length; 0 <= size <= data.length.
+	 */
+
+	/**
+	 * Constructs an empty RingBuffer which can hold at most {@code capacity}
+	 * words.
+	 * 
+	 * @param capacity the capacity.
+	 * @throws IllegalArgumentException if capacity is not positive.
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("the capacity of a buffer must be positive");
+		data = new long[capacity];
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 * 
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public synchronized boolean repOk() {
+		return data != null && data.length > 0 && head >= 0 && head < data.length && size >= 0
+				&& size <= data.length;
+	}
+
+	/**
+	 * Returns the number of words in this buffer.
+	 * 
+	 * @return the number of words.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public synchronized boolean isFull() {
+		return size == data.length;
+	}
+
+	@Override
+	public synchronized long read() {
+		if (size == 0)
+			throw new IllegalStateException("can't read from an empty buffer");
+		long res = data[head];
+		head = (head + 1) % data.length;
+		size--;
+		return res;
+	}
+
+	@Override
+	public synchronized void write(long value) {
+		if (size == data.length)
+			throw new IllegalStateException("can't write to a full buffer");
+		data[(head + size) % data.length] = value;
+		size++;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long[] words = new long[size];
+		for (int i = 0; i < size; i++)
+			words[i] = data[(head + i) % data.length];
+		return Arrays.toString(words);
+	}
+
+}
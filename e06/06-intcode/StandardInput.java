@@ -0,0 +1,45 @@
+import java.io.InputStream;
+import java.util.Scanner;
+
+/**
+ * {@link InputPort} reading whitespace separated words from standard input.
+ * Every StandardInput shares the same {@link Scanner}, which is never closed,
+ * so that machines don't steal each other's buffered input and standard input
+ * stays open. This port is never empty: reading blocks until a word is
+ * available.
+ */
+public class StandardInput implements InputPort {
+	// scanner shared by every StandardInput, and the stream it scans
+	private static Scanner scanner;
+	private static InputStream source;
+
+	/**
+	 * Returns the scanner of the current standard input, creating it if standard
+	 * input was replaced since the last read.
+	 * 
+	 * @return the scanner.
+	 */
+	private static synchronized Scanner scanner() {
+		if (scanner == null || source != System.in) {
+			source = System.in;
+			scanner = new Scanner(source);
+		}
+		return scanner;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+
+	@Override
+	public long read() {
+		Scanner sc = scanner();
+		synchronized (StandardInput.class) {
+			if (!sc.hasNextLong())
+				throw new IllegalStateException("Can't parse integer from standard input.");
+			return sc.nextLong();
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+/**
+ * {@link OutputPort} writing words to standard output, one per line. Words are
+ * buffered and written all together when the port is flushed, or when the
+ * buffer grows beyond a few kilobytes, instead of with a call per word. This
+ * port is never full.
+ */
+public class StandardOutput implements OutputPort {
+	// number of buffered characters which triggers a flush
+	private static final int FLUSH_THRESHOLD = 8192;
+
+	private final StringBuilder buffer = new StringBuilder();
+
+	@Override
+	public boolean isFull() {
+		return false;
+	}
+
+	@Override
+	public void write(long value) {
+		buffer.append(value).append(System.lineSeparator());
+		if (buffer.length() >= FLUSH_THRESHOLD)
+			flush();
+	}
+
+	@Override
+	public void flush() {
+		if (buffer.length() == 0)
+			return;
+		System.out.print(buffer);
+		System.out.flush();
+		buffer.setLength(0);
+	}
+
+}
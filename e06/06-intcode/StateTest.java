@@ -0,0 +1,282 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * Test of the operations which save, load and restore the state of an
+ * {@link IntCodeVM}: {@link IntCodeVM#fork()} and
+ * {@link IntCodeVM#restore(IntCodeVM)}, {@link Checkpoint}, the traces of
+ * {@link TraceRecorder} and {@link TraceReplayer}, and the text and binary
+ * formats of {@link ProgramLoader}. Reads programs from standard input, one
+ * per line in the same format of the arguments of {@link Test}, and runs each
+ * of them with {@link IntCodeVM#runFast(long)} for at most {@value #BUDGET}
+ * cycles, reading {@code args[0]} (0 if absent) whenever it reads, as the
+ * reference. Then it runs it again, stopping halfway to save its state, and
+ * checks that both the saved and the restored run, and the one resumed from a
+ * checkpoint, end like the reference: same final machine, output and
+ * exception. It also checks that the trace of a run which halts is replayed
+ * like the reference, and that the program loaded from files runs like the
+ * reference. Prints every program for which a check fails.
+ */
+public class StateTest {
+	private static final long BUDGET = 10_000_000;
+
+	/** Output port which is never full, and keeps the words written to it. */
+	private static class Words implements OutputPort {
+		private long[] words = new long[16];
+		private int count;
+
+		@Override
+		public boolean isFull() {
+			return false;
+		}
+
+		@Override
+		public void write(long value) {
+			if (count == words.length)
+				words = Arrays.copyOf(words, 2 * count);
+			words[count++] = value;
+		}
+
+		/** Returns a port with a copy of the words written so far. */
+		private Words copy() {
+			Words res = new Words();
+			res.words = Arrays.copyOf(words, words.length);
+			res.count = count;
+			return res;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(Arrays.copyOf(words, count));
+		}
+
+	}
+
+	/**
+	 * Runs {@code vm} for at most {@code budget} cycles, reading {@code input}
+	 * and writing to {@code output}.
+	 *
+	 * @param vm     the machine.
+	 * @param budget the maximum number of cycles.
+	 * @param input  the word read.
+	 * @param output the port written.
+	 * @return the outcome.
+	 */
+	private static TestSupport.Outcome run(IntCodeVM vm, long budget, long input, Words output) {
+		TestSupport.Outcome res = new TestSupport.Outcome();
+		res.vm = vm;
+		vm.setInput(new TestSupport.Constant(input));
+		vm.setOutput(output);
+		try {
+			res.cycles = vm.runFast(budget);
+		} catch (RuntimeException e) {
+			res.exception = e;
+		}
+		res.output = output.toString();
+		return res;
+	}
+
+	/**
+	 * Checks {@link IntCodeVM#fork()} and {@link IntCodeVM#restore(IntCodeVM)}:
+	 * a fork taken halfway is equal to the machine, and isn't changed by it; the
+	 * machine ends like the reference, both before and after restoring the fork.
+	 *
+	 * @param args      the program.
+	 * @param input     the word read.
+	 * @param reference the outcome of the reference run.
+	 * @return a description of the first failure, or null if there is none.
+	 */
+	private static String forkRestore(String[] args, long input, TestSupport.Outcome reference) {
+		long half = reference.exception == null ? reference.cycles / 2 : 0;
+		Words output = new Words();
+		IntCodeVM vm = TestSupport.machine(args);
+		run(vm, half, input, output);
+		IntCodeVM snapshot = vm.fork();
+		long fingerprint = snapshot.fingerprint();
+		Words saved = output.copy();
+		if (!snapshot.equals(vm) || fingerprint != vm.fingerprint())
+			return "fork differs from the machine";
+		TestSupport.Outcome first = run(vm, BUDGET - half, input, output);
+		if (!reference.same(first))
+			return "run differs after fork\n" + first;
+		if (snapshot.fingerprint() != fingerprint)
+			return "fork changed by the machine";
+		vm.restore(snapshot);
+		TestSupport.Outcome second = run(vm, BUDGET - half, input, saved);
+		if (!reference.same(second))
+			return "run differs after restore\n" + second;
+		return null;
+	}
+
+	/**
+	 * Checks {@link ProgramLoader}: the program written to a file in text
+	 * format, and in binary format with
+	 * {@link ProgramLoader#writeBinary(long[], Path)}, is loaded as the initial
+	 * machine and runs like the reference.
+	 *
+	 * @param args      the program.
+	 * @param input     the word read.
+	 * @param reference the outcome of the reference run.
+	 * @return a description of the first failure, or null if there is none.
+	 * @throws UncheckedIOException if the files can't be written or read.
+	 */
+	private static String loader(String[] args, long input, TestSupport.Outcome reference) {
+		IntCodeVM initial = TestSupport.machine(args);
+		Path file = null;
+		try {
+			file = Files.createTempFile("StateTest", ".ic");
+			for (String format : new String[] { "text", "binary" }) {
+				if (format.equals("text"))
+					Files.write(file, args[0].getBytes(StandardCharsets.US_ASCII));
+				else
+					ProgramLoader.writeBinary(TestSupport.program(args), file);
+				IntCodeVM vm = ProgramLoader.load(file, TestSupport.wordSize(args));
+				if (!vm.equals(initial))
+					return format + " program loaded differs\n" + vm;
+				TestSupport.Outcome res = run(vm, BUDGET, input, new Words());
+				if (!reference.same(res))
+					return format + " program loaded runs differently\n" + res;
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			try {
+				if (file != null)
+					Files.delete(file);
+			} catch (IOException e) {
+				// a temporary file left behind
+			}
+		}
+	}
+
+	/**
+	 * Checks {@link Checkpoint}: a checkpoint written halfway is read back as a
+	 * machine equal to the saved one, which ends like the reference when resumed;
+	 * the checkpoint cut short of its last byte is rejected.
+	 *
+	 * @param args      the program.
+	 * @param input     the word read.
+	 * @param reference the outcome of the reference run.
+	 * @return a description of the first failure, or null if there is none.
+	 * @throws UncheckedIOException if the checkpoint can't be written or read.
+	 */
+	private static String checkpoint(String[] args, long input, TestSupport.Outcome reference) {
+		long half = reference.exception == null ? reference.cycles / 2 : 0;
+		Words output = new Words();
+		IntCodeVM vm = TestSupport.machine(args);
+		run(vm, half, input, output);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Checkpoint.write(vm, Channels.newChannel(bytes));
+			byte[] written = bytes.toByteArray();
+			IntCodeVM resumed = Checkpoint.read(Channels.newChannel(new ByteArrayInputStream(written)));
+			if (!resumed.equals(vm))
+				return "checkpoint read differs from the machine\n" + resumed;
+			TestSupport.Outcome res = run(resumed, BUDGET - half, input, output);
+			if (!reference.same(res))
+				return "run differs after checkpoint\n" + res;
+			try {
+				Checkpoint.read(Channels.newChannel(new ByteArrayInputStream(written, 0, written.length - 1)));
+				return "truncated checkpoint read";
+			} catch (IOException | IllegalArgumentException e) {
+				// rejected, as expected
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Checks {@link TraceRecorder} and {@link TraceReplayer}: the trace of a run
+	 * which halts, replayed on the initial machine, ends with the final machine
+	 * and the output of the reference. Runs which don't halt are not checked.
+	 *
+	 * @param args      the program.
+	 * @param input     the word read.
+	 * @param reference the outcome of the reference run.
+	 * @return a description of the first failure, or null if there is none.
+	 * @throws UncheckedIOException if the trace can't be written or read.
+	 */
+	private static String trace(String[] args, long input, TestSupport.Outcome reference) {
+		if (reference.exception != null || !reference.vm.isHalted())
+			return null;
+		Path file = null;
+		try {
+			file = Files.createTempFile("StateTest", ".ict");
+			IntCodeVM vm = TestSupport.machine(args);
+			try (TraceRecorder recorder = new TraceRecorder(file)) {
+				vm.setObserver(recorder);
+				run(vm, BUDGET, input, new Words());
+			}
+			IntCodeVM replayed = TestSupport.machine(args);
+			long[] output = TraceReplayer.replay(replayed, file);
+			if (!replayed.equals(reference.vm) || !Arrays.toString(output).equals(reference.output))
+				return "replay differs\n" + replayed + "\n\tOutput : " + Arrays.toString(output);
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (IllegalStateException e) {
+			return "replay departs from the trace: " + e.getMessage();
+		} finally {
+			try {
+				if (file != null)
+					Files.delete(file);
+			} catch (IOException e) {
+				// a temporary file left behind
+			}
+		}
+	}
+
+	private static final String[] CHECKS = { "fork/restore", "checkpoint", "trace", "loader" };
+
+	private static String check(String check, String[] args, long input, TestSupport.Outcome reference) {
+		switch (check) {
+			case "fork/restore":
+				return forkRestore(args, input, reference);
+			case "checkpoint":
+				return checkpoint(args, input, reference);
+			case "trace":
+				return trace(args, input, reference);
+			case "loader":
+				return loader(args, input, reference);
+			default:
+				throw new IllegalArgumentException("unknown check " + check);
+		}
+	}
+
+	public static void main(String[] args) {
+		long input = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		Scanner sc = new Scanner(System.in);
+		int programs = 0, failures = 0;
+		while (sc.hasNextLine()) {
+			String line = sc.nextLine().trim();
+			if (line.isEmpty())
+				continue;
+			programs++;
+			String[] program = line.split("\\s+");
+			TestSupport.Outcome reference = run(TestSupport.machine(program), BUDGET, input, new Words());
+			boolean passed = true;
+			for (String check : CHECKS) {
+				String failure = check(check, program, input, reference);
+				if (failure != null) {
+					passed = false;
+					System.out.println("Mismatch on " + line + " (" + check + "): " + failure + "\nReference " + reference);
+				}
+			}
+			if (!passed)
+				failures++;
+		}
+		sc.close();
+		System.out.println(programs - failures + "/" + programs + " programs pass");
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * Alternative execution engine for {@link IntCodeVM}. It runs the machine's
+ * program in a single loop which keeps the Instruction Pointer and the Relative
+ * Base Pointer in local variables, reads the operands directly from the pages
+ * of the main memory and dispatches on the OPcode with a switch, instead of
+ * fetching, decoding and executing an {@link Instruction} object per cycle.
+ * Its effects on the machine are the same of the {@link Instruction}s of
+ * {@link IntCodeVM}. Its observer, if any, is only notified of branches, input
+ * and output.
+ */
+final class SwitchDispatchEngine {
+	private final IntCodeVM vm;
+	private final PagedMainMemory mem;
+
+	// page directory of mem, fetched again after every write
+	private long[][] pages;
+
+	/*
+	 * Abstraction Function: AF(vm, mem, pages) = engine which runs the machine vm,
+	 * whose main memory is mem.
+	 *
+	 * Representation Invariant: vm and mem are not null; mem is the main memory of
+	 * vm; pages is mem.pages() since the last write or load in mem.
+	 */
+
+	/**
+	 * Constructs an engine which runs the given machine.
+	 *
+	 * @param vm the machine.
+	 * @throws NullPointerException     if vm is null.
+	 * @throws IllegalArgumentException if the main memory of vm isn't a
+	 *                                  {@link PagedMainMemory}.
+	 */
+	SwitchDispatchEngine(IntCodeVM vm) {
+		if (vm == null)
+			throw new NullPointerException("can't run a null machine");
+		if (!(vm.mm instanceof PagedMainMemory))
+			throw new IllegalArgumentException("the machine's memory must be a PagedMainMemory");
+		this.vm = vm;
+		mem = (PagedMainMemory) vm.mm;
+		pages = mem.pages();
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	boolean repOk() {
+		return vm != null && mem != null && vm.mm == mem && pages == mem.pages();
+	}
+
+	/**
+	 * Returns the content of the main memory cell at {@code index}.
+	 *
+	 * @param index the cell index.
+	 * @return the content.
+	 */
+	private long load(int index) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("negative memory address " + index);
+		int p = index >>> PagedMainMemory.PAGE_BITS;
+		if (p >= pages.length || pages[p] == null) {
+			// absent pages may be still to load
+			long res = mem.getWord(index);
+			pages = mem.pages();
+			return res;
+		}
+		return pages[p][index & PagedMainMemory.OFFSET_MASK];
+	}
+
+	/**
+	 * Writes {@code content}, truncated to the word size of the machine, in the
+	 * main memory cell at {@code index}.
+	 *
+	 * @param index   the cell index.
+	 * @param content the new content.
+	 */
+	private void store(int index, long content) {
+		mem.setWord(index, vm.word(content));
+		pages = mem.pages();
+	}
+
+	/**
+	 * Returns the actual argument of a parameter, given its access mode.
+	 *
+	 * @param par  the parameter.
+	 * @param mode the access mode.
+	 * @param rbp  the current Relative Base Pointer.
+	 * @return the actual argument.
+	 * @throws IllegalArgumentException if the mode is not valid.
+	 */
+	private long arg(long par, int mode, long rbp) {
+		switch (mode) {
+			case 0:
+				return load(IntCodeVM.address(par));
+			case 1:
+				return par;
+			case 2:
+				return load(IntCodeVM.address(rbp + par));
+			default:
+				throw new IllegalArgumentException("Invalid access mode for par " + par + ": " + mode);
+		}
+	}
+
+	/**
+	 * Runs the machine until a halting instruction stops the execution, or until
+	 * an input or output instruction finds its port empty or full. The registers
+	 * of the machine are updated when the loop ends, even if it ends with an
+	 * exception.
+	 *
+	 * @throws IllegalArgumentException if an invalid instruction or access mode is
+	 *                                  met.
+	 */
+	void run() {
+		run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs the machine like {@link #run()}, but pauses it after
+	 * {@code maxCycles} instructions if it didn't stop before.
+	 *
+	 * @param maxCycles the maximum number of instructions to execute.
+	 * @return the number of instructions executed; the one which suspended the
+	 *         machine, if any, isn't counted.
+	 * @throws IllegalArgumentException if an invalid instruction or access mode is
+	 *                                  met.
+	 */
+	long run(long maxCycles) {
+		int ip = (int) vm.reg.getWord(IntCodeVM.IP);
+		long rbp = vm.reg.getWord(IntCodeVM.RBP);
+		long executed = 0;
+		try {
+			for (; executed < maxCycles; executed++) {
+				long rawOP = load(ip);
+				// OPcodes fit an int, and int division is cheaper
+				int op = rawOP == (int) rawOP ? (int) rawOP % 100 : (int) (rawOP % 100);
+				int modes = rawOP == (int) rawOP ? (int) rawOP / 100 % 1000 : (int) (rawOP / 100 % 1000);
+				long a, b, c, res;
+				boolean jumped;
+				switch (op) {
+					case IntCodeVM.Instructions.ADD:
+						a = load(ip + 1);
+						b = load(ip + 2);
+						c = load(ip + 3);
+						ip += 4;
+						res = arg(a, modes % 10, rbp) + arg(b, modes / 10 % 10, rbp);
+						store(IntCodeVM.address(c), res);
+						break;
+					case IntCodeVM.Instructions.MUL:
+						a = load(ip + 1);
+						b = load(ip + 2);
+						c = load(ip + 3);
+						ip += 4;
+						res = arg(a, modes % 10, rbp) * arg(b, modes / 10 % 10, rbp);
+						store(IntCodeVM.address(c), res);
+						break;
+					case IntCodeVM.Instructions.INP:
+						if (!vm.canRead()) {
+							vm.suspend();
+							return executed;
+						}
+						a = load(ip + 1);
+						ip += 2;
+						store(IntCodeVM.address(a), vm.readInput(ip - 2));
+						break;
+					case IntCodeVM.Instructions.OUT:
+						if (!vm.canWrite()) {
+							vm.suspend();
+							return executed;
+						}
+						a = load(ip + 1);
+						ip += 2;
+						vm.writeOutput(ip - 2, arg(a, modes % 10, rbp));
+						break;
+					case IntCodeVM.Instructions.BNE:
+						a = load(ip + 1);
+						b = load(ip + 2);
+						ip += 3;
+						jumped = arg(a, modes % 10, rbp) != 0;
+						if (vm.observer != null)
+							vm.observer.branch(ip - 3, jumped);
+						if (jumped)
+							ip = IntCodeVM.address(arg(b, modes / 10 % 10, rbp));
+						break;
+					case IntCodeVM.Instructions.BEQ:
+						a = load(ip + 1);
+						b = load(ip + 2);
+						ip += 3;
+						jumped = arg(a, modes % 10, rbp) == 0;
+						if (vm.observer != null)
+							vm.observer.branch(ip - 3, jumped);
+						if (jumped)
+							ip = IntCodeVM.address(arg(b, modes / 10 % 10, rbp));
+						break;
+					case IntCodeVM.Instructions.SLT:
+						a = load(ip + 1);
+						b = load(ip + 2);
+						c = load(ip + 3);
+						ip += 4;
+						res = arg(a, modes % 10, rbp) < arg(b, modes / 10 % 10, rbp) ? 1 : 0;
+						store(IntCodeVM.address(c), res);
+						break;
+					case IntCodeVM.Instructions.SEQ:
+						a = load(ip + 1);
+						b = load(ip + 2);
+						c = load(ip + 3);
+						ip += 4;
+						res = arg(a, modes % 10, rbp) == arg(b, modes / 10 % 10, rbp) ? 1 : 0;
+						store(IntCodeVM.address(c), res);
+						break;
+					case IntCodeVM.Instructions.UPD:
+						a = load(ip + 1);
+						ip += 2;
+						rbp = vm.word(rbp + arg(a, modes % 10, rbp));
+						break;
+					case IntCodeVM.Instructions.HAL:
+						ip += 1;
+						vm.halt();
+						return executed + 1;
+					default:
+						throw new IllegalArgumentException("Invalid instruction of OP code " + rawOP % 100);
+				}
+			}
+			vm.pause();
+			return executed;
+		} finally {
+			vm.reg.setWord(IntCodeVM.IP, ip);
+			vm.reg.setWord(IntCodeVM.RBP, rbp);
+			vm.discardDecoded();
+		}
+	}
+
+}
@@ -1,12 +1,13 @@
-import java.util.ArrayList;
-import java.util.List;
-
 public class Test {
 	public static void main(String[] args) {
-		List<Integer> program = new ArrayList<>();
-		for (String s : args[0].split(","))
-			program.add(Integer.parseInt(s));
-		IntCodeVM vm = new IntCodeVM(program);
+		String[] cells = args[0].split(",");
+		long[] program = new long[cells.length];
+		for (int i = 0; i < cells.length; i++)
+			program[i] = Long.parseLong(cells[i]);
+		IntCodeVM.WordSize wordSize = IntCodeVM.WordSize.INT32;
+		if (args.length > 1 && args[1].equals("64"))
+			wordSize = IntCodeVM.WordSize.INT64;
+		IntCodeVM vm = new IntCodeVM(program, wordSize);
 		vm.run();
 		System.out.println(vm);
 	}
@@ -0,0 +1,99 @@
+/**
+ * Fixtures shared by the tests which compare runs of {@link IntCodeVM}s:
+ * {@link DiffTest}, {@link StateTest} and {@link CycleTest}. They read the
+ * programs in the same format of the arguments of {@link Test}.
+ */
+final class TestSupport {
+	// longest output printed whole by Outcome.toString
+	private static final int MAX_PRINTED = 200;
+
+	private TestSupport() {
+	}
+
+	/** Input port which always has the same word. */
+	static final class Constant implements InputPort {
+		private final long word;
+
+		Constant(long word) {
+			this.word = word;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return false;
+		}
+
+		@Override
+		public long read() {
+			return word;
+		}
+
+	}
+
+	/**
+	 * Outcome of a run: final machine, output, cycles executed and exception
+	 * thrown, if any. Two outcomes are the same if their machines, outputs and
+	 * exceptions are: cycles are compared by the tests which need it.
+	 */
+	static final class Outcome {
+		IntCodeVM vm;
+		String output;
+		long cycles;
+		RuntimeException exception;
+
+		boolean same(Outcome other) {
+			if (!vm.equals(other.vm) || !output.equals(other.output))
+				return false;
+			if (exception == null || other.exception == null)
+				return exception == other.exception;
+			return exception.getClass() == other.exception.getClass()
+					&& String.valueOf(exception.getMessage()).equals(String.valueOf(other.exception.getMessage()));
+		}
+
+		@Override
+		public String toString() {
+			String printed = output.replace('\n', ' ');
+			if (printed.length() > MAX_PRINTED)
+				printed = printed.substring(0, MAX_PRINTED) + "... (" + printed.length() + " characters)";
+			return vm + "\n\tCycles : " + cycles + "\n\tOutput : " + printed + "\n\tException : " + exception;
+		}
+
+	}
+
+	/**
+	 * Returns the program described by {@code args}.
+	 *
+	 * @param args the program and, optionally, the word size, as in Test.
+	 * @return the words of the program.
+	 */
+	static long[] program(String[] args) {
+		String[] cells = args[0].split(",");
+		long[] program = new long[cells.length];
+		for (int i = 0; i < cells.length; i++)
+			program[i] = Long.parseLong(cells[i]);
+		return program;
+	}
+
+	/**
+	 * Returns the word size described by {@code args}.
+	 *
+	 * @param args the program and, optionally, the word size, as in Test.
+	 * @return the word size.
+	 */
+	static IntCodeVM.WordSize wordSize(String[] args) {
+		if (args.length > 1 && args[1].equals("64"))
+			return IntCodeVM.WordSize.INT64;
+		return IntCodeVM.WordSize.INT32;
+	}
+
+	/**
+	 * Returns a machine ready to execute the program described by {@code args}.
+	 *
+	 * @param args the program and, optionally, the word size, as in Test.
+	 * @return the machine.
+	 */
+	static IntCodeVM machine(String[] args) {
+		return new IntCodeVM(program(args), wordSize(args));
+	}
+
+}
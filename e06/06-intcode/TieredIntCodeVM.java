@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link IntCodeVM} with a second execution tier. Instructions are interpreted
+ * as in {@link IntCodeVM}, but when an address is reached as Instruction
+ * Pointer often enough, the basic block starting there is translated into JVM
+ * bytecode by {@link BlockCompiler}, and from then on it is executed as a
+ * whole. When a compiled block's code is overwritten, the block is discarded
+ * and the machine goes back to interpreting it. Machines running the same
+ * program share the classes of their blocks. Programs which keep rewriting
+ * their hot loops run slower than in {@link IntCodeVM}, since their blocks
+ * are discarded over and over.
+ */
+public class TieredIntCodeVM extends IntCodeVM {
+	/** Default number of times an address must be reached before compiling. */
+	public static final int DEFAULT_THRESHOLD = 1000;
+
+	private final int threshold;
+
+	// pages of the caches: the one of address i is pages[i >>> PAGE_BITS], if
+	// it exists, like the cells of a PagedMainMemory
+	private Page[] pages;
+
+	// compiled blocks, in no particular order
+	private final List<Block> live;
+
+	// the block being executed, and whether it was invalidated by its own writes
+	private Block running;
+	private boolean runningInvalidated;
+
+	private final BlockContext ctx;
+
+	/*
+	 * Abstraction Function: see IntCodeVM. pages, live and running are caches
+	 * and are not part of the abstraction.
+	 *
+	 * Representation Invariant: see IntCodeVM; threshold > 0; pages, live and
+	 * ctx are not null; live contains exactly the non-null blocks of the pages,
+	 * each at the address of its start; the code cells of the pages are the
+	 * union of the ranges of the blocks in live.
+	 */
+
+	/**
+	 * The caches of a page of addresses: for each address, the number of times
+	 * it was reached as Instruction Pointer, the compiled block starting there
+	 * and whether it's occupied by the code of a compiled block.
+	 */
+	private static final class Page {
+		final int[] hits;
+		final Block[] blocks;
+		final BitSet codeCells;
+
+		/** Constructs the caches of a page no address of which was reached. */
+		Page() {
+			hits = new int[PagedMainMemory.PAGE_SIZE];
+			blocks = new Block[PagedMainMemory.PAGE_SIZE];
+			codeCells = new BitSet(PagedMainMemory.PAGE_SIZE);
+		}
+
+		/**
+		 * Constructs a copy of {@code other}, sharing its compiled blocks.
+		 *
+		 * @param other the page to copy.
+		 */
+		Page(Page other) {
+			hits = other.hits.clone();
+			blocks = other.blocks.clone();
+			codeCells = (BitSet) other.codeCells.clone();
+		}
+
+	}
+
+	/**
+	 * A compiled basic block, together with the memory range it was compiled
+	 * from.
+	 */
+	static class Block {
+		final int start;
+		final int end;
+		final CompiledBlock code;
+
+		/**
+		 * Constructs a block compiled from the cells in [start, end).
+		 *
+		 * @param start the address of the first instruction.
+		 * @param end   the address of the first cell after the last instruction.
+		 * @param code  the compiled code.
+		 */
+		Block(int start, int end, CompiledBlock code) {
+			this.start = start;
+			this.end = end;
+			this.code = code;
+		}
+
+	}
+
+	/**
+	 * Constructs a tiered IntCode VM with words of width {@code wordSize} ready to
+	 * execute the program {@code program}, which compiles the blocks reached
+	 * {@link #DEFAULT_THRESHOLD} times.
+	 *
+	 * @param program  the program.
+	 * @param wordSize the width of the machine words.
+	 * @throws NullPointerException     if program or wordSize are null.
+	 * @throws IllegalArgumentException if wordSize is INT32 and a word of program
+	 *                                  doesn't fit an int.
+	 */
+	public TieredIntCodeVM(long[] program, WordSize wordSize) {
+		this(program, wordSize, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Constructs a tiered IntCode VM with words of width {@code wordSize} ready to
+	 * execute the program {@code program}, which compiles the blocks reached
+	 * {@code threshold} times.
+	 *
+	 * @param program   the program.
+	 * @param wordSize  the width of the machine words.
+	 * @param threshold number of times an address must be reached before
+	 *                  compiling the block starting there.
+	 * @throws NullPointerException     if program or wordSize are null.
+	 * @throws IllegalArgumentException if wordSize is INT32 and a word of program
+	 *                                  doesn't fit an int, or if threshold is not
+	 *                                  positive.
+	 */
+	public TieredIntCodeVM(long[] program, WordSize wordSize, int threshold) {
+		super(program, wordSize);
+		if (threshold <= 0)
+			throw new IllegalArgumentException("the compilation threshold must be positive");
+		this.threshold = threshold;
+		pages = new Page[(program.length + PagedMainMemory.PAGE_SIZE - 1) >>> PagedMainMemory.PAGE_BITS];
+		live = new ArrayList<>();
+		ctx = new BlockContext();
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a copy of {@code other}, as {@link IntCodeVM#IntCodeVM(IntCodeVM)}
+	 * does, which shares its compiled blocks.
+	 *
+	 * @param other the machine to copy.
+	 * @throws NullPointerException if other is null.
+	 */
+	protected TieredIntCodeVM(TieredIntCodeVM other) {
+		super(other);
+		threshold = other.threshold;
+		pages = new Page[other.pages.length];
+		for (int p = 0; p < pages.length; p++)
+			if (other.pages[p] != null)
+				pages[p] = new Page(other.pages[p]);
+		live = new ArrayList<>(other.live);
+		ctx = new BlockContext();
+		assert repOk();
+	}
+
+	@Override
+	public TieredIntCodeVM fork() {
+		return new TieredIntCodeVM(this);
+	}
+
+	@Override
+	public boolean repOk() {
+		if (ctx == null) // IntCodeVM's constructor checks before the caches exist
+			return super.repOk();
+		if (!super.repOk() || threshold <= 0 || pages == null || live == null)
+			return false;
+		BitSet cells = new BitSet();
+		int blocks = 0;
+		for (Block b : live) {
+			if (block(b.start) != b)
+				return false;
+			cells.set(b.start, b.end);
+		}
+		for (int p = 0; p < pages.length; p++) {
+			int first = p << PagedMainMemory.PAGE_BITS;
+			BitSet page = cells.get(first, first + PagedMainMemory.PAGE_SIZE);
+			if (pages[p] == null) {
+				if (!page.isEmpty())
+					return false;
+				continue;
+			}
+			if (!page.equals(pages[p].codeCells))
+				return false;
+			for (Block b : pages[p].blocks)
+				if (b != null)
+					blocks++;
+		}
+		return blocks == live.size() && cells.length() <= (long) pages.length << PagedMainMemory.PAGE_BITS;
+	}
+
+	/**
+	 * Returns the compiled block starting at {@code address}.
+	 *
+	 * @param address the address.
+	 * @return the block, or null if none was compiled there.
+	 */
+	private Block block(int address) {
+		int p = address >>> PagedMainMemory.PAGE_BITS;
+		if (p >= pages.length || pages[p] == null)
+			return null;
+		return pages[p].blocks[address & PagedMainMemory.OFFSET_MASK];
+	}
+
+	/**
+	 * Returns the page of the caches of {@code address}, allocating it if
+	 * needed.
+	 *
+	 * @param address the address.
+	 * @return the page.
+	 */
+	private Page page(int address) {
+		int p = address >>> PagedMainMemory.PAGE_BITS;
+		if (p >= pages.length)
+			pages = Arrays.copyOf(pages, Math.max(p + 1, 2 * pages.length));
+		if (pages[p] == null)
+			pages[p] = new Page();
+		return pages[p];
+	}
+
+	/**
+	 * Marks as code, or not, the cells in [start, end), which are in allocated
+	 * pages.
+	 *
+	 * @param start the first cell.
+	 * @param end   the first cell after the range.
+	 * @param code  true to mark them as code, false to unmark them.
+	 */
+	private void markCode(int start, int end, boolean code) {
+		for (int p = start >>> PagedMainMemory.PAGE_BITS; p <= (end - 1) >>> PagedMainMemory.PAGE_BITS; p++) {
+			int first = p << PagedMainMemory.PAGE_BITS;
+			pages[p].codeCells.set(Math.max(start, first) - first,
+					Math.min(end, first + PagedMainMemory.PAGE_SIZE) - first, code);
+		}
+	}
+
+	/**
+	 * Executes an entire instruction cycle. If a compiled block starts at IP, the
+	 * whole block is executed instead; otherwise the block starting at IP is
+	 * compiled if it was reached often enough. Observed machines are only
+	 * interpreted, so that the observer sees every instruction.
+	 */
+	@Override
+	public void runCycle() {
+		if (observer != null) {
+			super.runCycle();
+			return;
+		}
+		int IPval = (int) reg.getWord(IP);
+		Block b = block(IPval);
+		if (b == null && (b = hit(IPval)) == null) {
+			super.runCycle();
+			return;
+		}
+		running = b;
+		runningInvalidated = false;
+		ctx.ip = IPval;
+		try {
+			b.code.run(ctx);
+		} finally {
+			reg.setWord(IP, ctx.ip);
+			running = null;
+		}
+	}
+
+	/**
+	 * Counts one more arrival at {@code address} and compiles the block starting
+	 * there when the threshold is reached.
+	 *
+	 * @param address the address.
+	 * @return the compiled block, or null if it's not time to compile or the
+	 *         block can't be compiled.
+	 */
+	private Block hit(int address) {
+		Page page = page(address);
+		int offset = address & PagedMainMemory.OFFSET_MASK;
+		if (page.hits[offset] >= threshold || ++page.hits[offset] < threshold)
+			return null;
+		Block b = BlockCompiler.compile(this, address);
+		if (b != null) {
+			page.blocks[offset] = b;
+			live.add(b);
+			// a block may end in the pages after its start
+			page(b.end - 1);
+			markCode(b.start, b.end, true);
+		}
+		assert repOk();
+		return b;
+	}
+
+	@Override
+	protected void store(int index, long content) {
+		super.store(index, content);
+		int p = index >>> PagedMainMemory.PAGE_BITS;
+		if (p < pages.length && pages[p] != null && pages[p].codeCells.get(index & PagedMainMemory.OFFSET_MASK)) {
+			Iterator<Block> it = live.iterator();
+			while (it.hasNext()) {
+				Block b = it.next();
+				if (b.start <= index && index < b.end) {
+					it.remove();
+					markCode(b.start, b.end, false);
+					Page page = pages[b.start >>> PagedMainMemory.PAGE_BITS];
+					page.blocks[b.start & PagedMainMemory.OFFSET_MASK] = null;
+					page.hits[b.start & PagedMainMemory.OFFSET_MASK] = 0;
+					if (b == running)
+						runningInvalidated = true;
+				}
+			}
+			// blocks may overlap: mark again the cells of the ones left
+			for (Block b : live)
+				markCode(b.start, b.end, true);
+			assert repOk();
+		}
+	}
+
+	@Override
+	protected void discardDecoded() {
+		super.discardDecoded();
+		for (Block b : live) {
+			Page page = pages[b.start >>> PagedMainMemory.PAGE_BITS];
+			page.blocks[b.start & PagedMainMemory.OFFSET_MASK] = null;
+			page.hits[b.start & PagedMainMemory.OFFSET_MASK] = 0;
+			markCode(b.start, b.end, false);
+		}
+		live.clear();
+	}
+
+	/**
+	 * The view of the machine compiled blocks run on. Its methods mirror the
+	 * parameter access and the effects of the {@link Instruction}s of
+	 * {@link IntCodeVM}.
+	 */
+	final class BlockContext {
+		/** Address of the instruction to continue from when the block returns. */
+		int ip;
+
+		/**
+		 * Returns the content of the cell addressed by {@code address}.
+		 *
+		 * @param address the address.
+		 * @return the content.
+		 * @throws IndexOutOfBoundsException if address is not a valid cell index.
+		 */
+		long read(long address) {
+			return mm.getWord(address(address));
+		}
+
+		/**
+		 * Returns the content of the cell addressed by {@code offset}, relative to
+		 * the Relative Base Pointer.
+		 *
+		 * @param offset the offset.
+		 * @return the content.
+		 * @throws IndexOutOfBoundsException if the address is not a valid cell index.
+		 */
+		long readRelative(long offset) {
+			return mm.getWord(address(reg.getWord(RBP) + offset));
+		}
+
+		/**
+		 * Writes {@code content} in the cell addressed by {@code address}.
+		 *
+		 * @param address the address.
+		 * @param content the new content.
+		 * @return true if the write overwrote the code of the running block, which
+		 *         must then return immediately.
+		 * @throws IndexOutOfBoundsException if address is not a valid cell index.
+		 */
+		boolean write(long address, long content) {
+			store(address(address), content);
+			return runningInvalidated;
+		}
+
+		/**
+		 * Adds {@code delta} to the Relative Base Pointer.
+		 *
+		 * @param delta the delta.
+		 */
+		void addRbp(long delta) {
+			reg.setWord(RBP, word(reg.getWord(RBP) + delta));
+		}
+
+		/**
+		 * Sets the address to continue from to {@code target}.
+		 *
+		 * @param target the target address.
+		 * @throws IndexOutOfBoundsException if target is not a valid cell index.
+		 */
+		void jump(long target) {
+			ip = address(target);
+		}
+
+		/** Halts the machine. */
+		void halt() {
+			TieredIntCodeVM.this.halt();
+		}
+
+	}
+
+}
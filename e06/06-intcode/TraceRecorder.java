@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link MachineObserver} which records a compact trace of the execution of an
+ * IntCode machine. Its events hold the outcomes of the conditional branches
+ * (address and whether it jumped) and the words of the input and output
+ * instructions (address and word): not the OPcode and resolved operands of
+ * every instruction, which follow from the initial image and these events.
+ * Everything else a machine does follows from them too, so a
+ * {@link TraceReplayer} can reproduce the run from the trace and the initial
+ * image. Since it doesn't observe instructions nor memory, a recorded machine
+ * can run with {@link IntCodeVM#runFast()}.
+ * <p>
+ * The machine only stores the events, as raw words, in chunks of a small ring:
+ * a full chunk is handed to a thread shared by all the recorders, which
+ * encodes it and writes it to the channel, so the machine waits only when all
+ * the chunks of its ring are waiting for that thread. The machine pays then a
+ * few stores per event, and the encoding runs beside it when there is a spare
+ * CPU. The trace is a stream of LEB128 varints: after the magic bytes
+ * {@code ICT} and the version byte, each event is a varint with the zigzag
+ * encoded distance of its address from the previous event's, shifted left by
+ * 2 bits, and its kind in the lowest 2 bits: branch falling through, branch
+ * jumping, input or output. Input and output events are followed by their
+ * zigzag encoded word. The trace is complete only after {@link #close()}.
+ */
+public class TraceRecorder implements MachineObserver, AutoCloseable {
+	static final byte[] MAGIC = { 'I', 'C', 'T' };
+	static final int VERSION = 1;
+
+	// kinds of the events
+	static final int FALL_THROUGH = 0;
+	static final int JUMP = 1;
+	static final int INPUT = 2;
+	static final int OUTPUT = 3;
+
+	private static final int DEFAULT_CAPACITY = 1 << 14;
+
+	// number of chunks of a recorder, filled by the machine or being encoded
+	private static final int CHUNKS = 4;
+
+	// thread encoding the chunks of every recorder, in the order they are filled
+	private static final ExecutorService FLUSHER = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "trace-flusher");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// chunk being filled by the machine, and next free word in it
+	private long[] chunk;
+	private int pos;
+
+	// chunks allocated, and those the flusher is done with
+	private int chunks;
+	private final BlockingQueue<long[]> free = new ArrayBlockingQueue<>(CHUNKS);
+
+	// used by the flusher only, but for the header
+	private final VarintWriter writer;
+	private long previousIp;
+
+	private final WritableByteChannel ch;
+	private boolean closed;
+	private volatile IOException failure;
+
+	/*
+	 * Abstraction Function: AF(chunk, pos, writer) = recorder whose trace is
+	 * what writer wrote, followed by the events of the chunks passed to the
+	 * flusher and not encoded yet, in order, and by those in chunk[0..pos), each
+	 * an address shifted left by 2 bits and its kind, followed by the word for
+	 * input and output. previousIp is the address of the last event encoded.
+	 *
+	 * Representation Invariant: chunk is not null and has length at least 2; 0
+	 * <= pos <= chunk.length; 1 <= chunks <= CHUNKS is the number of chunks
+	 * allocated; free, writer and ch are not null.
+	 */
+
+	/**
+	 * Constructs a recorder writing its trace to {@code ch}, whose events are
+	 * passed to the flusher in chunks of {@code capacity} words.
+	 *
+	 * @param ch       the channel.
+	 * @param capacity the capacity of the chunks, in words.
+	 * @throws IOException              if ch throws it.
+	 * @throws NullPointerException     if ch is null.
+	 * @throws IllegalArgumentException if capacity is lower than 2 or higher than
+	 *                                  2^30.
+	 */
+	public TraceRecorder(WritableByteChannel ch, int capacity) throws IOException {
+		if (capacity < 2 || capacity > 1 << 30)
+			throw new IllegalArgumentException("invalid chunk capacity " + capacity);
+		writer = new VarintWriter(ch);
+		this.ch = ch;
+		chunk = new long[capacity];
+		chunks = 1;
+		for (byte b : MAGIC)
+			writer.writeByte(b);
+		writer.writeByte(VERSION);
+		assert repOk();
+	}
+
+	/**
+	 * Constructs a recorder writing its trace to {@code file}, replacing its
+	 * content. The file is closed by {@link #close()}.
+	 *
+	 * @param file the file.
+	 * @throws IOException          if the file can't be written.
+	 * @throws NullPointerException if file is null.
+	 */
+	public TraceRecorder(Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return chunk != null && chunk.length >= 2 && 0 <= pos && pos <= chunk.length && 1 <= chunks
+				&& chunks <= CHUNKS && free != null && writer != null && ch != null;
+	}
+
+	@Override
+	public boolean observesInstructions() {
+		return false;
+	}
+
+	@Override
+	public boolean observesMemory() {
+		return false;
+	}
+
+	@Override
+	public void branch(long ip, boolean jumped) {
+		if (pos >= chunk.length - 1)
+			handOff();
+		chunk[pos++] = ip << 2 | (jumped ? JUMP : FALL_THROUGH);
+	}
+
+	@Override
+	public void input(long ip, long value) {
+		if (pos >= chunk.length - 1)
+			handOff();
+		chunk[pos] = ip << 2 | INPUT;
+		chunk[pos + 1] = value;
+		pos += 2;
+	}
+
+	@Override
+	public void output(long ip, long value) {
+		if (pos >= chunk.length - 1)
+			handOff();
+		chunk[pos] = ip << 2 | OUTPUT;
+		chunk[pos + 1] = value;
+		pos += 2;
+	}
+
+	@Override
+	public void stopped() {
+		if (pos > 0 && !closed)
+			handOff();
+	}
+
+	/**
+	 * Passes the current chunk to the flusher and takes an empty one, waiting
+	 * for the flusher if all the chunks are full.
+	 *
+	 * @throws UncheckedIOException  if the flusher failed to write the trace.
+	 * @throws IllegalStateException if this recorder is closed.
+	 */
+	private void handOff() {
+		if (failure != null)
+			throw new UncheckedIOException("can't write the trace", failure);
+		if (closed)
+			throw new IllegalStateException("the recorder is closed");
+		long[] events = chunk;
+		int n = pos;
+		FLUSHER.execute(() -> flush(events, n));
+		chunk = free.poll();
+		if (chunk == null && chunks < CHUNKS) {
+			chunk = new long[events.length];
+			chunks++;
+		}
+		boolean interrupted = false;
+		while (chunk == null)
+			try {
+				chunk = free.take();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		pos = 0;
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Body of the tasks of the flusher: encodes the events of a chunk and writes
+	 * them to the channel, unless a previous chunk failed, and gives the chunk
+	 * back.
+	 *
+	 * @param events the chunk.
+	 * @param n      the number of words of the chunk.
+	 */
+	private void flush(long[] events, int n) {
+		try {
+			if (failure == null) {
+				for (int i = 0; i < n;) {
+					long event = events[i++];
+					long eventIp = event >>> 2;
+					int kind = (int) event & 3;
+					writer.writeVarint(VarintWriter.zigzag(eventIp - previousIp) << 2 | kind);
+					previousIp = eventIp;
+					if (kind >= INPUT)
+						writer.writeZigzag(events[i++]);
+				}
+				writer.flush();
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+		free.add(events);
+	}
+
+	/**
+	 * Writes the events not written yet, and closes the channel.
+	 *
+	 * @throws IOException if the trace or the channel couldn't be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			if (failure == null) {
+				long[] events = chunk;
+				int n = pos;
+				// the flusher runs the tasks in order: this one comes last
+				Future<?> done = FLUSHER.submit(() -> flush(events, n));
+				boolean interrupted = false;
+				while (true)
+					try {
+						done.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						throw new AssertionError(e);
+					}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+			if (failure != null)
+				throw failure;
+		} finally {
+			closed = true;
+			ch.close();
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Replayer of the traces written by a {@link TraceRecorder}. It runs a machine
+ * in the initial state of the recorded run, feeding it the words it read from
+ * the trace, and checks that every branch and output of the machine matches
+ * the trace: the run is then reproduced exactly, up to its final state. A run
+ * which departs from the trace, e.g. because the initial state isn't the
+ * recorded one, stops with an {@link IllegalStateException} at the first
+ * event which differs. Like the recorder, it doesn't observe instructions
+ * nor memory, so the machine runs with {@link IntCodeVM#runFast()}.
+ */
+public class TraceReplayer implements MachineObserver, InputPort, OutputPort {
+	private final VarintReader reader;
+
+	// next event of the trace, if hasNext
+	private boolean hasNext;
+	private long nextIp;
+	private int nextKind;
+	private long nextValue;
+	private long events;
+
+	private long[] outputs = new long[16];
+	private int outputCount;
+
+	/*
+	 * Abstraction Function: AF(reader, hasNext, nextIp, nextKind, nextValue,
+	 * events, outputs, outputCount) = replayer of a trace whose events were
+	 * matched up to the events-th, whose next event, if hasNext, is at nextIp, of
+	 * kind nextKind (see TraceRecorder) and with word nextValue (for input and
+	 * output), followed by the events reader still has; outputs[0..outputCount)
+	 * are the words written by the machine.
+	 *
+	 * Representation Invariant: reader and outputs are not null; 0 <= outputCount
+	 * <= outputs.length; events >= 0.
+	 */
+
+	/**
+	 * Constructs a replayer of the trace read from {@code ch}.
+	 *
+	 * @param ch the channel.
+	 * @throws IOException              if ch throws it.
+	 * @throws NullPointerException     if ch is null.
+	 * @throws IllegalArgumentException if ch doesn't contain a trace, or it has a
+	 *                                  version this class can't read.
+	 */
+	public TraceReplayer(ReadableByteChannel ch) throws IOException {
+		reader = new VarintReader(ch);
+		for (byte b : TraceRecorder.MAGIC)
+			if (reader.readByte() != b)
+				throw new IllegalArgumentException("not an IntCode trace");
+		int version = reader.readByte();
+		if (version != TraceRecorder.VERSION)
+			throw new IllegalArgumentException("unsupported trace version " + version);
+		advance();
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return reader != null && outputs != null && 0 <= outputCount && outputCount <= outputs.length && events >= 0;
+	}
+
+	/**
+	 * Replays the trace in {@code file} on {@code vm}, which must be in the
+	 * initial state of the recorded run.
+	 *
+	 * @param vm   the machine.
+	 * @param file the trace.
+	 * @return the words written by the machine.
+	 * @throws IOException              if the file can't be read.
+	 * @throws NullPointerException     if vm or file are null.
+	 * @throws IllegalArgumentException if the file isn't a valid trace.
+	 * @throws IllegalStateException    if the run departs from the trace.
+	 * @see #replay(IntCodeVM)
+	 */
+	public static long[] replay(IntCodeVM vm, Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new TraceReplayer(ch).replay(vm);
+		}
+	}
+
+	/**
+	 * Runs {@code vm}, which must be in the initial state of the recorded run,
+	 * until the trace ends. The machine reads from and writes to this replayer,
+	 * and is observed by it while it runs; its previous ports are not restored.
+	 * At the end the machine is in the state the recorded one was in at the end
+	 * of the trace: halted, or waiting for input.
+	 *
+	 * @param vm the machine.
+	 * @return the words written by the machine.
+	 * @throws IOException              if the trace can't be read.
+	 * @throws NullPointerException     if vm is null.
+	 * @throws IllegalArgumentException if the trace is malformed.
+	 * @throws IllegalStateException    if the run departs from the trace.
+	 */
+	public long[] replay(IntCodeVM vm) throws IOException {
+		MachineObserver previous = vm.getObserver();
+		vm.setInput(this);
+		vm.setOutput(this);
+		vm.setObserver(this);
+		try {
+			vm.runFast();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			vm.setObserver(previous);
+		}
+		if (hasNext)
+			throw new IllegalStateException("the run " + (vm.isHalted() ? "halted" : "stopped") + " at event "
+					+ events + ", before the end of the trace");
+		return Arrays.copyOf(outputs, outputCount);
+	}
+
+	/**
+	 * Reads the next event of the trace, if any.
+	 *
+	 * @throws UncheckedIOException     if the trace can't be read.
+	 * @throws IllegalArgumentException if the trace is malformed.
+	 */
+	private void advance() {
+		try {
+			hasNext = !reader.atEnd();
+			if (!hasNext)
+				return;
+			long event = reader.readVarint();
+			nextIp += VarintReader.unzigzag(event >>> 2);
+			nextKind = (int) event & 3;
+			if (nextKind >= TraceRecorder.INPUT)
+				nextValue = reader.readZigzag();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Throws the exception of a run departing from the trace.
+	 *
+	 * @param ip   the address of the event of the machine, or -1 if unknown.
+	 * @param what the event of the machine.
+	 * @throws IllegalStateException always.
+	 */
+	private void depart(long ip, String what) {
+		String[] kinds = { "branch falling through", "branch jumping", "input of ", "output of " };
+		String expected = "ended";
+		if (hasNext)
+			expected = kinds[nextKind] + (nextKind >= TraceRecorder.INPUT ? nextValue : "") + " at " + nextIp;
+		throw new IllegalStateException("the run departs from the trace at event " + events + ": " + what
+				+ (ip >= 0 ? " at " + ip : "") + ", trace has " + expected);
+	}
+
+	/**
+	 * Checks that the next event of the trace is of kind {@code kind} and at
+	 * {@code ip}, and moves past it.
+	 *
+	 * @param kind the kind of the event of the machine.
+	 * @param ip   the address of the event of the machine.
+	 * @param what the event, for error messages.
+	 * @throws IllegalStateException if the events don't match.
+	 */
+	private void match(int kind, long ip, String what) {
+		if (!hasNext || nextKind != kind || nextIp != ip)
+			depart(ip, what);
+		events++;
+		advance();
+	}
+
+	@Override
+	public boolean observesInstructions() {
+		return false;
+	}
+
+	@Override
+	public boolean observesMemory() {
+		return false;
+	}
+
+	@Override
+	public void branch(long ip, boolean jumped) {
+		match(jumped ? TraceRecorder.JUMP : TraceRecorder.FALL_THROUGH, ip,
+				jumped ? "branch jumping" : "branch falling through");
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return !hasNext;
+	}
+
+	@Override
+	public long read() {
+		if (nextKind != TraceRecorder.INPUT)
+			depart(-1, "input");
+		return nextValue;
+	}
+
+	@Override
+	public void input(long ip, long value) {
+		match(TraceRecorder.INPUT, ip, "input");
+	}
+
+	@Override
+	public boolean isFull() {
+		return false;
+	}
+
+	@Override
+	public void write(long value) {
+		if (outputCount == outputs.length)
+			outputs = Arrays.copyOf(outputs, 2 * outputCount);
+		outputs[outputCount++] = value;
+	}
+
+	@Override
+	public void output(long ip, long value) {
+		if (!hasNext || nextKind != TraceRecorder.OUTPUT || nextIp != ip || nextValue != value)
+			depart(ip, "output of " + value);
+		events++;
+		advance();
+	}
+
+}
@@ -0,0 +1,143 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reader of bytes and LEB128 varints from a channel, through a fixed size
+ * buffer, as written by {@link VarintWriter}.
+ */
+final class VarintReader {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ReadableByteChannel ch;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private final ByteBuffer wrapper = ByteBuffer.wrap(buf);
+	private int pos, limit;
+	private boolean eof;
+
+	/*
+	 * Abstraction Function: AF(ch, buf, pos, limit, eof) = reader of the bytes
+	 * buf[pos..limit) followed by the ones ch still has, none if eof.
+	 *
+	 * Representation Invariant: ch is not null; 0 <= pos <= limit <= buf.length.
+	 */
+
+	/**
+	 * Constructs a reader from {@code ch}.
+	 *
+	 * @param ch the channel.
+	 * @throws NullPointerException if ch is null.
+	 */
+	VarintReader(ReadableByteChannel ch) {
+		if (ch == null)
+			throw new NullPointerException("the channel can't be null");
+		this.ch = ch;
+	}
+
+	/**
+	 * Reads from the channel until at least {@code n} bytes are buffered, or the
+	 * channel ends.
+	 */
+	private void fill(int n) throws IOException {
+		if (limit - pos >= n || eof)
+			return;
+		System.arraycopy(buf, pos, buf, 0, limit - pos);
+		limit -= pos;
+		pos = 0;
+		wrapper.clear().position(limit);
+		while (limit < n && !eof) {
+			int read = ch.read(wrapper);
+			if (read < 0)
+				eof = true;
+			else
+				limit += read;
+		}
+	}
+
+	/**
+	 * Returns true if the channel has no more bytes.
+	 *
+	 * @return true if the stream ended; false otherwise.
+	 * @throws IOException if the channel throws it.
+	 */
+	boolean atEnd() throws IOException {
+		fill(1);
+		return pos == limit;
+	}
+
+	/**
+	 * Reads a byte.
+	 *
+	 * @return the byte, as unsigned.
+	 * @throws IOException if the channel throws it, or has no more bytes.
+	 */
+	int readByte() throws IOException {
+		fill(1);
+		if (pos == limit)
+			throw new EOFException("truncated stream");
+		return buf[pos++] & 0xFF;
+	}
+
+	/**
+	 * Reads a varint.
+	 *
+	 * @return the value, possibly negative if it doesn't fit a signed long.
+	 * @throws IOException              if the channel throws it, or ends in the
+	 *                                  middle of the varint.
+	 * @throws IllegalArgumentException if the varint is longer than 64 bits.
+	 */
+	long readVarint() throws IOException {
+		fill(VarintWriter.MAX_VARINT_SIZE);
+		long res = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (pos == limit)
+				throw new EOFException("truncated stream");
+			byte b = buf[pos++];
+			res |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return res;
+		}
+		throw new IllegalArgumentException("malformed varint");
+	}
+
+	/**
+	 * Reads a zigzag encoded varint.
+	 *
+	 * @return the value.
+	 * @throws IOException              if the channel throws it, or ends in the
+	 *                                  middle of the varint.
+	 * @throws IllegalArgumentException if the varint is longer than 64 bits.
+	 */
+	long readZigzag() throws IOException {
+		return unzigzag(readVarint());
+	}
+
+	/**
+	 * Returns the value whose zigzag encoding is {@code v}.
+	 *
+	 * @param v the encoding.
+	 * @return the value.
+	 */
+	static long unzigzag(long v) {
+		return v >>> 1 ^ -(v & 1);
+	}
+
+	/**
+	 * Reads a varint which must be in [0, {@code max}].
+	 *
+	 * @param max  the maximum value.
+	 * @param what the name of the value, for error messages.
+	 * @return the value.
+	 * @throws IOException              if the channel throws it, or ends in the
+	 *                                  middle of the varint.
+	 * @throws IllegalArgumentException if the value is out of range.
+	 */
+	int readCount(int max, String what) throws IOException {
+		long v = readVarint();
+		if (v < 0 || v > max)
+			throw new IllegalArgumentException("invalid " + what + " " + Long.toUnsignedString(v));
+		return (int) v;
+	}
+
+}
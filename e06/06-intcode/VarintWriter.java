@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writer of bytes and LEB128 varints to a channel, through a fixed size
+ * buffer. Nothing reaches the channel before {@link #flush()} or a full buffer.
+ */
+final class VarintWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// maximum number of bytes of a varint
+	static final int MAX_VARINT_SIZE = 10;
+
+	private final WritableByteChannel ch;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private final ByteBuffer wrapper = ByteBuffer.wrap(buf);
+	private int pos;
+
+	/*
+	 * Abstraction Function: AF(ch, buf, pos) = writer to ch, which still has to
+	 * write the bytes buf[0..pos).
+	 *
+	 * Representation Invariant: ch is not null; 0 <= pos <= buf.length.
+	 */
+
+	/**
+	 * Constructs a writer to {@code ch}.
+	 *
+	 * @param ch the channel.
+	 * @throws NullPointerException if ch is null.
+	 */
+	VarintWriter(WritableByteChannel ch) {
+		if (ch == null)
+			throw new NullPointerException("the channel can't be null");
+		this.ch = ch;
+	}
+
+	/**
+	 * Writes the lowest 8 bits of {@code b}.
+	 *
+	 * @param b the byte.
+	 * @throws IOException if the channel throws it.
+	 */
+	void writeByte(int b) throws IOException {
+		if (pos == buf.length)
+			flush();
+		buf[pos++] = (byte) b;
+	}
+
+	/**
+	 * Writes {@code v}, read as unsigned, as a varint: 7 bits per byte, lowest
+	 * first, with the highest bit set on every byte but the last.
+	 *
+	 * @param v the value.
+	 * @throws IOException if the channel throws it.
+	 */
+	void writeVarint(long v) throws IOException {
+		if (pos > buf.length - MAX_VARINT_SIZE)
+			flush();
+		while ((v & ~0x7FL) != 0) {
+			buf[pos++] = (byte) (v | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte) v;
+	}
+
+	/**
+	 * Writes {@code v} zigzag encoded, so that values of small magnitude have
+	 * short varints also when negative.
+	 *
+	 * @param v the value.
+	 * @throws IOException if the channel throws it.
+	 */
+	void writeZigzag(long v) throws IOException {
+		writeVarint(zigzag(v));
+	}
+
+	/**
+	 * Returns the zigzag encoding of {@code v}: 0, -1, 1, -2... become 0, 1, 2,
+	 * 3...
+	 *
+	 * @param v the value.
+	 * @return the encoding.
+	 */
+	static long zigzag(long v) {
+		return v << 1 ^ v >> 63;
+	}
+
+	/**
+	 * Writes the buffered bytes to the channel.
+	 *
+	 * @throws IOException if the channel throws it.
+	 */
+	void flush() throws IOException {
+		wrapper.clear().limit(pos);
+		while (wrapper.hasRemaining())
+			ch.write(wrapper);
+		pos = 0;
+	}
+
+}
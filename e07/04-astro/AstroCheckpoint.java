@@ -0,0 +1,316 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+// use this command to build documentation: javadoc -d docs -tag repInv:class:"Representation Invariant" -tag absFun:class:"Abstraction Function" *.java
+
+/**
+ * Binary checkpoint of a {@link DiscreteAstroSystem} at some step of a run,
+ * to save it to disk and resume the run later, possibly in another process,
+ * exactly where it was. A checkpoint holds the step, the names and the kinds
+ * of the objects and their positions and velocities, copied in bulk from the
+ * arrays of the system, so the system must have its objects bound to it (see
+ * {@link DiscreteAstroSystem}). It's written through a fixed size buffer and a
+ * {@link FileChannel} to a temporary file, which then replaces the checkpoint
+ * file at once, once it's forced to the storage device: a run which stops
+ * while writing, or a crash of the system, leaves the previous checkpoint
+ * intact.
+ * <p>
+ * The file is little-endian, like the ones of {@link TrajectoryWriter}. It
+ * starts with the magic bytes {@code ACK}, the version byte, the step as a
+ * long, the number of objects and of planets as ints and, for each object in
+ * the order of iteration of the system, its kind ({@code P} for planets,
+ * {@code S} for fixed stars), the length of its name in UTF-8 as an unsigned
+ * short and the name. Then come the columns x, y, z, with a long per object,
+ * and vx, vy, vz, with a long per planet: planets first and fixed stars then,
+ * each in the order of iteration. It ends with the CRC-32C of all the previous
+ * bytes, as an int.
+ *
+ * @absFun AF(this) = Checkpoint of system at step step.
+ * @repInv system is not null; step >= 0.
+ */
+public final class AstroCheckpoint {
+	static final byte[] MAGIC = { 'A', 'C', 'K' };
+	static final int VERSION = 1;
+
+	// kinds of the objects
+	static final byte PLANET = 'P';
+	static final byte STAR = 'S';
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final DiscreteAstroSystem system;
+	private final long step;
+
+	/**
+	 * Constructs the checkpoint of {@code system} at step {@code step}.
+	 *
+	 * @param system the system.
+	 * @param step   the step.
+	 */
+	private AstroCheckpoint(DiscreteAstroSystem system, long step) {
+		this.system = system;
+		this.step = step;
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation of this is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return system != null && step >= 0;
+	}
+
+	/**
+	 * Returns the system read from the checkpoint, whose objects are new ones,
+	 * bound to it, in the same state and order of iteration as the saved ones.
+	 *
+	 * @return the system.
+	 */
+	public DiscreteAstroSystem system() {
+		return system;
+	}
+
+	/**
+	 * Returns the step at which the checkpoint was written.
+	 *
+	 * @return the step.
+	 */
+	public long step() {
+		return step;
+	}
+
+	/**
+	 * Writes the checkpoint of {@code system} at step {@code step} to
+	 * {@code file}, replacing it. The system is not modified.
+	 *
+	 * @param system the system.
+	 * @param step   the step of the run the system is at.
+	 * @param file   the file.
+	 * @throws IOException              if the file can't be written.
+	 * @throws NullPointerException     if system or file are null.
+	 * @throws IllegalArgumentException if step is negative, the objects of
+	 *                                  system aren't bound to it, or a name is
+	 *                                  longer than 65535 bytes.
+	 */
+	public static void write(DiscreteAstroSystem system, long step, Path file) throws IOException {
+		if (system == null)
+			throw new NullPointerException("can't checkpoint a null system");
+		if (step < 0)
+			throw new IllegalArgumentException("negative step " + step);
+		long[][] state = system.state();
+		if (state == null)
+			throw new IllegalArgumentException("the objects of the system aren't bound to it");
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Sink out = new Sink(ch);
+			out.room(20);
+			out.buf.put(MAGIC).put((byte) VERSION).putLong(step);
+			out.buf.putInt(state[0].length).putInt(state[3].length);
+			for (AstroSystem.CelestialObject<Long> o : system) {
+				byte[] name = o.name().getBytes(StandardCharsets.UTF_8);
+				if (name.length > 0xFFFF)
+					throw new IllegalArgumentException("the name of " + o.name().substring(0, 16) + "... is too long");
+				out.room(3 + name.length);
+				out.buf.put(o instanceof Planet<?> ? PLANET : STAR).putShort((short) name.length).put(name);
+			}
+			for (long[] column : state)
+				out.putLongs(column);
+			out.flush();
+			out.buf.putInt((int) out.crc.getValue());
+			out.buf.flip();
+			while (out.buf.hasRemaining())
+				ch.write(out.buf);
+			// on disk before it replaces the checkpoint, or a crash could leave neither
+			ch.force(true);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the checkpoint in {@code file}. Evolving its system resumes the run
+	 * from its step with exactly the same results.
+	 *
+	 * @param file the file.
+	 * @return the checkpoint.
+	 * @throws IOException              if the file can't be read, or ends
+	 *                                  before the checkpoint.
+	 * @throws NullPointerException     if file is null.
+	 * @throws IllegalArgumentException if the file doesn't contain a valid
+	 *                                  checkpoint, or it has a version this class
+	 *                                  can't read.
+	 */
+	public static AstroCheckpoint read(Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			Source in = new Source(ch);
+			in.need(20);
+			for (byte b : MAGIC)
+				if (in.buf.get() != b)
+					throw new IllegalArgumentException("not an astronomical system checkpoint");
+			int version = in.buf.get();
+			if (version != VERSION)
+				throw new IllegalArgumentException("unsupported checkpoint version " + version);
+			long step = in.buf.getLong();
+			int n = in.buf.getInt(), planets = in.buf.getInt();
+			if (step < 0 || n < 0 || planets < 0 || planets > n)
+				throw new IllegalArgumentException("invalid header in checkpoint");
+			// each object takes at least 27 bytes, and each planet 24 more
+			if (24 + 27L * n + 24L * planets > ch.size())
+				throw new EOFException("checkpoint truncated");
+
+			boolean[] isPlanet = new boolean[n];
+			String[] names = new String[n];
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				in.need(3);
+				byte kind = in.buf.get();
+				if (kind != PLANET && kind != STAR)
+					throw new IllegalArgumentException("invalid kind " + kind + " in checkpoint");
+				isPlanet[i] = kind == PLANET;
+				if (isPlanet[i])
+					count++;
+				byte[] name = new byte[in.buf.getShort() & 0xFFFF];
+				in.need(name.length);
+				in.buf.get(name);
+				names[i] = new String(name, StandardCharsets.UTF_8);
+			}
+			if (count != planets)
+				throw new IllegalArgumentException("wrong number of planets in checkpoint");
+
+			long[][] state = new long[6][];
+			for (int c = 0; c < 6; c++) {
+				state[c] = new long[c < 3 ? n : planets];
+				in.getLongs(state[c]);
+			}
+			int expected = in.checksum();
+			in.need(4);
+			if (in.buf.getInt() != expected)
+				throw new IllegalArgumentException("corrupted checkpoint");
+
+			// the system indexes the planets first, in order of iteration
+			List<AstroSystem.CelestialObject<Long>> objects = new ArrayList<>(n);
+			int nextPlanet = 0, nextStar = planets;
+			for (int i = 0; i < n; i++) {
+				if (isPlanet[i]) {
+					int k = nextPlanet++;
+					DiscreteAstroSystem.DiscretePlanet p = new DiscreteAstroSystem.DiscretePlanet(names[i],
+							state[0][k], state[1][k], state[2][k]);
+					p.deltaVelocity(new SimpleLong3DVector(state[3][k], state[4][k], state[5][k]));
+					objects.add(p);
+				} else {
+					int k = nextStar++;
+					objects.add(new DiscreteAstroSystem.DiscreteFixedStar(names[i], state[0][k], state[1][k],
+							state[2][k]));
+				}
+			}
+			return new AstroCheckpoint(new DiscreteAstroSystem(objects), step);
+		}
+	}
+
+	/**
+	 * Buffer writing to a channel, which keeps the checksum of what it wrote.
+	 */
+	private static final class Sink {
+		private final FileChannel ch;
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private final CRC32C crc = new CRC32C();
+
+		Sink(FileChannel ch) {
+			this.ch = ch;
+		}
+
+		/** Makes sure the buffer has room for n bytes, writing it out if needed. */
+		void room(int n) throws IOException {
+			if (buf.remaining() < n)
+				flush();
+		}
+
+		/** Puts the elements of a in the buffer, in bulk. */
+		void putLongs(long[] a) throws IOException {
+			for (int from = 0; from < a.length;) {
+				room(8);
+				int k = Math.min(buf.remaining() / 8, a.length - from);
+				buf.asLongBuffer().put(a, from, k);
+				buf.position(buf.position() + 8 * k);
+				from += k;
+			}
+		}
+
+		/** Writes the buffered bytes to the channel, adding them to the checksum. */
+		void flush() throws IOException {
+			buf.flip();
+			crc.update(buf.duplicate());
+			while (buf.hasRemaining())
+				ch.write(buf);
+			buf.clear();
+		}
+	}
+
+	/**
+	 * Buffer reading from a channel, which keeps the checksum of what was
+	 * consumed from it.
+	 */
+	private static final class Source {
+		private final FileChannel ch;
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private final CRC32C crc = new CRC32C();
+
+		// position in buf up to which the bytes were added to the checksum
+		private int summed;
+
+		Source(FileChannel ch) {
+			this.ch = ch;
+			buf.limit(0);
+		}
+
+		/** Makes sure the buffer has at least n bytes, reading them if needed. */
+		void need(int n) throws IOException {
+			if (buf.remaining() >= n)
+				return;
+			checksum();
+			buf.compact();
+			summed = 0;
+			while (buf.position() < n)
+				if (ch.read(buf) < 0)
+					throw new EOFException("checkpoint truncated");
+			buf.flip();
+		}
+
+		/** Reads longs in bulk to fill a. */
+		void getLongs(long[] a) throws IOException {
+			for (int from = 0; from < a.length;) {
+				need(8);
+				int k = Math.min(buf.remaining() / 8, a.length - from);
+				buf.asLongBuffer().get(a, from, k);
+				buf.position(buf.position() + 8 * k);
+				from += k;
+			}
+		}
+
+		/** Adds the bytes consumed so far to the checksum, and returns it. */
+		int checksum() {
+			ByteBuffer consumed = buf.duplicate();
+			consumed.limit(buf.position()).position(summed);
+			crc.update(consumed);
+			summed = buf.position();
+			return (int) crc.getValue();
+		}
+	}
+
+}
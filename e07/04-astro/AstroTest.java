@@ -0,0 +1,434 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test of the properties of the astronomical systems which the cases of
+ * {@link Test} can't show: runs each check and prints those which fail.
+ * <ul>
+ * <li>parallel: a {@link DiscreteAstroSystem} of {@value #PARALLEL_OBJECTS}
+ * random objects evolving on a {@link ForkJoinPool} ends in the same state and
+ * with the same energy as the same system evolving sequentially.</li>
+ * <li>unbound: a {@link DiscreteAstroSystem} of {@value #UNBOUND_OBJECTS}
+ * random objects, bound to it, ends in the same state and with the same energy
+ * as a system of the same objects made of anonymous subclasses, which can't be
+ * bound and evolve through their methods.</li>
+ * <li>leapfrog: a planet of a {@link ContinuousAstroSystem} in a circular
+ * orbit around a fixed star keeps its energy, within a relative drift of
+ * {@value #MAX_DRIFT}, and its radius over 100 orbits.</li>
+ * <li>barnes-hut: the velocities of {@value #CLUSTER_OBJECTS} random planets
+ * after a step with the Barnes-Hut approximation differ from those of direct
+ * summation by at most {@value #MAX_VELOCITY_ERROR}.</li>
+ * <li>checkpoint: random systems saved by {@link AstroCheckpoint} and read
+ * back are in the same state, and end like the system which was never
+ * saved when resumed; a checkpoint with a flipped bit, or cut short, is
+ * rejected.</li>
+ * <li>trajectory: the file written by {@link TrajectoryWriter}, for a bound
+ * {@link DiscreteAstroSystem} and for a {@link ContinuousAstroSystem}, read
+ * back has the header of the objects, and the frames and energy records due at
+ * each step, with the states and energies of the same system evolving without
+ * a writer, and velocity 0 for the fixed stars.</li>
+ * </ul>
+ */
+public class AstroTest {
+	private static final int PARALLEL_OBJECTS = 20_000;
+	private static final int PARALLEL_STEPS = 20;
+	private static final int UNBOUND_OBJECTS = 3000;
+	private static final int UNBOUND_STEPS = 5;
+	private static final double MAX_DRIFT = 1e-10;
+	private static final int CLUSTER_OBJECTS = 2000;
+	private static final double MAX_VELOCITY_ERROR = 1e-4;
+	private static final int[] CHECKPOINT_OBJECTS = { 0, 1, 7, 100, 5000 };
+	private static final int CHECKPOINT_STEP = 120;
+	private static final int CHECKPOINT_STEPS = 300;
+	private static final int TRAJECTORY_OBJECTS = 100;
+	private static final int TRAJECTORY_STEPS = 30;
+	private static final int TRAJECTORY_EVERY = 4;
+	private static final int TRAJECTORY_ENERGY_EVERY = 3;
+
+	/**
+	 * Returns a system of {@code n} random objects, one out of ten a fixed star,
+	 * adding them to {@code objects}.
+	 *
+	 * @param n       the number of objects.
+	 * @param seed    the seed of the random coordinates.
+	 * @param objects the list the objects are added to.
+	 * @return the system.
+	 */
+	private static DiscreteAstroSystem random(int n, long seed, List<AstroSystem.CelestialObject<Long>> objects) {
+		Random r = new Random(seed);
+		for (int i = 0; i < n; i++) {
+			long x = r.nextInt(20001) - 10000, y = r.nextInt(20001) - 10000, z = r.nextInt(20001) - 10000;
+			if (r.nextInt(10) == 0)
+				objects.add(new DiscreteAstroSystem.DiscreteFixedStar("s" + i, x, y, z));
+			else
+				objects.add(new DiscreteAstroSystem.DiscretePlanet("p" + i, x, y, z));
+		}
+		return new DiscreteAstroSystem(objects);
+	}
+
+	/**
+	 * Checks that a large system evolves on a pool exactly as sequentially.
+	 *
+	 * @return a description of the failure, or null if there is none.
+	 */
+	private static String parallel() {
+		List<AstroSystem.CelestialObject<Long>> sequential = new ArrayList<>(), parallel = new ArrayList<>();
+		DiscreteAstroSystem s = random(PARALLEL_OBJECTS, 7, sequential), p = random(PARALLEL_OBJECTS, 7, parallel);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			p.setPool(pool);
+			for (int step = 0; step < PARALLEL_STEPS; step++) {
+				s.evolve();
+				p.evolve();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		for (int i = 0; i < PARALLEL_OBJECTS; i++)
+			if (!sequential.get(i).toString().equals(parallel.get(i).toString()))
+				return "object " + i + " is " + parallel.get(i) + ", sequentially " + sequential.get(i);
+		if (s.energyAsLong() != p.energyAsLong())
+			return "energy is " + p.energyAsLong() + ", sequentially " + s.energyAsLong();
+		return null;
+	}
+
+	/**
+	 * Checks that a bound system evolves in its arrays exactly as the same
+	 * objects evolve through their methods.
+	 *
+	 * @return a description of the failure, or null if there is none.
+	 */
+	private static String unbound() {
+		List<AstroSystem.CelestialObject<Long>> bound = new ArrayList<>(), subclassed = new ArrayList<>();
+		DiscreteAstroSystem b = random(UNBOUND_OBJECTS, 11, bound);
+		for (AstroSystem.CelestialObject<Long> o : bound) {
+			ThreeDVector<Long> p = o.position();
+			if (o instanceof Planet<?>)
+				subclassed.add(new DiscreteAstroSystem.DiscretePlanet(o.name(), p.x(), p.y(), p.z()) {
+				});
+			else
+				subclassed.add(new DiscreteAstroSystem.DiscreteFixedStar(o.name(), p.x(), p.y(), p.z()) {
+				});
+		}
+		DiscreteAstroSystem u = new DiscreteAstroSystem(subclassed);
+		if (b.state() == null || u.state() != null)
+			return "the objects are bound to " + (b.state() == null ? "neither" : "both") + " systems";
+		for (int step = 0; step < UNBOUND_STEPS; step++) {
+			b.evolve();
+			u.evolve();
+		}
+		for (int i = 0; i < UNBOUND_OBJECTS; i++)
+			if (!bound.get(i).toString().equals(subclassed.get(i).toString()))
+				return "object " + i + " is " + bound.get(i) + ", unbound " + subclassed.get(i);
+		if (b.energyAsLong() != u.energyAsLong())
+			return "energy is " + b.energyAsLong() + ", unbound " + u.energyAsLong();
+		return null;
+	}
+
+	/**
+	 * Checks that the leapfrog integration keeps a circular orbit.
+	 *
+	 * @return a description of the failure, or null if there is none.
+	 */
+	private static String leapfrog() {
+		List<AstroSystem.CelestialObject<Double>> objects = new ArrayList<>();
+		objects.add(new ContinuousAstroSystem.ContinuousFixedStar("Sole", 1, 0, 0, 0));
+		ContinuousAstroSystem.ContinuousPlanet earth = new ContinuousAstroSystem.ContinuousPlanet("Terra", 1e-6, 1, 0,
+				0, 0, 1, 0);
+		objects.add(earth);
+		ContinuousAstroSystem sys = new ContinuousAstroSystem(objects, 0.01, 0);
+		double initial = sys.energyAsDouble();
+		// 100 orbits of period 2 pi
+		for (int step = 0; step < 62832; step++)
+			sys.evolve();
+		double drift = Math.abs((sys.energyAsDouble() - initial) / initial);
+		if (!(drift <= MAX_DRIFT))
+			return "relative energy drift " + drift;
+		ThreeDVector<Double> p = earth.position();
+		double radius = Math.sqrt(p.x() * p.x() + p.y() * p.y() + p.z() * p.z());
+		if (!(Math.abs(radius - 1) <= 1e-3))
+			return "radius " + radius + " after 100 orbits";
+		return null;
+	}
+
+	/**
+	 * Returns a cluster of {@code n} random planets of total mass 1, with
+	 * gaussian positions and velocities.
+	 *
+	 * @param n    the number of planets.
+	 * @param seed the seed of the random coordinates.
+	 * @return the planets.
+	 */
+	private static List<AstroSystem.CelestialObject<Double>> cluster(int n, long seed) {
+		Random r = new Random(seed);
+		List<AstroSystem.CelestialObject<Double>> res = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			res.add(new ContinuousAstroSystem.ContinuousPlanet("p" + i, 1.0 / n, r.nextGaussian(), r.nextGaussian(),
+					r.nextGaussian(), 0.3 * r.nextGaussian(), 0.3 * r.nextGaussian(), 0.3 * r.nextGaussian()));
+		return res;
+	}
+
+	/**
+	 * Checks that the Barnes-Hut approximation is close to direct summation.
+	 *
+	 * @return a description of the failure, or null if there is none.
+	 */
+	private static String barnesHut() {
+		ContinuousAstroSystem direct = new ContinuousAstroSystem(cluster(CLUSTER_OBJECTS, 1), 0.001, 0.01);
+		ContinuousAstroSystem approximated = new ContinuousAstroSystem(cluster(CLUSTER_OBJECTS, 1), 0.001, 0.01);
+		approximated.setTheta(0.5);
+		direct.evolve();
+		approximated.evolve();
+		Iterator<AstroSystem.CelestialObject<Double>> d = direct.iterator(), a = approximated.iterator();
+		while (d.hasNext()) {
+			Planet<Double> p = (Planet<Double>) d.next(), q = (Planet<Double>) a.next();
+			ThreeDVector<Double> v = p.velocity(), w = q.velocity();
+			double error = Math.abs(v.x() - w.x()) + Math.abs(v.y() - w.y()) + Math.abs(v.z() - w.z());
+			if (!(error <= MAX_VELOCITY_ERROR))
+				return p.name() + " has velocity " + w + ", by direct summation " + v;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the objects of {@code sys}, in order of iteration, and its energy.
+	 *
+	 * @param sys the system.
+	 * @return the description of the state of the system.
+	 */
+	private static String state(AstroSystem<Long> sys) {
+		StringBuilder res = new StringBuilder();
+		for (AstroSystem.CelestialObject<Long> o : sys)
+			res.append(o).append('\n');
+		return res.append(sys.energy()).toString();
+	}
+
+	/**
+	 * Checks that a run resumed from a checkpoint ends like the uninterrupted
+	 * one, and that damaged checkpoints are rejected.
+	 *
+	 * @return a description of the first failure, or null if there is none.
+	 * @throws UncheckedIOException if the checkpoint can't be written or read.
+	 */
+	private static String checkpoint() {
+		Path file = null;
+		try {
+			file = Files.createTempFile("AstroTest", ".ack");
+			for (int n : CHECKPOINT_OBJECTS) {
+				List<AstroSystem.CelestialObject<Long>> objects = new ArrayList<>();
+				objects.add(new DiscreteAstroSystem.DiscretePlanet("Ceres \u00e8", 1, 2, 3));
+				DiscreteAstroSystem reference = random(n, n, objects);
+				for (int step = 0; step < CHECKPOINT_STEPS; step++)
+					reference.evolve();
+				objects = new ArrayList<>();
+				objects.add(new DiscreteAstroSystem.DiscretePlanet("Ceres \u00e8", 1, 2, 3));
+				DiscreteAstroSystem sys = random(n, n, objects);
+				for (int step = 0; step < CHECKPOINT_STEP; step++)
+					sys.evolve();
+				AstroCheckpoint.write(sys, CHECKPOINT_STEP, file);
+				AstroCheckpoint read = AstroCheckpoint.read(file);
+				if (read.step() != CHECKPOINT_STEP || !state(read.system()).equals(state(sys)))
+					return "checkpoint of " + n + " objects read at step " + read.step() + " differs";
+				for (long step = read.step(); step < CHECKPOINT_STEPS; step++)
+					read.system().evolve();
+				if (!state(read.system()).equals(state(reference)))
+					return "run of " + n + " objects resumed from the checkpoint differs";
+			}
+			byte[] bytes = Files.readAllBytes(file);
+			bytes[bytes.length / 2] ^= 1;
+			Files.write(file, bytes);
+			try {
+				AstroCheckpoint.read(file);
+				return "corrupted checkpoint read";
+			} catch (IllegalArgumentException e) {
+				// rejected, as expected
+			}
+			Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+			try {
+				AstroCheckpoint.read(file);
+				return "truncated checkpoint read";
+			} catch (IOException e) {
+				// rejected, as expected
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			try {
+				if (file != null)
+					Files.delete(file);
+			} catch (IOException e) {
+				// a temporary file left behind
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of column {@code c} of the frames of
+	 * {@link TrajectoryWriter} for {@code o}.
+	 *
+	 * @param o the object.
+	 * @param c the column: 0 to 2 for the position, 3 to 5 for the velocity.
+	 * @return the value, or null for the velocity of a fixed star.
+	 */
+	private static Number column(AstroSystem.CelestialObject<?> o, int c) {
+		ThreeDVector<?> v = c < 3 ? o.position() : o instanceof Planet<?> ? ((Planet<?>) o).velocity() : null;
+		if (v == null)
+			return null;
+		return c % 3 == 0 ? v.x() : c % 3 == 1 ? v.y() : v.z();
+	}
+
+	/**
+	 * Reads a value of a trajectory from {@code in} and compares it with
+	 * {@code expected}, exactly.
+	 *
+	 * @param in       the file.
+	 * @param doubles  true if the values are doubles, false if they are longs.
+	 * @param expected the value expected, or null for 0.
+	 * @return true if the value is the expected one.
+	 */
+	private static boolean read(ByteBuffer in, boolean doubles, Number expected) {
+		if (doubles)
+			return Double.compare(in.getDouble(), expected == null ? 0 : expected.doubleValue()) == 0;
+		return in.getLong() == (expected == null ? 0 : expected.longValue());
+	}
+
+	/**
+	 * Writes the trajectory of {@code written} to {@code file} and compares it
+	 * with the states of {@code reference}, the same system, evolving without a
+	 * writer.
+	 *
+	 * @param written   the system whose trajectory is written.
+	 * @param reference the same system.
+	 * @param file      the file.
+	 * @return a description of the first difference, or null if there is none.
+	 * @throws IOException if the file can't be written or read.
+	 */
+	private static String trajectory(AstroSystem<?> written, AstroSystem<?> reference, Path file)
+			throws IOException {
+		try (TrajectoryWriter w = new TrajectoryWriter(written, file, TRAJECTORY_EVERY, TRAJECTORY_ENERGY_EVERY)) {
+			w.evolve(TRAJECTORY_STEPS);
+		}
+		List<AstroSystem.CelestialObject<?>> order = new ArrayList<>();
+		if (reference instanceof DiscreteAstroSystem)
+			order.addAll(((DiscreteAstroSystem) reference).objectsByIndex());
+		else
+			for (AstroSystem.CelestialObject<?> o : reference)
+				order.add(o);
+		boolean doubles = reference instanceof ContinuousAstroSystem;
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			byte[] magic = new byte[TrajectoryWriter.MAGIC.length];
+			in.get(magic);
+			if (!Arrays.equals(magic, TrajectoryWriter.MAGIC) || in.get() != TrajectoryWriter.VERSION
+					|| in.get() != (doubles ? 'D' : 'J') || in.getInt() != order.size())
+				return "invalid header";
+			for (AstroSystem.CelestialObject<?> o : order) {
+				byte[] name = new byte[Short.toUnsignedInt(in.getShort())];
+				in.get(name);
+				if (!new String(name, StandardCharsets.UTF_8).equals(o.name()))
+					return "name " + new String(name, StandardCharsets.UTF_8) + " instead of " + o.name();
+			}
+			for (int step = 0; step <= TRAJECTORY_STEPS; step++) {
+				if (step > 0)
+					reference.evolve();
+				if (step % TRAJECTORY_EVERY == 0) {
+					if (in.get() != TrajectoryWriter.FRAME || in.getLong() != step)
+						return "no frame at step " + step;
+					for (int c = 0; c < 6; c++)
+						for (AstroSystem.CelestialObject<?> o : order)
+							if (!read(in, doubles, column(o, c)))
+								return "column " + c + " of " + o.name() + " differs at step " + step;
+				}
+				if (step % TRAJECTORY_ENERGY_EVERY == 0)
+					if (in.get() != TrajectoryWriter.ENERGY || in.getLong() != step
+							|| !read(in, doubles, reference.energy()))
+						return "no energy record of " + reference.energy() + " at step " + step;
+			}
+		} catch (BufferUnderflowException e) {
+			return "trajectory of " + TRAJECTORY_STEPS + " steps cut short";
+		}
+		if (in.hasRemaining())
+			return in.remaining() + " bytes after the last record";
+		return null;
+	}
+
+	/**
+	 * Checks the trajectories of a discrete and a continuous system.
+	 *
+	 * @return a description of the first failure, or null if there is none.
+	 * @throws UncheckedIOException if the trajectory can't be written or read.
+	 */
+	private static String trajectory() {
+		Path file = null;
+		try {
+			file = Files.createTempFile("AstroTest", ".atr");
+			String res = trajectory(random(TRAJECTORY_OBJECTS, 5, new ArrayList<>()),
+					random(TRAJECTORY_OBJECTS, 5, new ArrayList<>()), file);
+			if (res != null)
+				return "discrete " + res;
+			List<AstroSystem.CelestialObject<Double>> written = cluster(TRAJECTORY_OBJECTS, 5),
+					reference = cluster(TRAJECTORY_OBJECTS, 5);
+			written.add(new ContinuousAstroSystem.ContinuousFixedStar("Sole", 1, 0, 0, 0));
+			reference.add(new ContinuousAstroSystem.ContinuousFixedStar("Sole", 1, 0, 0, 0));
+			res = trajectory(new ContinuousAstroSystem(written, 0.001, 0.01),
+					new ContinuousAstroSystem(reference, 0.001, 0.01), file);
+			return res == null ? null : "continuous " + res;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			try {
+				if (file != null)
+					Files.delete(file);
+			} catch (IOException e) {
+				// a temporary file left behind
+			}
+		}
+	}
+
+	private static final String[] CHECKS = { "parallel", "unbound", "leapfrog", "barnes-hut", "checkpoint", "trajectory" };
+
+	private static String check(String check) {
+		switch (check) {
+			case "parallel":
+				return parallel();
+			case "unbound":
+				return unbound();
+			case "leapfrog":
+				return leapfrog();
+			case "barnes-hut":
+				return barnesHut();
+			case "checkpoint":
+				return checkpoint();
+			case "trajectory":
+				return trajectory();
+			default:
+				throw new IllegalArgumentException("unknown check " + check);
+		}
+	}
+
+	public static void main(String[] args) {
+		int failures = 0;
+		for (String check : CHECKS) {
+			String failure = check(check);
+			if (failure != null) {
+				failures++;
+				System.out.println("Check " + check + " fails: " + failure);
+			}
+		}
+		System.out.println(CHECKS.length - failures + "/" + CHECKS.length + " checks pass");
+	}
+
+}
@@ -0,0 +1,833 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+// use this command to build documentation: javadoc -d docs -tag repInv:class:"Representation Invariant" -tag absFun:class:"Abstraction Function" *.java
+
+/**
+ * Continuous implementation of the {@link AstroSystem} interface which uses
+ * {@code double}s as units: a Newtonian N-body system of massive objects, in
+ * units where the gravitational constant is 1. Fixed stars attract the planets
+ * but don't move.
+ * <p>
+ * The system holds the state of its objects in a structure of arrays, one
+ * {@code double[]} per axis, and its objects are bound to it: their positions
+ * and velocities are views of its arrays. Each call to {@link #evolve()}
+ * advances the system by a time step with the leapfrog (kick-drift-kick)
+ * integrator, which is symplectic and keeps the energy bounded over long runs.
+ * Gravity is softened by a length {@code softening}, so that close encounters
+ * don't diverge. The forces are summed over every pair of objects, in O(n^2)
+ * time, or approximated with a Barnes-Hut octree in O(n log n) time, see
+ * {@link #setTheta(double)}.
+ * <p>
+ * The kinetic energy of an object is {@code m v^2 / 2} and its potential
+ * energy is its mass times the gravitational potential at its position; since
+ * the potential energy of a pair is shared by both objects, the energy of the
+ * system is the kinetic energy of its objects plus half their potential
+ * energy, not the sum of their energies.
+ *
+ * @absFun AF(this) = Astronomical system with the elements of this.objects as
+ *         celestial objects, the one of index i with mass m[i], position (x[i],
+ *         y[i], z[i]) and, if it's a planet, velocity (vx[i], vy[i], vz[i]),
+ *         evolving by dt per step, with gravity softened by softening and
+ *         forces approximated with opening angle theta (exact if 0).
+ * @repInv objects is not null and its elements are bound to this, with
+ *         distinct indexes, planets in [0, planets) and fixed stars in
+ *         [planets, n); x, y, z, m, ax, ay, az and phi have length n; vx, vy
+ *         and vz have length planets; dt > 0; softening >= 0; theta >= 0; if
+ *         not stale, ax, ay, az and phi are the accelerations and the
+ *         potentials of the current positions, and energy is the energy of the
+ *         system.
+ */
+public class ContinuousAstroSystem implements AstroSystem<Double> {
+	private final List<CelestialObject<Double>> objects;
+	private final int n;
+	private final int planets;
+
+	// masses and positions of the objects, velocities of the planets
+	private final double[] x, y, z, m;
+	private final double[] vx, vy, vz;
+
+	// accelerations of the objects and gravitational potentials at them
+	private final double[] ax, ay, az, phi;
+
+	private final double dt;
+	private final double softening;
+	private double theta;
+
+	// true if positions changed since the accelerations were computed
+	private boolean stale;
+	private double energy;
+
+	// octree: for each node its center, half side, mass and center of mass,
+	// its 8 children (0 if absent) and its first body (EMPTY, INTERNAL or the
+	// first of the chain of bodies of a leaf, linked by next)
+	private double[] ox, oy, oz, half, mass, cx, cy, cz;
+	private int[] children, body;
+	private int nodes;
+	private final int[] next;
+	private final int[] stack;
+	private final int[] order;
+
+	private static final int EMPTY = -1;
+	private static final int INTERNAL = -2;
+
+	// depth after which bodies share leaves, e.g. if they coincide
+	private static final int MAX_DEPTH = 48;
+
+	/**
+	 * Constructs a ContinuousAstroSystem from the given {@link Collection} of
+	 * {@link ContinuousCelestialObject}s, which are bound to it and from now on
+	 * evolve with it. Forces are computed exactly until
+	 * {@link #setTheta(double)} is called.
+	 *
+	 * @param objs      the objects.
+	 * @param dt        the time step.
+	 * @param softening the softening length of gravity.
+	 * @throws NullPointerException     if objs or one of its elements are null.
+	 * @throws IllegalArgumentException if an element isn't a
+	 *                                  {@link ContinuousPlanet} or a
+	 *                                  {@link ContinuousFixedStar}, is already
+	 *                                  bound to a system or appears twice; if dt
+	 *                                  isn't positive or softening is negative.
+	 */
+	public ContinuousAstroSystem(Collection<CelestialObject<Double>> objs, double dt, double softening) {
+		if (!(dt > 0))
+			throw new IllegalArgumentException("invalid time step " + dt);
+		if (!(softening >= 0))
+			throw new IllegalArgumentException("invalid softening length " + softening);
+		objects = new ArrayList<CelestialObject<Double>>(objs);
+		int count = 0;
+		for (CelestialObject<Double> o : objects) {
+			if (o == null)
+				throw new NullPointerException("a continuous system can't have null objects");
+			if (!(o instanceof ContinuousPlanet) && !(o instanceof ContinuousFixedStar))
+				throw new IllegalArgumentException(o.name() + " isn't a continuous planet nor star");
+			if (((ContinuousCelestialObject) o).system != null)
+				throw new IllegalArgumentException(o.name() + " is already in a system");
+			if (o instanceof ContinuousPlanet)
+				count++;
+		}
+		n = objects.size();
+		planets = count;
+		this.dt = dt;
+		this.softening = softening;
+		x = new double[n];
+		y = new double[n];
+		z = new double[n];
+		m = new double[n];
+		vx = new double[planets];
+		vy = new double[planets];
+		vz = new double[planets];
+		ax = new double[n];
+		ay = new double[n];
+		az = new double[n];
+		phi = new double[n];
+		next = new int[n];
+		stack = new int[7 * MAX_DEPTH + 8];
+		order = new int[n];
+		int nextPlanet = 0, nextStar = planets;
+		for (CelestialObject<Double> o : objects) {
+			ContinuousCelestialObject c = (ContinuousCelestialObject) o;
+			if (c.system != null) {
+				unbind();
+				throw new IllegalArgumentException(o.name() + " appears twice");
+			}
+			int i = c instanceof ContinuousPlanet ? nextPlanet++ : nextStar++;
+			x[i] = c.initial[0];
+			y[i] = c.initial[1];
+			z[i] = c.initial[2];
+			m[i] = c.mass;
+			if (i < planets) {
+				vx[i] = c.initial[3];
+				vy[i] = c.initial[4];
+				vz[i] = c.initial[5];
+			}
+			c.system = this;
+			c.index = i;
+		}
+		computeForces();
+		assert repOk();
+	}
+
+	/** Unbinds the objects bound to this system, when its construction fails. */
+	private void unbind() {
+		for (CelestialObject<Double> o : objects)
+			if (((ContinuousCelestialObject) o).system == this)
+				((ContinuousCelestialObject) o).system = null;
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation of this is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		if (objects == null || x.length != n || y.length != n || z.length != n || m.length != n
+				|| vx.length != planets || vy.length != planets || vz.length != planets || ax.length != n
+				|| ay.length != n || az.length != n || phi.length != n || !(dt > 0) || !(softening >= 0)
+				|| !(theta >= 0) || objects.size() != n)
+			return false;
+		boolean[] used = new boolean[n];
+		for (CelestialObject<Double> o : objects) {
+			ContinuousCelestialObject c = (ContinuousCelestialObject) o;
+			if (c.system != this || used[c.index] || (c.index < planets) != (c instanceof ContinuousPlanet))
+				return false;
+			used[c.index] = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the forces be approximated with a Barnes-Hut octree, from the next
+	 * step on: a cell of the octree of side s at distance d from an object acts
+	 * on it as a single mass at its center of mass if s / d is less than
+	 * {@code theta}. With theta 0 the forces are summed exactly over every pair;
+	 * around 0.5 the error on the forces is usually well below 1%.
+	 *
+	 * @param theta the opening angle, or 0 to compute the forces exactly.
+	 * @throws IllegalArgumentException if theta is negative or not a number.
+	 */
+	public void setTheta(double theta) {
+		if (!(theta >= 0))
+			throw new IllegalArgumentException("invalid opening angle " + theta);
+		this.theta = theta;
+		if (theta > 0 && ox == null) {
+			int capacity = Math.max(16, 2 * n);
+			ox = new double[capacity];
+			oy = new double[capacity];
+			oz = new double[capacity];
+			half = new double[capacity];
+			mass = new double[capacity];
+			cx = new double[capacity];
+			cy = new double[capacity];
+			cz = new double[capacity];
+			children = new int[8 * capacity];
+			body = new int[capacity];
+		}
+		stale = true;
+	}
+
+	/**
+	 * Returns the opening angle of the Barnes-Hut approximation.
+	 *
+	 * @return the opening angle, or 0 if the forces are computed exactly.
+	 */
+	public double getTheta() {
+		return theta;
+	}
+
+	@Override
+	public Double energy() {
+		return energyAsDouble();
+	}
+
+	/**
+	 * Returns the total energy of this system, like {@link #energy()}, but as a
+	 * primitive. It's kept up to date by {@link #evolve()}, so it takes constant
+	 * time unless objects were moved outside of it.
+	 *
+	 * @return total energy.
+	 */
+	public double energyAsDouble() {
+		if (stale)
+			computeForces();
+		return energy;
+	}
+
+	@Override
+	public void evolve() {
+		if (stale)
+			computeForces();
+		double h = dt / 2;
+		for (int i = 0; i < planets; i++) {
+			vx[i] += ax[i] * h;
+			vy[i] += ay[i] * h;
+			vz[i] += az[i] * h;
+			x[i] += vx[i] * dt;
+			y[i] += vy[i] * dt;
+			z[i] += vz[i] * dt;
+		}
+		computeForces();
+		double kinetic = 0;
+		for (int i = 0; i < planets; i++) {
+			vx[i] += ax[i] * h;
+			vy[i] += ay[i] * h;
+			vz[i] += az[i] * h;
+			kinetic += m[i] * (vx[i] * vx[i] + vy[i] * vy[i] + vz[i] * vz[i]);
+		}
+		energy = kinetic / 2 + potential() / 2;
+		assert repOk();
+	}
+
+	/**
+	 * Returns the sum of the potential energies of the objects.
+	 *
+	 * @return the sum.
+	 */
+	private double potential() {
+		double res = 0;
+		for (int i = 0; i < n; i++)
+			res += m[i] * phi[i];
+		return res;
+	}
+
+	/**
+	 * Returns the kinetic energy of the planets.
+	 *
+	 * @return the kinetic energy.
+	 */
+	private double kinetic() {
+		double res = 0;
+		for (int i = 0; i < planets; i++)
+			res += m[i] * (vx[i] * vx[i] + vy[i] * vy[i] + vz[i] * vz[i]);
+		return res / 2;
+	}
+
+	/**
+	 * Computes the accelerations of the objects and the potentials at them, for
+	 * the current positions, and the energy of the system.
+	 */
+	private void computeForces() {
+		Arrays.fill(ax, 0);
+		Arrays.fill(ay, 0);
+		Arrays.fill(az, 0);
+		Arrays.fill(phi, 0);
+		if (theta == 0)
+			directForces();
+		else {
+			buildTree();
+			// nearby objects walk the same nodes: visit them one after the other
+			for (int k = 0, count = treeOrder(); k < count; k++)
+				treeForces(order[k]);
+		}
+		stale = false;
+		energy = kinetic() + potential() / 2;
+	}
+
+	/** Sums the forces over every pair of objects. */
+	private void directForces() {
+		double eps2 = softening * softening;
+		for (int i = 0; i < n; i++) {
+			double xi = x[i], yi = y[i], zi = z[i], mi = m[i];
+			double axi = 0, ayi = 0, azi = 0, phii = 0;
+			for (int j = i + 1; j < n; j++) {
+				double dx = x[j] - xi, dy = y[j] - yi, dz = z[j] - zi;
+				double inv = 1 / Math.sqrt(dx * dx + dy * dy + dz * dz + eps2);
+				double inv3 = inv * inv * inv;
+				axi += m[j] * dx * inv3;
+				ayi += m[j] * dy * inv3;
+				azi += m[j] * dz * inv3;
+				phii -= m[j] * inv;
+				ax[j] -= mi * dx * inv3;
+				ay[j] -= mi * dy * inv3;
+				az[j] -= mi * dz * inv3;
+				phi[j] -= mi * inv;
+			}
+			ax[i] += axi;
+			ay[i] += ayi;
+			az[i] += azi;
+			phi[i] += phii;
+		}
+	}
+
+	/**
+	 * Builds the octree of the current positions, with the mass and the center
+	 * of mass of each node.
+	 */
+	private void buildTree() {
+		double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			minZ = Math.min(minZ, z[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+			maxZ = Math.max(maxZ, z[i]);
+		}
+		double side = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+		nodes = 0;
+		newNode((minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2, side > 0 ? side * 0.5000001 : 1);
+		for (int i = 0; i < n; i++)
+			insert(i);
+		// children come after their parents: sum them up from the last node
+		for (int node = nodes - 1; node >= 0; node--) {
+			double mt = 0, mx = 0, my = 0, mz = 0;
+			if (body[node] == INTERNAL)
+				for (int k = 0; k < 8; k++) {
+					int c = children[8 * node + k];
+					if (c != 0) {
+						mt += mass[c];
+						mx += mass[c] * cx[c];
+						my += mass[c] * cy[c];
+						mz += mass[c] * cz[c];
+					}
+				}
+			else
+				for (int j = body[node]; j >= 0; j = next[j]) {
+					mt += m[j];
+					mx += m[j] * x[j];
+					my += m[j] * y[j];
+					mz += m[j] * z[j];
+				}
+			mass[node] = mt;
+			if (mt > 0) {
+				cx[node] = mx / mt;
+				cy[node] = my / mt;
+				cz[node] = mz / mt;
+			} else {
+				cx[node] = ox[node];
+				cy[node] = oy[node];
+				cz[node] = oz[node];
+			}
+		}
+	}
+
+	/**
+	 * Adds an empty leaf to the octree, growing its arrays if needed.
+	 *
+	 * @param cx0   x of the center.
+	 * @param cy0   y of the center.
+	 * @param cz0   z of the center.
+	 * @param half0 half the side.
+	 * @return the index of the node.
+	 */
+	private int newNode(double cx0, double cy0, double cz0, double half0) {
+		if (nodes == body.length) {
+			int capacity = 2 * nodes;
+			ox = Arrays.copyOf(ox, capacity);
+			oy = Arrays.copyOf(oy, capacity);
+			oz = Arrays.copyOf(oz, capacity);
+			half = Arrays.copyOf(half, capacity);
+			mass = Arrays.copyOf(mass, capacity);
+			cx = Arrays.copyOf(cx, capacity);
+			cy = Arrays.copyOf(cy, capacity);
+			cz = Arrays.copyOf(cz, capacity);
+			children = Arrays.copyOf(children, 8 * capacity);
+			body = Arrays.copyOf(body, capacity);
+		}
+		int node = nodes++;
+		ox[node] = cx0;
+		oy[node] = cy0;
+		oz[node] = cz0;
+		half[node] = half0;
+		body[node] = EMPTY;
+		Arrays.fill(children, 8 * node, 8 * node + 8, 0);
+		return node;
+	}
+
+	/**
+	 * Returns the child of {@code node} containing the point, creating it if
+	 * needed.
+	 *
+	 * @param node the node.
+	 * @param px   x of the point.
+	 * @param py   y of the point.
+	 * @param pz   z of the point.
+	 * @return the child.
+	 */
+	private int child(int node, double px, double py, double pz) {
+		int k = (px >= ox[node] ? 1 : 0) | (py >= oy[node] ? 2 : 0) | (pz >= oz[node] ? 4 : 0);
+		int c = children[8 * node + k];
+		if (c == 0) {
+			double q = half[node] / 2;
+			c = newNode(ox[node] + ((k & 1) != 0 ? q : -q), oy[node] + ((k & 2) != 0 ? q : -q),
+					oz[node] + ((k & 4) != 0 ? q : -q), q);
+			children[8 * node + k] = c;
+		}
+		return c;
+	}
+
+	/**
+	 * Inserts the object of index {@code i} in the octree.
+	 *
+	 * @param i the index.
+	 */
+	private void insert(int i) {
+		int node = 0;
+		for (int depth = 0;; depth++) {
+			int b = body[node];
+			if (b == INTERNAL) {
+				node = child(node, x[i], y[i], z[i]);
+				continue;
+			}
+			if (b == EMPTY) {
+				body[node] = i;
+				next[i] = -1;
+				return;
+			}
+			if (depth >= MAX_DEPTH || x[b] == x[i] && y[b] == y[i] && z[b] == z[i]) {
+				// coinciding bodies share the leaf
+				next[i] = b;
+				body[node] = i;
+				return;
+			}
+			// split the leaf, moving its bodies down
+			body[node] = INTERNAL;
+			int c = child(node, x[b], y[b], z[b]);
+			body[c] = b;
+		}
+	}
+
+	/**
+	 * Puts in order the indexes of the objects as the leaves of the octree are
+	 * visited depth first.
+	 *
+	 * @return the number of objects, n.
+	 */
+	private int treeOrder() {
+		int count = 0, top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (body[node] == INTERNAL) {
+				for (int k = 0; k < 8; k++)
+					if (children[8 * node + k] != 0)
+						stack[top++] = children[8 * node + k];
+			} else
+				for (int j = body[node]; j >= 0; j = next[j])
+					order[count++] = j;
+		}
+		return count;
+	}
+
+	/**
+	 * Computes the acceleration of the object of index {@code i}, and the
+	 * potential at it, walking the octree from the root.
+	 *
+	 * @param i the index.
+	 */
+	private void treeForces(int i) {
+		double eps2 = softening * softening, theta2 = theta * theta;
+		double xi = x[i], yi = y[i], zi = z[i];
+		double axi = 0, ayi = 0, azi = 0, phii = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			int b = body[node];
+			if (b == EMPTY)
+				continue;
+			if (b >= 0) {
+				for (int j = b; j >= 0; j = next[j])
+					if (j != i) {
+						double dx = x[j] - xi, dy = y[j] - yi, dz = z[j] - zi;
+						double inv = 1 / Math.sqrt(dx * dx + dy * dy + dz * dz + eps2);
+						double f = m[j] * inv * inv * inv;
+						axi += f * dx;
+						ayi += f * dy;
+						azi += f * dz;
+						phii -= m[j] * inv;
+					}
+				continue;
+			}
+			double dx = cx[node] - xi, dy = cy[node] - yi, dz = cz[node] - zi;
+			double d2 = dx * dx + dy * dy + dz * dz;
+			double h = half[node], side = 2 * h;
+			// a node whose cube holds the object is always opened, since its
+			// center of mass includes the object itself
+			boolean holds = Math.abs(xi - ox[node]) <= h && Math.abs(yi - oy[node]) <= h
+					&& Math.abs(zi - oz[node]) <= h;
+			if (!holds && side * side < theta2 * d2) {
+				double inv = 1 / Math.sqrt(d2 + eps2);
+				double f = mass[node] * inv * inv * inv;
+				axi += f * dx;
+				ayi += f * dy;
+				azi += f * dz;
+				phii -= mass[node] * inv;
+			} else
+				for (int k = 0; k < 8; k++) {
+					int c = children[8 * node + k];
+					if (c != 0)
+						stack[top++] = c;
+				}
+		}
+		ax[i] = axi;
+		ay[i] = ayi;
+		az[i] = azi;
+		phi[i] = phii;
+	}
+
+	@Override
+	public Iterator<CelestialObject<Double>> iterator() {
+		return objects.iterator();
+	}
+
+	/**
+	 * Abstract, continuous implementation of a
+	 * {@link AstroSystem.CelestialObject}, with a mass, which uses
+	 * {@code Double}s as units. Its state is held by the system it's bound to.
+	 *
+	 * @absFun AF(this) = Celestial object (specified by extension) of mass mass,
+	 *         whose state is the one of index index in system, or initial if
+	 *         system is null.
+	 * @repInv name and initial are not null; initial has length 6; mass > 0.
+	 */
+	public static abstract class ContinuousCelestialObject implements CelestialObject<Double> {
+		private final String name;
+		private final double mass;
+
+		// position and velocity until the object is bound to a system
+		private final double[] initial;
+
+		// system holding the state of this object, and its index there; null if
+		// the object isn't bound to a system
+		ContinuousAstroSystem system;
+		int index;
+
+		/**
+		 * Constructs a ContinuousCelestialObject from the given name, mass,
+		 * position and velocity.
+		 *
+		 * @param name the name.
+		 * @param mass the mass.
+		 * @param x    x coordinate.
+		 * @param y    y coordinate.
+		 * @param z    z coordinate.
+		 * @param vx   x component of the velocity.
+		 * @param vy   y component of the velocity.
+		 * @param vz   z component of the velocity.
+		 * @throws NullPointerException     if name is null.
+		 * @throws IllegalArgumentException if mass isn't positive.
+		 */
+		protected ContinuousCelestialObject(String name, double mass, double x, double y, double z, double vx,
+				double vy, double vz) {
+			if (name == null)
+				throw new NullPointerException("you need to set a name for this celestial object");
+			if (!(mass > 0))
+				throw new IllegalArgumentException("invalid mass " + mass);
+			this.name = name;
+			this.mass = mass;
+			initial = new double[] { x, y, z, vx, vy, vz };
+		}
+
+		/**
+		 * Implementation of the representation invariant. Returns true if the
+		 * representation respects all its requirements. Used in assertions.
+		 *
+		 * @return true if the representation of this is ok; false otherwise.
+		 */
+		public boolean repOk() {
+			return name != null && initial != null && initial.length == 6 && mass > 0;
+		}
+
+		/**
+		 * Returns the mass of this object.
+		 *
+		 * @return the mass.
+		 */
+		public double mass() {
+			return mass;
+		}
+
+		@Override
+		public ThreeDVector<Double> position() {
+			if (system != null)
+				return new SimpleDouble3DVector(system.x[index], system.y[index], system.z[index]);
+			return new SimpleDouble3DVector(initial[0], initial[1], initial[2]);
+		}
+
+		@Override
+		public Double energy() {
+			return kineticEnergy() + potentialEnergy();
+		}
+
+		/**
+		 * Returns the potential energy of this object: its mass times the
+		 * gravitational potential of the other objects of its system at its
+		 * position, 0 if it isn't in a system.
+		 *
+		 * @return the potential energy.
+		 */
+		@Override
+		public Double potentialEnergy() {
+			if (system == null)
+				return 0.0;
+			if (system.stale)
+				system.computeForces();
+			return mass * system.phi[index];
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+			if (!(obj instanceof CelestialObject<?>))
+				return false;
+			CelestialObject<?> other = (CelestialObject<?>) obj;
+			return this.position().equals(other.position()) && this.name().equals(other.name());
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "name: " + name() + "; mass: " + mass + "; position: " + position();
+		}
+
+	}
+
+	/**
+	 * Continuous implementation of the {@link FixedStar} interface which uses
+	 * {@code Double}s as units.
+	 *
+	 * @absFun AF(this) = Star of name {@code name}, mass {@code mass} and position
+	 *         {@code position}.
+	 * @repInv see {@link ContinuousCelestialObject}.
+	 */
+	public static class ContinuousFixedStar extends ContinuousCelestialObject implements FixedStar<Double> {
+
+		/**
+		 * Constructs a ContinuousFixedStar with the given mass and coordinates.
+		 *
+		 * @param name this star's name.
+		 * @param mass the mass.
+		 * @param x    x coordinate.
+		 * @param y    y coordinate.
+		 * @param z    z coordinate.
+		 * @throws NullPointerException     if name is null.
+		 * @throws IllegalArgumentException if mass isn't positive.
+		 */
+		public ContinuousFixedStar(String name, double mass, double x, double y, double z) {
+			super(name, mass, x, y, z, 0, 0, 0);
+			assert repOk();
+		}
+
+		@Override
+		public Double kineticEnergy() {
+			return 0.0;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!super.equals(obj))
+				return false;
+			return (obj instanceof FixedStar<?>);
+		}
+
+		@Override
+		public String toString() {
+			return "Fixed star - " + super.toString();
+		}
+
+	}
+
+	/**
+	 * Continuous implementation of the {@link Planet} interface which uses
+	 * {@code Double}s as units.
+	 *
+	 * @absFun AF(this) = Planet of name {@code name}, mass {@code mass}, position
+	 *         {@code position} and velocity {@code velocity}.
+	 * @repInv see {@link ContinuousCelestialObject}.
+	 */
+	public static class ContinuousPlanet extends ContinuousCelestialObject implements Planet<Double> {
+
+		/**
+		 * Constructs a ContinuousPlanet with the given mass, coordinates and
+		 * velocity.
+		 *
+		 * @param name this planet's name.
+		 * @param mass the mass.
+		 * @param x    x coordinate.
+		 * @param y    y coordinate.
+		 * @param z    z coordinate.
+		 * @param vx   x component of the velocity.
+		 * @param vy   y component of the velocity.
+		 * @param vz   z component of the velocity.
+		 * @throws NullPointerException     if name is null.
+		 * @throws IllegalArgumentException if mass isn't positive.
+		 */
+		public ContinuousPlanet(String name, double mass, double x, double y, double z, double vx, double vy,
+				double vz) {
+			super(name, mass, x, y, z, vx, vy, vz);
+			assert repOk();
+		}
+
+		@Override
+		public ThreeDVector<Double> velocity() {
+			if (system != null)
+				return new SimpleDouble3DVector(system.vx[index], system.vy[index], system.vz[index]);
+			return new SimpleDouble3DVector(super.initial[3], super.initial[4], super.initial[5]);
+		}
+
+		@Override
+		public Double kineticEnergy() {
+			ThreeDVector<Double> v = velocity();
+			return mass() * (v.x() * v.x() + v.y() * v.y() + v.z() * v.z()) / 2;
+		}
+
+		/**
+		 * Moves this planet by its velocity times the time step of its system, or
+		 * times 1 if it isn't in a system.
+		 */
+		@Override
+		public void move() {
+			double[] s = super.initial;
+			if (system != null) {
+				system.x[index] += system.vx[index] * system.dt;
+				system.y[index] += system.vy[index] * system.dt;
+				system.z[index] += system.vz[index] * system.dt;
+				system.stale = true;
+			} else
+				for (int k = 0; k < 3; k++)
+					s[k] += s[k + 3];
+			assert repOk();
+		}
+
+		@Override
+		public void deltaVelocity(ThreeDVector<Double> v) {
+			if (v == null)
+				throw new NullPointerException("the delta vector can't be null");
+			double[] s = super.initial;
+			if (system != null) {
+				system.vx[index] += v.x();
+				system.vy[index] += v.y();
+				system.vz[index] += v.z();
+				system.stale = true;
+			} else {
+				s[3] += v.x();
+				s[4] += v.y();
+				s[5] += v.z();
+			}
+			assert repOk();
+		}
+
+		@Override
+		public String toString() {
+			return "Planet - " + super.toString() + "; velocity: " + velocity();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!super.equals(obj))
+				return false;
+			if (obj == this)
+				return true;
+			if (!(obj instanceof Planet<?>))
+				return false;
+			Planet<?> other = (Planet<?>) obj;
+			return other.velocity().equals(this.velocity());
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		String res = "AstroSystem:\n";
+		for (CelestialObject<Double> o : objects)
+			res += o;
+		return res;
+	}
+
+}
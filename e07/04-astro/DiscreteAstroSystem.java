@@ -1,31 +1,148 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 // use this command to build documentation: javadoc -d docs -tag repInv:class:"Representation Invariant" -tag absFun:class:"Abstraction Function" *.java
 
 /**
  * Discrete implementation of the {@link AstroSystem} interface which uses
  * {@code long}s as units.
+ * <p>
+ * When all its objects are {@link DiscretePlanet}s and
+ * {@link DiscreteFixedStar}s not in another system, the system holds their
+ * state in a structure of arrays, one {@code long[]} per axis for the
+ * positions of all the objects and one per axis for the velocities of the
+ * planets, and evolves it in place without allocating. The objects are then
+ * bound to the system: their positions and velocities are views of its arrays,
+ * so they always reflect its evolution. The energy of each planet and the
+ * total one are kept up to date as the arrays change, so {@link #energy()}
+ * takes constant time. Systems with other objects evolve them through their
+ * methods, and compute their energy from them. With assertions enabled, every
+ * step also checks the representation invariant, which takes time linear in
+ * the number of objects and allocates a {@code boolean[]} as long: the steps
+ * allocate nothing only with assertions disabled.
+ * <p>
+ * Large bound systems can evolve in parallel on a {@link ForkJoinPool}, see
+ * {@link #setPool(ForkJoinPool)}, with exactly the same results.
  * 
  * @absFun AF(this) = Massless astronomical system with the elements of
- *         this.objects (see their AF) as celestial objects.
- * @repInv objects is not null.
+ *         this.objects (see their AF) as celestial objects. If x is not null,
+ *         the object of index i has position (x[i], y[i], z[i]) and, if it's a
+ *         planet, velocity (vx[i], vy[i], vz[i]) and energy energies[i].
+ * @repInv objects is not null. If x is not null: x, y and z have length
+ *         objects.size(); vx, vy and vz have length planets; sorted has 3
+ *         elements, the first of length objects.size() and the others null or
+ *         of the same length; energies has length planets, energies[i] is the
+ *         energy of the planet of index i and energy is their sum; the
+ *         objects are bound to this, with distinct indexes, planets in [0,
+ *         planets) and fixed stars in [planets, objects.size()).
  */
 public class DiscreteAstroSystem implements AstroSystem<Long> {
 	private List<CelestialObject<Long>> objects;
 
+	// positions of the objects and velocities of the planets, by axis, if the
+	// objects are bound to this system; null otherwise
+	private long[] x, y, z;
+	private long[] vx, vy, vz;
+	private int planets;
+
+	// energies of the planets, and of the system, if the objects are bound
+	private long[] energies;
+	private long energy;
+
+	// room to sort the coordinates of each axis, if the objects are bound; the
+	// last two are allocated when the axes are first evolved in parallel
+	private long[][] sorted;
+
+	// pool evolving the system in parallel, or null to evolve it sequentially
+	private ForkJoinPool pool;
+
+	// systems with fewer objects compare every pair instead of sorting
+	private static final int SORT_THRESHOLD = 64;
+
+	// systems with fewer objects evolve sequentially also with a pool
+	private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+	// minimum number of planets updated by a parallel task
+	private static final int MIN_CHUNK = 1 << 12;
+
 	/**
 	 * Constructs a DiscreteAstroSystem from the given {@link Collection} of
-	 * {@link CelestialObject}s. Doesn't clone the elements.
+	 * {@link CelestialObject}s. Doesn't clone the elements: if they can be bound
+	 * to this system, from now on they evolve with it.
 	 * 
 	 * @param objs collection
 	 */
 	public DiscreteAstroSystem(Collection<CelestialObject<Long>> objs) {
 		objects = new LinkedList<CelestialObject<Long>>(objs);
+		if (bindable())
+			bind();
 		assert repOk();
 	}
 
+	/**
+	 * Returns true if the objects of this system can be bound to it: they are
+	 * all {@link DiscretePlanet}s and {@link DiscreteFixedStar}s, not subclasses
+	 * which may redefine their evolution, not bound to another system and
+	 * without duplicates.
+	 * 
+	 * @return true if the objects can be bound; false otherwise.
+	 */
+	private boolean bindable() {
+		Set<CelestialObject<Long>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (CelestialObject<Long> o : objects) {
+			if (o == null || o.getClass() != DiscretePlanet.class && o.getClass() != DiscreteFixedStar.class)
+				return false;
+			if (((DiscreteCelestialObject) o).system != null || !seen.add(o))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the state of the objects in the arrays of this system, planets
+	 * first, and binds them to it.
+	 */
+	private void bind() {
+		for (CelestialObject<Long> o : objects)
+			if (o instanceof DiscretePlanet)
+				planets++;
+		int n = objects.size();
+		x = new long[n];
+		y = new long[n];
+		z = new long[n];
+		vx = new long[planets];
+		vy = new long[planets];
+		vz = new long[planets];
+		energies = new long[planets];
+		sorted = new long[3][];
+		sorted[0] = new long[n];
+		int nextPlanet = 0, nextStar = planets;
+		for (CelestialObject<Long> o : objects) {
+			DiscreteCelestialObject d = (DiscreteCelestialObject) o;
+			int i = d instanceof DiscretePlanet ? nextPlanet++ : nextStar++;
+			x[i] = d.position.x();
+			y[i] = d.position.y();
+			z[i] = d.position.z();
+			if (d instanceof DiscretePlanet) {
+				ThreeDVector<Long> v = ((DiscretePlanet) d).velocity;
+				vx[i] = v.x();
+				vy[i] = v.y();
+				vz[i] = v.z();
+			}
+			d.system = this;
+			d.index = i;
+		}
+		energy = updateEnergies(0, planets);
+	}
+
 	/**
 	 * Implementation of the representation invariant. Returns true if the
 	 * representation respects all its requirements. Used in assertions.
@@ -33,19 +150,377 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 	 * @return true if the representation of this is ok; false otherwise.
 	 */
 	public boolean repOk() {
-		return objects != null;
+		if (objects == null)
+			return false;
+		if (x == null)
+			return true;
+		int n = objects.size();
+		if (y == null || z == null || vx == null || vy == null || vz == null || sorted == null || x.length != n
+				|| y.length != n || z.length != n || vx.length != planets || vy.length != planets
+				|| vz.length != planets || sorted.length != 3 || sorted[0] == null || sorted[0].length != n)
+			return false;
+		for (int a = 1; a < 3; a++)
+			if (sorted[a] != null && sorted[a].length != n)
+				return false;
+		if (energies == null || energies.length != planets)
+			return false;
+		long total = 0;
+		for (int i = 0; i < planets; i++) {
+			if (energies[i] != planetEnergy(i))
+				return false;
+			total += energies[i];
+		}
+		if (total != energy)
+			return false;
+		boolean[] used = new boolean[n];
+		for (CelestialObject<Long> o : objects) {
+			DiscreteCelestialObject d = (DiscreteCelestialObject) o;
+			if (d.system != this || used[d.index] || (d.index < planets) != (d instanceof DiscretePlanet))
+				return false;
+			used[d.index] = true;
+		}
+		return true;
 	}
 
 	@Override
 	public Long energy() {
+		return energyAsLong();
+	}
+
+	/**
+	 * Returns the total energy of this system, like {@link #energy()}, but as a
+	 * primitive: if the objects are bound to this system it takes constant time
+	 * and doesn't allocate.
+	 * 
+	 * @return total energy.
+	 */
+	public long energyAsLong() {
+		if (x != null)
+			return energy;
 		long total = 0;
 		for (CelestialObject<Long> o : objects)
 			total += o.energy();
 		return total;
 	}
 
+	/**
+	 * Returns the energy of the planet of index {@code i}, from the arrays: the
+	 * taxicab norm of its velocity times the one of its position.
+	 * 
+	 * @param i the index.
+	 * @return the energy.
+	 */
+	private long planetEnergy(int i) {
+		return (Math.abs(vx[i]) + Math.abs(vy[i]) + Math.abs(vz[i]))
+				* (Math.abs(x[i]) + Math.abs(y[i]) + Math.abs(z[i]));
+	}
+
+	/**
+	 * Computes again the energies of the planets in [from, to).
+	 * 
+	 * @param from the first planet.
+	 * @param to   the planet after the last one.
+	 * @return the sum of their energies.
+	 */
+	private long updateEnergies(int from, int to) {
+		long total = 0;
+		for (int i = from; i < to; i++)
+			total += energies[i] = planetEnergy(i);
+		return total;
+	}
+
+	/**
+	 * Updates the energies after the planet of index {@code i} changed outside
+	 * of {@link #evolve()}.
+	 * 
+	 * @param i the index.
+	 */
+	private void updateEnergy(int i) {
+		energy -= energies[i];
+		energy += energies[i] = planetEnergy(i);
+	}
+
+	/**
+	 * Makes {@link #evolve()} run on {@code pool}, from now on: the three axes
+	 * evolve concurrently, and the planets of each axis are updated by parallel
+	 * tasks. The velocities are computed from a sorted copy of the positions of
+	 * the axis, taken before any planet moves, so the tasks need no other
+	 * barrier between the two phases. Every planet is updated with the same
+	 * integer arithmetic of the sequential evolution, so the results are exactly
+	 * the same. Only systems whose objects are bound to them and with at least
+	 * 16384 objects evolve in parallel, since smaller ones don't gain from it.
+	 * 
+	 * @param pool the pool, or null to evolve sequentially.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the pool this system evolves on.
+	 * 
+	 * @return the pool, or null if this system evolves sequentially.
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
 	@Override
 	public void evolve() {
+		if (x == null)
+			evolveObjects();
+		else if (pool != null && x.length >= PARALLEL_THRESHOLD)
+			evolveParallel();
+		else
+			evolveArrays();
+		assert repOk();
+	}
+
+	/**
+	 * Evolves the bound objects of this system in its arrays. The axes evolve
+	 * independently, each one with
+	 * {@link #evolveAxis(long[], long[], int, long[])}.
+	 */
+	private void evolveArrays() {
+		evolveAxis(x, vx, planets, sorted[0]);
+		evolveAxis(y, vy, planets, sorted[0]);
+		evolveAxis(z, vz, planets, sorted[0]);
+		energy = updateEnergies(0, planets);
+	}
+
+	/**
+	 * Evolves one axis of a system in place: first the velocity of each planet
+	 * changes by 1 toward every other object, then each planet moves by its
+	 * velocity. The change of velocity of a planet is the number of objects with
+	 * a greater coordinate minus the number of those with a smaller one: in
+	 * large systems they are counted by binary search in the sorted coordinates,
+	 * in O(n log n) time instead of O(n^2).
+	 * 
+	 * @param p       the coordinates of the objects, planets first.
+	 * @param v       the velocities of the planets.
+	 * @param planets the number of planets.
+	 * @param sorted  room to sort p, at least as long.
+	 */
+	private static void evolveAxis(long[] p, long[] v, int planets, long[] sorted) {
+		int n = p.length;
+		if (n < SORT_THRESHOLD)
+			for (int i = 0; i < planets; i++) {
+				long pi = p[i], d = 0;
+				for (long pj : p)
+					d += Long.compare(pj, pi);
+				v[i] += d;
+			}
+		else {
+			System.arraycopy(p, 0, sorted, 0, n);
+			Arrays.sort(sorted, 0, n);
+			accelerate(p, v, sorted, 0, planets);
+		}
+		move(p, v, 0, planets);
+	}
+
+	/**
+	 * Changes the velocities of the planets in [from, to) on one axis, counting
+	 * the objects with greater and smaller coordinates in the sorted ones.
+	 * 
+	 * @param p      the coordinates of the objects, planets first.
+	 * @param v      the velocities of the planets.
+	 * @param sorted the coordinates p, sorted.
+	 * @param from   the first planet.
+	 * @param to     the planet after the last one.
+	 */
+	private static void accelerate(long[] p, long[] v, long[] sorted, int from, int to) {
+		int n = p.length;
+		for (int i = from; i < to; i++) {
+			long pi = p[i];
+			int smaller = firstNotLess(sorted, n, pi), greater = n - firstNotLess(sorted, n, pi + 1);
+			if (pi == Long.MAX_VALUE)
+				greater = 0;
+			v[i] += greater - smaller;
+		}
+	}
+
+	/**
+	 * Moves the planets in [from, to) on one axis by their velocities.
+	 * 
+	 * @param p    the coordinates of the objects, planets first.
+	 * @param v    the velocities of the planets.
+	 * @param from the first planet.
+	 * @param to   the planet after the last one.
+	 */
+	private static void move(long[] p, long[] v, int from, int to) {
+		for (int i = from; i < to; i++)
+			p[i] += v[i];
+	}
+
+	/**
+	 * Evolves the bound objects of this system in its arrays on its pool, each
+	 * axis with {@link #evolveAxisParallel(long[], long[], long[], int)}.
+	 */
+	private void evolveParallel() {
+		if (sorted[1] == null) {
+			sorted[1] = new long[x.length];
+			sorted[2] = new long[x.length];
+		}
+		int chunk = Math.max(MIN_CHUNK, planets / (4 * pool.getParallelism()) + 1);
+		long[] partial = new long[(planets + chunk - 1) / chunk];
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			ForkJoinTask.invokeAll(ForkJoinTask.adapt(() -> evolveAxisParallel(x, vx, sorted[0], chunk)),
+					ForkJoinTask.adapt(() -> evolveAxisParallel(y, vy, sorted[1], chunk)),
+					ForkJoinTask.adapt(() -> evolveAxisParallel(z, vz, sorted[2], chunk)));
+			// energies need every axis evolved
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (int c = 0; c < partial.length; c++) {
+				int k = c;
+				tasks.add(ForkJoinTask.adapt(() -> partial[k] = updateEnergies(k * chunk,
+						Math.min(planets, (k + 1) * chunk))));
+			}
+			ForkJoinTask.invokeAll(tasks);
+		}));
+		energy = 0;
+		for (long e : partial)
+			energy += e;
+	}
+
+	/**
+	 * Evolves one axis of this system like
+	 * {@link #evolveAxis(long[], long[], int, long[])}, from a task of its pool,
+	 * splitting the planets in tasks of {@code chunk} planets.
+	 * 
+	 * @param p      the coordinates of the objects, planets first.
+	 * @param v      the velocities of the planets.
+	 * @param sorted room to sort p, as long.
+	 * @param chunk  the number of planets of each task.
+	 */
+	private void evolveAxisParallel(long[] p, long[] v, long[] sorted, int chunk) {
+		System.arraycopy(p, 0, sorted, 0, p.length);
+		Arrays.sort(sorted);
+		// velocities are counted in the copy of the positions taken before any
+		// planet moves, so each task can move its planets right after
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int from = 0; from < planets; from += chunk) {
+			int f = from, t = Math.min(planets, from + chunk);
+			tasks.add(ForkJoinTask.adapt(() -> {
+				accelerate(p, v, sorted, f, t);
+				move(p, v, f, t);
+			}));
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
+
+	/**
+	 * Returns the index of the first element of {@code a[0..n)}, sorted, which
+	 * is not less than {@code key}.
+	 * 
+	 * @param a   the sorted array.
+	 * @param n   the number of elements.
+	 * @param key the key.
+	 * @return the index, or n if every element is less than key.
+	 */
+	private static int firstNotLess(long[] a, int n, long key) {
+		int lo = 0, hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the number of steps after which this system first returns to a
+	 * state it was in. Since each state of the system has only one previous
+	 * state, the first state to repeat is the current one, so the system evolves
+	 * periodically with this period. Each axis evolves independently from the
+	 * others: they are simulated separately, on copies, until each one returns
+	 * to its current state, and the period of the system is the least common
+	 * multiple of theirs. The system doesn't change. The axes are simulated with
+	 * the rule of {@link DiscretePlanet} and {@link DiscreteFixedStar}, so the
+	 * objects must be bound to this system: other objects may evolve otherwise.
+	 * 
+	 * @param maxSteps the maximum number of steps to simulate for each axis.
+	 * @return the period of the system.
+	 * @throws IllegalArgumentException if maxSteps isn't positive.
+	 * @throws IllegalStateException    if the objects aren't bound to this
+	 *                                  system, or an axis doesn't repeat within
+	 *                                  maxSteps steps.
+	 * @throws ArithmeticException      if the period doesn't fit a long.
+	 */
+	public long period(long maxSteps) {
+		if (maxSteps <= 0)
+			throw new IllegalArgumentException("invalid maximum number of steps " + maxSteps);
+		if (x == null)
+			throw new IllegalStateException("the objects of the system aren't bound to it");
+		long res = 1;
+		for (int axis = 0; axis < 3; axis++) {
+			long[][] state = axisState(axis);
+			long p = axisPeriod(state[0], state[1], maxSteps);
+			if (p < 0)
+				throw new IllegalStateException("axis " + "xyz".charAt(axis) + " doesn't repeat within " + maxSteps
+						+ " steps");
+			res = Math.multiplyExact(res / gcd(res, p), p);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns a copy of the coordinates of the bound objects on an axis, planets
+	 * first, and of the velocities of the planets.
+	 * 
+	 * @param axis the axis: 0, 1 or 2 for x, y or z.
+	 * @return the coordinates and the velocities.
+	 */
+	private long[][] axisState(int axis) {
+		switch (axis) {
+			case 0:
+				return new long[][] { x.clone(), vx.clone() };
+			case 1:
+				return new long[][] { y.clone(), vy.clone() };
+			default:
+				return new long[][] { z.clone(), vz.clone() };
+		}
+	}
+
+	/**
+	 * Evolves an axis until it returns to its initial state.
+	 * 
+	 * @param p        the coordinates of the objects, planets first; evolved in
+	 *                 place.
+	 * @param v        the velocities of the planets; evolved in place.
+	 * @param maxSteps the maximum number of steps.
+	 * @return the period of the axis, or -1 if it doesn't repeat within maxSteps
+	 *         steps.
+	 */
+	private static long axisPeriod(long[] p, long[] v, long maxSteps) {
+		int planets = v.length;
+		long[] p0 = Arrays.copyOf(p, planets), v0 = v.clone(), sorted = new long[p.length];
+		for (long step = 1; step <= maxSteps; step++) {
+			evolveAxis(p, v, planets, sorted);
+			if (Arrays.equals(v, v0) && Arrays.equals(p, 0, planets, p0, 0, planets))
+				return step;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the greatest common divisor of two positive numbers.
+	 * 
+	 * @param a the first number.
+	 * @param b the second number.
+	 * @return the greatest common divisor.
+	 */
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/** Evolves the objects of this system through their methods. */
+	private void evolveObjects() {
 		for (CelestialObject<Long> o1 : objects) {
 			if (!(o1 instanceof Planet))
 				continue;
@@ -64,7 +539,6 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 		for (CelestialObject<Long> obj : objects)
 			if (obj instanceof Planet)
 				((Planet<Long>) obj).move();
-		assert repOk();
 	}
 
 	@Override
@@ -72,19 +546,52 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 		return objects.iterator();
 	}
 
+	/**
+	 * Returns the arrays holding the state of the bound objects of this system:
+	 * the coordinates x, y and z of the objects, planets first, and the
+	 * velocities vx, vy and vz of the planets. The arrays must not be modified.
+	 * 
+	 * @return the arrays x, y, z, vx, vy and vz, or null if the objects aren't
+	 *         bound to this system.
+	 */
+	long[][] state() {
+		return x == null ? null : new long[][] { x, y, z, vx, vy, vz };
+	}
+
+	/**
+	 * Returns the objects of this system in the order of their indexes in the
+	 * arrays, if they are bound, or in the order of iteration otherwise.
+	 * 
+	 * @return the objects.
+	 */
+	List<CelestialObject<Long>> objectsByIndex() {
+		if (x == null)
+			return new ArrayList<>(objects);
+		List<CelestialObject<Long>> res = new ArrayList<>(Collections.nCopies(x.length, null));
+		for (CelestialObject<Long> o : objects)
+			res.set(((DiscreteCelestialObject) o).index, o);
+		return res;
+	}
+
 	/**
 	 * Abstract, discrete implementation of a {@link AstroSystem.CelestialObject},
 	 * based on a {@link ThreeDVector}, which uses {@code Long}s as units.
 	 * 
 	 * @absFun AF(this) = Celestial object (specified by extension) of position
-	 *         position.
+	 *         position, or of the one of index index in system if system is not
+	 *         null.
 	 * @repInv name and position are not null.
 	 */
 	public static abstract class DiscreteCelestialObject implements CelestialObject<Long> {
-		/** Position of this object in space. */
+		/** Position of this object in space, while it's not bound to a system. */
 		protected ThreeDVector<Long> position;
 		private final String name;
 
+		// system holding the state of this object, and its index there; null if
+		// the object isn't bound to a system
+		DiscreteAstroSystem system;
+		int index;
+
 		/**
 		 * Constructs a DiscreteCelestialObject from the given name and position.
 		 * 
@@ -113,6 +620,8 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 
 		@Override
 		public ThreeDVector<Long> position() {
+			if (system != null)
+				return new SimpleLong3DVector(system.x[index], system.y[index], system.z[index]);
 			return position;
 		}
 
@@ -124,7 +633,7 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 
 		@Override
 		public Long potentialEnergy() {
-			return position.norm();
+			return position().norm();
 		}
 
 		@Override
@@ -202,6 +711,7 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 	 * @repInv {@code name}, {@code position} and {@code velocity} are not null.
 	 */
 	public static class DiscretePlanet extends DiscreteCelestialObject implements Planet<Long> {
+		/** Velocity of this planet, while it's not bound to a system. */
 		protected ThreeDVector<Long> velocity;
 
 		/**
@@ -225,17 +735,32 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 
 		@Override
 		public ThreeDVector<Long> velocity() {
+			if (system != null)
+				return new SimpleLong3DVector(system.vx[index], system.vy[index], system.vz[index]);
 			return velocity;
 		}
 
 		@Override
 		public Long kineticEnergy() {
-			return velocity.norm();
+			return velocity().norm();
+		}
+
+		@Override
+		public Long energy() {
+			if (system != null)
+				return system.energies[index];
+			return super.energy();
 		}
 
 		@Override
 		public void move() {
-			position = position.plus(velocity);
+			if (system != null) {
+				system.x[index] += system.vx[index];
+				system.y[index] += system.vy[index];
+				system.z[index] += system.vz[index];
+				system.updateEnergy(index);
+			} else
+				position = position.plus(velocity);
 			assert repOk();
 		}
 
@@ -243,7 +768,13 @@ public class DiscreteAstroSystem implements AstroSystem<Long> {
 		public void deltaVelocity(ThreeDVector<Long> v) {
 			if (v == null)
 				throw new NullPointerException("the delta vector can't be null");
-			velocity = velocity.plus(v);
+			if (system != null) {
+				system.vx[index] += v.x();
+				system.vy[index] += v.y();
+				system.vz[index] += v.z();
+				system.updateEnergy(index);
+			} else
+				velocity = velocity.plus(v);
 			assert repOk();
 		}
 
@@ -0,0 +1,89 @@
+// use this command to build documentation: javadoc -d docs -tag repInv:class:"Representation Invariant" -tag absFun:class:"Abstraction Function" *.java
+
+/**
+ * Simple implementation of the {@link ThreeDVector} interface with Double
+ * components.
+ *
+ * @absFun AF(this) = Three dimensional vector of x=this.x, y=this.y, z=this.z.
+ * @repInv true.
+ */
+public class SimpleDouble3DVector implements ThreeDVector<Double> {
+	private final double x;
+	private final double y;
+	private final double z;
+
+	/**
+	 * Constructs a SimpleDouble3DVector with the given components.
+	 *
+	 * @param x x component.
+	 * @param y y component.
+	 * @param z z component.
+	 */
+	public SimpleDouble3DVector(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation of this is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return true;
+	}
+
+	@Override
+	public Double x() {
+		return x;
+	}
+
+	@Override
+	public Double y() {
+		return y;
+	}
+
+	@Override
+	public Double z() {
+		return z;
+	}
+
+	@Override
+	public ThreeDVector<Double> plus(ThreeDVector<Double> other) {
+		if (other == null)
+			throw new NullPointerException("can't add a null vector");
+		SimpleDouble3DVector res = new SimpleDouble3DVector(this.x + other.x(), this.y + other.y(),
+				this.z + other.z());
+		assert res.repOk();
+		return res;
+	}
+
+	@Override
+	public Double norm() {
+		return Math.abs(x) + Math.abs(y) + Math.abs(z);
+	}
+
+	@Override
+	public String toString() {
+		return "(" + x + ", " + y + ", " + z + ")";
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ThreeDVector<?>))
+			return false;
+		ThreeDVector<?> other = (ThreeDVector<?>) obj;
+		return this.x().equals(other.x()) && this.y().equals(other.y()) && this.z().equals(other.z());
+	}
+
+	@Override
+	public int hashCode() {
+		return (31 * Double.hashCode(x) + Double.hashCode(y)) * 31 + Double.hashCode(z);
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
@@ -14,7 +16,7 @@ public class Test {
 			return "Stella fissa, nome: " + obj.name() + ", pos: " + obj.position();
 	}
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		List<AstroSystem.CelestialObject<Long>> sysList = new LinkedList<>();
 		Scanner sc = new Scanner(System.in);
 		while (sc.hasNext()) {
@@ -29,8 +31,27 @@ public class Test {
 		}
 		sc.close();
 		DiscreteAstroSystem sys = new DiscreteAstroSystem(sysList);
-		for (int i = 0; i < Integer.valueOf(args[0]); i++)
-			sys.evolve();
+		if (args[0].equals("period")) {
+			// period within the given steps per axis, checked by evolving the system
+			long period = sys.period(Long.valueOf(args[1]));
+			System.out.println("Periodo: " + period);
+			String initial = sysList.toString();
+			long steps = 0;
+			do {
+				sys.evolve();
+				steps++;
+			} while (steps < period && !sysList.toString().equals(initial));
+			System.out.println("Passi per tornare allo stato iniziale: " + steps + ", "
+					+ (sysList.toString().equals(initial) ? "stato uguale" : "stato diverso"));
+		} else if (args.length > 1)
+			// trajectory file and, optionally, steps between frames
+			try (TrajectoryWriter w = new TrajectoryWriter(sys, Paths.get(args[1]),
+					args.length > 2 ? Integer.valueOf(args[2]) : 1, 1)) {
+				w.evolve(Integer.valueOf(args[0]));
+			}
+		else
+			for (int i = 0; i < Integer.valueOf(args[0]); i++)
+				sys.evolve();
 		sysList.sort(new Comparator<AstroSystem.CelestialObject<Long>>() {
 
 			@Override
@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+// use this command to build documentation: javadoc -d docs -tag repInv:class:"Representation Invariant" -tag absFun:class:"Abstraction Function" *.java
+
+/**
+ * Streaming sink of the trajectory of an {@link AstroSystem}: it evolves the
+ * system and appends its state every {@code every} steps, and its energy every
+ * {@code energyEvery} steps, to a binary file, through a buffer and a
+ * {@link FileChannel}. The state of {@link DiscreteAstroSystem}s whose objects
+ * are bound to them is copied in bulk from their arrays.
+ * <p>
+ * The file is little-endian, made of fixed-width fields so that it can be
+ * mapped as arrays by analysis tools. It starts with the magic bytes
+ * {@code ATR}, the version byte, the type of the values ({@code J} for 64-bit
+ * integers, {@code D} for doubles), the number of objects as an int and, for
+ * each object, the length of its name in UTF-8 as an unsigned short and the
+ * name. Then come the records, each one a tag byte and the step as a long:
+ * frames, tag {@code F}, have 6 columns with a value per object, the
+ * coordinates x, y, z and the velocities vx, vy, vz (0 for fixed stars), in
+ * the order of the names; energy records, tag {@code E}, have the energy of
+ * the system. The initial state is step 0.
+ *
+ * @absFun AF(this) = Writer of the trajectory of system to ch, which is at
+ *         step step, and will write the state every every steps and the
+ *         energy every energyEvery steps (never if 0).
+ * @repInv system, ch, buf and order are not null; every > 0; energyEvery >=
+ *         0; step >= 0; order has the objects of system.
+ */
+public class TrajectoryWriter implements AutoCloseable {
+	static final byte[] MAGIC = { 'A', 'T', 'R' };
+	static final int VERSION = 1;
+
+	// tags of the records
+	static final byte FRAME = 'F';
+	static final byte ENERGY = 'E';
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final AstroSystem<?> system;
+	private final FileChannel ch;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final int every;
+	private final int energyEvery;
+	private long step;
+
+	// objects in the order of the columns, and true if their values are doubles
+	private final List<? extends AstroSystem.CelestialObject<?>> order;
+	private final boolean doubles;
+
+	/**
+	 * Constructs a writer of the trajectory of {@code system} to {@code file},
+	 * replacing its content, and writes the initial state.
+	 *
+	 * @param system      the system.
+	 * @param file        the file.
+	 * @param every       the number of steps between two frames.
+	 * @param energyEvery the number of steps between two energy records, or 0 to
+	 *                    write none.
+	 * @throws IOException              if the file can't be written.
+	 * @throws NullPointerException     if system or file are null.
+	 * @throws IllegalArgumentException if every isn't positive, energyEvery is
+	 *                                  negative, or a name is longer than 65535
+	 *                                  bytes.
+	 */
+	public TrajectoryWriter(AstroSystem<?> system, Path file, int every, int energyEvery) throws IOException {
+		if (system == null)
+			throw new NullPointerException("can't write the trajectory of a null system");
+		if (every <= 0)
+			throw new IllegalArgumentException("invalid number of steps between frames " + every);
+		if (energyEvery < 0)
+			throw new IllegalArgumentException("invalid number of steps between energies " + energyEvery);
+		this.system = system;
+		this.every = every;
+		this.energyEvery = energyEvery;
+		if (system instanceof DiscreteAstroSystem)
+			order = ((DiscreteAstroSystem) system).objectsByIndex();
+		else {
+			List<AstroSystem.CelestialObject<?>> objects = new ArrayList<>();
+			for (AstroSystem.CelestialObject<?> o : system)
+				objects.add(o);
+			order = objects;
+		}
+		doubles = !order.isEmpty() && !isIntegral(order.get(0).position().x());
+		ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			buf.put(MAGIC).put((byte) VERSION).put((byte) (doubles ? 'D' : 'J')).putInt(order.size());
+			for (AstroSystem.CelestialObject<?> o : order) {
+				byte[] name = o.name().getBytes(StandardCharsets.UTF_8);
+				if (name.length > 0xFFFF)
+					throw new IllegalArgumentException("the name of " + o.name().substring(0, 16) + "... is too long");
+				room(2 + name.length);
+				buf.putShort((short) name.length).put(name);
+			}
+			record();
+		} catch (IOException | RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+		assert repOk();
+	}
+
+	/**
+	 * Implementation of the representation invariant. Returns true if the
+	 * representation respects all its requirements. Used in assertions.
+	 *
+	 * @return true if the representation of this is ok; false otherwise.
+	 */
+	public boolean repOk() {
+		return system != null && ch != null && buf != null && order != null && every > 0 && energyEvery >= 0
+				&& step >= 0;
+	}
+
+	/**
+	 * Returns true if {@code n} is of an integral type.
+	 *
+	 * @param n the number.
+	 * @return true if n is a Long, Integer, Short or Byte; false otherwise.
+	 */
+	private static boolean isIntegral(Number n) {
+		return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+	}
+
+	/**
+	 * Evolves the system {@code steps} times, writing its state and energy at
+	 * the steps they're due.
+	 *
+	 * @param steps the number of steps.
+	 * @throws IOException              if the file can't be written.
+	 * @throws IllegalArgumentException if steps is negative.
+	 */
+	public void evolve(long steps) throws IOException {
+		if (steps < 0)
+			throw new IllegalArgumentException("negative number of steps " + steps);
+		for (long i = 0; i < steps; i++) {
+			system.evolve();
+			step++;
+			record();
+		}
+		assert repOk();
+	}
+
+	/**
+	 * Returns the number of steps the system evolved through this writer.
+	 *
+	 * @return the current step.
+	 */
+	public long step() {
+		return step;
+	}
+
+	/**
+	 * Writes the records due at the current step.
+	 *
+	 * @throws IOException if the file can't be written.
+	 */
+	private void record() throws IOException {
+		if (step % every == 0)
+			writeFrame();
+		if (energyEvery > 0 && step % energyEvery == 0) {
+			room(17);
+			buf.put(ENERGY).putLong(step);
+			if (system instanceof DiscreteAstroSystem)
+				buf.putLong(((DiscreteAstroSystem) system).energyAsLong());
+			else
+				putValue(system.energy());
+		}
+	}
+
+	/**
+	 * Writes a frame with the current state of the system.
+	 *
+	 * @throws IOException if the file can't be written.
+	 */
+	private void writeFrame() throws IOException {
+		room(9);
+		buf.put(FRAME).putLong(step);
+		long[][] state = system instanceof DiscreteAstroSystem ? ((DiscreteAstroSystem) system).state() : null;
+		if (state != null) {
+			int n = order.size();
+			for (int c = 0; c < 6; c++) {
+				// velocities are only held for the planets, which come first
+				putLongs(state[c]);
+				for (int i = state[c].length; i < n; i++) {
+					room(8);
+					buf.putLong(0);
+				}
+			}
+			return;
+		}
+		for (int c = 0; c < 6; c++)
+			for (AstroSystem.CelestialObject<?> o : order) {
+				ThreeDVector<?> v = c < 3 ? o.position()
+						: o instanceof Planet<?> ? ((Planet<?>) o).velocity() : null;
+				room(8);
+				putValue(v == null ? 0 : c % 3 == 0 ? v.x() : c % 3 == 1 ? v.y() : v.z());
+			}
+	}
+
+	/**
+	 * Puts a value in the buffer, as a long or as a double.
+	 *
+	 * @param n the value.
+	 */
+	private void putValue(Number n) {
+		if (doubles)
+			buf.putDouble(n.doubleValue());
+		else
+			buf.putLong(n.longValue());
+	}
+
+	/**
+	 * Puts the elements of {@code a} in the buffer, in bulk, writing it out when
+	 * it's full.
+	 *
+	 * @param a the array.
+	 * @throws IOException if the file can't be written.
+	 */
+	private void putLongs(long[] a) throws IOException {
+		for (int from = 0; from < a.length;) {
+			room(8);
+			int k = Math.min(buf.remaining() / 8, a.length - from);
+			buf.asLongBuffer().put(a, from, k);
+			buf.position(buf.position() + 8 * k);
+			from += k;
+		}
+	}
+
+	/**
+	 * Makes sure the buffer has room for {@code n} bytes, writing it out if
+	 * needed.
+	 *
+	 * @param n the number of bytes, at most the capacity of the buffer.
+	 * @throws IOException if the file can't be written.
+	 */
+	private void room(int n) throws IOException {
+		if (buf.remaining() < n)
+			flush();
+	}
+
+	/**
+	 * Writes the buffered bytes to the file.
+	 *
+	 * @throws IOException if the file can't be written.
+	 */
+	private void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			ch.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * Writes the buffered records and closes the file.
+	 *
+	 * @throws IOException if the file can't be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!ch.isOpen())
+			return;
+		try {
+			flush();
+		} finally {
+			ch.close();
+		}
+	}
+
+}